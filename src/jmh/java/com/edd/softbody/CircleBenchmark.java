@@ -0,0 +1,79 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.physics.box2d.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circle vertex generation and creation. Bodies are created without a texture and only
+ * {@link SoftBody#update()} work is measured, bodies are never drawn, so no GL context is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircleBenchmark {
+
+    // Segment count is derived from the radius.
+    @Param({"0.5", "1", "2", "4"})
+    public float radius;
+
+    private World world;
+    private Solver solver;
+    private Circle circle;
+    private float[] vertices;
+
+    @Setup
+    public void setup() {
+        Box2D.init();
+
+        world = new World(new Vector2(), true);
+        solver = new Box2DSolver(world);
+        circle = new Circle(null, solver, radius, 0, 0);
+        vertices = circle.updateVertices(new float[0]);
+    }
+
+    @TearDown
+    public void tearDown() {
+        solver.dispose();
+        world.dispose();
+    }
+
+    @Benchmark
+    public float[] updateVertices() {
+        return circle.updateVertices(vertices);
+    }
+
+    @Benchmark
+    public Circle create(Spawn spawn) {
+        return new Circle(null, spawn.solver, radius, 0, 0);
+    }
+
+    /**
+     * Fresh world for each spawn, or else spawned bodies would pile up and slow down the world.
+     * Creating a body takes long enough for per invocation setup to not skew the results.
+     */
+    @State(Scope.Thread)
+    public static class Spawn {
+
+        private World world;
+        private Solver solver;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            world = new World(new Vector2(), true);
+            solver = new Box2DSolver(world);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            solver.dispose();
+            world.dispose();
+        }
+    }
+}
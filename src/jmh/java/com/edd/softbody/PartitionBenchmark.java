@@ -0,0 +1,52 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.physics.box2d.Box2D;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps per second of a partitioned scene depending on thread count. Note that partitioning
+ * also removes contacts between bodies in different worlds, so single thread results are
+ * the baseline to compare against, not the plain box2d solver.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartitionBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"40", "80"})
+    public int bodies;
+
+    private Scene scene;
+
+    @Setup
+    public void setup() {
+        Box2D.init();
+
+        Scenario scenario = Scenario.parse("partitioned:"
+                + "circles=" + bodies
+                + ",rectangles=" + bodies
+                + ",solver=partitioned"
+                + ",threads=" + threads);
+
+        scene = new Scene(HeadlessRunner.WIDTH, HeadlessRunner.HEIGHT, scenario.getBackend(), scenario.getThreads());
+        HeadlessRunner.spawn(scene, scenario);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scene.dispose();
+    }
+
+    @Benchmark
+    public void step() {
+        scene.step();
+    }
+}
@@ -0,0 +1,84 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.physics.box2d.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Vertex updates of all bodies in a box2d world, reading each particle from the solver versus
+ * reading all particles into a {@link PositionReadback} first. Bodies are 10x10 rectangles. Both
+ * cross JNI once per particle, so they are expected to take about as long.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadbackBenchmark {
+
+    private static final int SIZE = 10;
+
+    @Param({"1000", "10000", "50000"})
+    public int particles;
+
+    private World world;
+    private Solver solver;
+    private final List<SoftBody> bodies = new ArrayList<>();
+    private final PositionReadback readback = new PositionReadback();
+
+    @Setup
+    public void setup() {
+        Box2D.init();
+
+        world = new World(new Vector2(), true);
+        solver = new Box2DSolver(world);
+
+        int count = particles / (SIZE * SIZE);
+        int columns = (int) Math.ceil(Math.sqrt(count));
+
+        for (int i = 0; i < count; i++) {
+            float x = (i % columns) * SIZE;
+            float y = (float) (i / columns) * SIZE;
+
+            bodies.add(new Rectangle(null, solver, x, y, SIZE, SIZE));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        solver.dispose();
+        world.dispose();
+    }
+
+    @Benchmark
+    public void perParticle() {
+        for (int i = 0; i < bodies.size(); i++) {
+            SoftBody body = bodies.get(i);
+            body.setPositions(solver);
+            body.update();
+        }
+    }
+
+    @Benchmark
+    public void bulk() {
+        readback.update(solver);
+
+        for (int i = 0; i < bodies.size(); i++) {
+            SoftBody body = bodies.get(i);
+            body.setPositions(readback);
+            body.update();
+        }
+    }
+
+    @Benchmark
+    public PositionReadback readback() {
+        readback.update(solver);
+        return readback;
+    }
+}
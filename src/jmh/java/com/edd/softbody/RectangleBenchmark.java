@@ -0,0 +1,85 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.physics.box2d.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rectangle vertex generation, index building and creation. Bodies are created without a
+ * texture and only {@link SoftBody#update()} work is measured, bodies are never drawn, so no GL
+ * context is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RectangleBenchmark {
+
+    // Grid width and height.
+    @Param({"3", "5", "10", "20"})
+    public int grid;
+
+    private World world;
+    private Solver solver;
+    private Rectangle rectangle;
+    private float[] vertices;
+
+    @Setup
+    public void setup() {
+        Box2D.init();
+
+        world = new World(new Vector2(), true);
+        solver = new Box2DSolver(world);
+        rectangle = new Rectangle(null, solver, 0, 0, grid, grid);
+        vertices = new float[grid * grid * SoftBody.COMPONENT_COUNT];
+    }
+
+    @TearDown
+    public void tearDown() {
+        solver.dispose();
+        world.dispose();
+    }
+
+    @Benchmark
+    public float[] updateVertices() {
+        return rectangle.updateVertices(vertices);
+    }
+
+    @Benchmark
+    public int[] createIndices() {
+        return rectangle.createIndices();
+    }
+
+    @Benchmark
+    public Rectangle create(Spawn spawn) {
+        return new Rectangle(null, spawn.solver, 0, 0, grid, grid);
+    }
+
+    /**
+     * Fresh world for each spawn, or else spawned bodies would pile up and slow down the world.
+     * Creating a body takes long enough for per invocation setup to not skew the results.
+     */
+    @State(Scope.Thread)
+    public static class Spawn {
+
+        private World world;
+        private Solver solver;
+
+        @Setup(Level.Invocation)
+        public void setup() {
+            world = new World(new Vector2(), true);
+            solver = new Box2DSolver(world);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            solver.dispose();
+            world.dispose();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Box2D;
+import com.badlogic.gdx.physics.box2d.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rectangles drawn with the same mesh, simulated at coarser tiers and refined back to the mesh
+ * size. Stepping gets much cheaper with each tier and updating vertices gets cheaper as well,
+ * as interpolating vertices costs less than reading particles from the solver. Bodies are
+ * created without a texture, so no GL context is needed. Bodies never sleep, so that each step
+ * solves all of their joints.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefinementBenchmark {
+
+    // Grid width and height at tier 0, each tier about halves them.
+    private static final int GRID = 9;
+
+    // Bodies laid out in a grid of cells, far enough apart not to touch.
+    private static final int COLUMNS = 5;
+    private static final int BODIES = 20;
+    private static final float CELL = 3.5f;
+
+    @Param({"0", "1", "2"})
+    public int tier;
+
+    private World world;
+    private Solver solver;
+    private Rectangle[] rectangles;
+    private float[][] vertices;
+
+    @Setup
+    public void setup() {
+        Box2D.init();
+
+        world = new World(new Vector2(), false);
+        solver = new Box2DSolver(world);
+        rectangles = new Rectangle[BODIES];
+        vertices = new float[BODIES][];
+
+        for (int i = 0; i < BODIES; i++) {
+            float x = (i % COLUMNS) * CELL;
+            float y = (i / COLUMNS) * CELL;
+
+            rectangles[i] = new Rectangle(null, solver, x, y, GRID, GRID, Bracing.FULL, tier);
+            rectangles[i].setRefinement(1 << tier);
+            vertices[i] = rectangles[i].updateVertices(new float[0]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        solver.dispose();
+        world.dispose();
+    }
+
+    @Benchmark
+    public void step() {
+        solver.step(Scene.TIME_STEP, solver.getIterations());
+    }
+
+    @Benchmark
+    public float[][] updateVertices() {
+        for (int i = 0; i < BODIES; i++) {
+            rectangles[i].updateVertices(vertices[i]);
+        }
+        return vertices;
+    }
+}
@@ -0,0 +1,56 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.physics.box2d.Box2D;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scene ticks per second of a host running many small sandbox scenes, depending on worker count.
+ * Each operation is one tick of one scene, so dividing the score by the worker count gives scene
+ * ticks per second per core, as long as there are no more workers than cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulationHostBenchmark {
+
+    private static final int SCENES = 2000;
+
+    // One 60 fps frame worth of steps per tick.
+    private static final float TICK_TIME = 1f / 60f;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private SimulationHost host;
+
+    @Setup
+    public void setup() {
+        Box2D.init();
+
+        Scenario scenario = Scenario.parse("sandbox:circles=1,rectangles=1,speed=5");
+
+        host = new SimulationHost(threads, TICK_TIME, SCENES * 2);
+        for (int i = 0; i < SCENES; i++) {
+            Scene scene = new Scene(HeadlessRunner.WIDTH, HeadlessRunner.HEIGHT);
+            HeadlessRunner.spawn(scene, scenario);
+            host.add(scene);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        host.dispose();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SCENES)
+    public void tick() throws InterruptedException {
+        host.advance();
+        host.awaitIdle();
+    }
+}
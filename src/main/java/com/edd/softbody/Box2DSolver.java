@@ -0,0 +1,600 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.*;
+import com.badlogic.gdx.physics.box2d.joints.DistanceJointDef;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ShortArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Solver where each particle is a box2d body with a circle fixture and particles are connected
+ * using distance joints. Area constraints are not supported, pressure and shape matching
+ * constraints are solved by changing particle velocities before each step.
+ * <p>
+ * Frozen particles are replaced with a single rigid proxy body which has a circle fixture per
+ * particle, so a resting soft body costs as much as one rigid body. Proxies are thawed once a
+ * moving body hits them or they start moving.
+ */
+public final class Box2DSolver implements Solver {
+
+    // Mass of particle bodies, circle fixtures of the soft body density.
+    private static final float MASS = SoftBody.DENSITY * MathUtils.PI * SoftBody.RADIUS * SoftBody.RADIUS;
+
+    // Box2d linear sleep tolerance, smaller corrections are skipped so that resting bodies can sleep.
+    private static final float SLEEP_SPEED = 0.01f;
+
+    private final World world;
+
+    // Particle bodies, indexed by particle id, null for frozen and removed particles.
+    private final List<Body> bodies = new ArrayList<>();
+
+    // Proxies of frozen particles and particle offsets from them, indexed by particle id.
+    private final List<Proxy> particleProxies = new ArrayList<>();
+    private final FloatArray offsetX = new FloatArray();
+    private final FloatArray offsetY = new FloatArray();
+
+    // Constraints, kept in order to recreate joints after thawing. Removed constraints are
+    // marked with a negative particle id until their slot is reused.
+    private final IntArray constraintA = new IntArray();
+    private final IntArray constraintB = new IntArray();
+    private final FloatArray constraintLength = new FloatArray();
+    private final FloatArray constraintFrequency = new FloatArray();
+    private final FloatArray constraintDamping = new FloatArray();
+    private int constraintCount;
+
+    // Ids of removed particles and constraints, reused before new ones are handed out.
+    private final IntArray freeParticles = new IntArray();
+    private final IntArray freeConstraints = new IntArray();
+
+    // Pressure and shape matching constraints.
+    private final ShapeConstraints shapes = new ShapeConstraints();
+    private final Predicted predicted = new Predicted();
+
+    // Collision filter groups, indexed by particle id. Shape matched particles have no joints
+    // keeping touching neighbours from colliding, so each shape shares a negative group instead.
+    private final ShortArray filterGroups = new ShortArray();
+    private final Filter filter = new Filter();
+    private short lastFilterGroup;
+
+    // All proxies and proxies to thaw after the current step.
+    private final List<Proxy> proxies = new ArrayList<>();
+    private final List<Proxy> thawing = new ArrayList<>();
+
+    // Shape of the joined bodies.
+    private final CircleShape circleShape = new CircleShape();
+
+    // Fixture for the bodies that are to be joined.
+    private final FixtureDef fixtureDef = new FixtureDef();
+
+    // Definition for the bodies that are to be joined.
+    private final BodyDef bodyDef = new BodyDef();
+
+    // Definition for the rigid bodies replacing frozen particles.
+    private final BodyDef proxyDef = new BodyDef();
+
+    // Definition for the joints that will connect to bodies.
+    private final DistanceJointDef jointDef = new DistanceJointDef();
+
+    private final Vector2 position = new Vector2();
+
+    public Box2DSolver(World world) {
+        this.world = world;
+
+        circleShape.setRadius(SoftBody.RADIUS);
+
+        fixtureDef.restitution = SoftBody.RESTITUTION;
+        fixtureDef.friction = SoftBody.FRICTION;
+        fixtureDef.density = SoftBody.DENSITY;
+        fixtureDef.shape = circleShape;
+
+        bodyDef.type = BodyDef.BodyType.DynamicBody;
+        bodyDef.fixedRotation = true;
+
+        proxyDef.type = BodyDef.BodyType.DynamicBody;
+
+        jointDef.collideConnected = false;
+
+        world.setContactListener(new ProxyContacts());
+    }
+
+    @Override
+    public int createParticle(float x, float y) {
+        bodyDef.position.set(x, y);
+
+        Body body = world.createBody(bodyDef);
+        body.createFixture(fixtureDef);
+
+        if (freeParticles.size > 0) {
+            int particle = freeParticles.pop();
+            bodies.set(particle, body);
+            filterGroups.set(particle, (short) 0);
+            return particle;
+        }
+
+        bodies.add(body);
+        filterGroups.add((short) 0);
+
+        particleProxies.add(null);
+        offsetX.add(0);
+        offsetY.add(0);
+
+        return bodies.size() - 1;
+    }
+
+    @Override
+    public void createDistanceConstraint(int a, int b, float frequency, float damping) {
+        int constraint;
+        if (freeConstraints.size > 0) {
+            constraint = freeConstraints.pop();
+            constraintA.set(constraint, a);
+            constraintB.set(constraint, b);
+            constraintLength.set(constraint, distance(a, b));
+            constraintFrequency.set(constraint, frequency);
+            constraintDamping.set(constraint, damping);
+        } else {
+            constraint = constraintA.size;
+            constraintA.add(a);
+            constraintB.add(b);
+            constraintLength.add(distance(a, b));
+            constraintFrequency.add(frequency);
+            constraintDamping.add(damping);
+        }
+        constraintCount++;
+
+        createJoint(constraint);
+    }
+
+    @Override
+    public void createAreaConstraint(int[] ring) {
+
+        // Box2d has no area joints, bodies rely on distance joints only.
+    }
+
+    @Override
+    public void createPressureConstraint(int[] ring, float stiffness) {
+        shapes.addPressure(ring, stiffness, this);
+    }
+
+    @Override
+    public void createShapeConstraint(int[] particles, float stiffness) {
+        shapes.addShape(particles, stiffness, this);
+
+        // Groups are reused once all are handed out, shapes sharing one only stop colliding.
+        lastFilterGroup = (short) (lastFilterGroup == Short.MIN_VALUE ? -1 : lastFilterGroup - 1);
+        filter.groupIndex = lastFilterGroup;
+
+        for (int particle : particles) {
+            filterGroups.set(particle, lastFilterGroup);
+            bodies.get(particle).getFixtureList().first().setFilterData(filter);
+        }
+    }
+
+    @Override
+    public void destroyParticles(int[] particles) {
+        for (int particle : particles) {
+            Proxy proxy = particleProxies.get(particle);
+            if (proxy != null) {
+                thaw(proxy, true);
+            }
+        }
+
+        // Joints are destroyed along with bodies.
+        for (int particle : particles) {
+            world.destroyBody(bodies.get(particle));
+            bodies.set(particle, null);
+        }
+
+        for (int i = 0; i < constraintA.size; i++) {
+            int a = constraintA.get(i);
+            if (a >= 0 && (isRemoved(a) || isRemoved(constraintB.get(i)))) {
+                constraintA.set(i, -1);
+                constraintCount--;
+                freeConstraints.add(i);
+            }
+        }
+        shapes.remove(particles);
+
+        // Constraints no longer refer to removed particles, so their ids can be handed out again.
+        freeParticles.addAll(particles);
+    }
+
+    @Override
+    public void setActive(int[] particles, boolean active) {
+        for (int particle : particles) {
+            Proxy proxy = particleProxies.get(particle);
+            if (proxy != null) {
+                thaw(proxy, active);
+            }
+        }
+
+        // Inactive bodies keep their joints, but are left out of the broad phase and islands.
+        for (int particle : particles) {
+            bodies.get(particle).setActive(active);
+        }
+        shapes.setActive(particles, active);
+    }
+
+    @Override
+    public void setPosition(int particle, float x, float y) {
+        bodies.get(particle).setTransform(x, y, 0);
+    }
+
+    @Override
+    public Vector2 getVelocity(int particle, Vector2 out) {
+        Proxy proxy = particleProxies.get(particle);
+        if (proxy != null) {
+            return out.set(proxy.body.getLinearVelocityFromLocalPoint(position.set(offsetX.get(particle), offsetY.get(particle))));
+        }
+
+        Body body = bodies.get(particle);
+        return body == null ? out.setZero() : out.set(body.getLinearVelocity());
+    }
+
+    @Override
+    public void setVelocity(int particle, float x, float y) {
+        bodies.get(particle).setLinearVelocity(x, y);
+    }
+
+    @Override
+    public Vector2 getPosition(int particle, Vector2 out) {
+        Proxy proxy = particleProxies.get(particle);
+        if (proxy != null) {
+            return out.set(proxy.body.getWorldPoint(position.set(offsetX.get(particle), offsetY.get(particle))));
+        }
+
+        Body body = bodies.get(particle);
+        return body == null ? out.setZero() : out.set(body.getPosition());
+    }
+
+    /**
+     * Positions are copied with one JNI call per particle body, frozen particles are read
+     * through their proxies.
+     */
+    @Override
+    public void readPositions(float[] out) {
+        for (int i = 0; i < bodies.size(); i++) {
+            getPosition(i, position);
+            out[i * 2] = position.x;
+            out[i * 2 + 1] = position.y;
+        }
+    }
+
+    @Override
+    public boolean freeze(int[] particles) {
+        if (particles.length == 0 || particleProxies.get(particles[0]) != null) {
+            return false;
+        }
+
+        // Dragged bodies must stay soft, and joints other than constraints would be lost.
+        for (int particle : particles) {
+            for (JointEdge edge : bodies.get(particle).getJointList()) {
+                if (edge.joint.getType() != JointDef.JointType.DistanceJoint) {
+                    return false;
+                }
+            }
+        }
+
+        float x = 0;
+        float y = 0;
+        for (int particle : particles) {
+            Vector2 position = bodies.get(particle).getPosition();
+            x += position.x;
+            y += position.y;
+        }
+
+        proxyDef.position.set(x / particles.length, y / particles.length);
+
+        Proxy proxy = new Proxy(world.createBody(proxyDef), particles);
+        proxy.body.setUserData(proxy);
+
+        for (int particle : particles) {
+            Body body = bodies.get(particle);
+            Vector2 position = body.getPosition();
+
+            float localX = position.x - proxyDef.position.x;
+            float localY = position.y - proxyDef.position.y;
+
+            offsetX.set(particle, localX);
+            offsetY.set(particle, localY);
+
+            circleShape.setPosition(this.position.set(localX, localY));
+            proxy.body.createFixture(fixtureDef);
+
+            // Joints are destroyed along with the body.
+            bodies.set(particle, null);
+            world.destroyBody(body);
+            particleProxies.set(particle, proxy);
+        }
+        circleShape.setPosition(position.setZero());
+
+        for (int i = 0; i < constraintA.size; i++) {
+            int a = constraintA.get(i);
+            if (a >= 0 && particleProxies.get(a) == proxy) {
+                proxy.constraints.add(i);
+            }
+        }
+
+        proxies.add(proxy);
+        return true;
+    }
+
+    @Override
+    public void thaw(float minX, float minY, float maxX, float maxY) {
+        world.QueryAABB(fixture -> {
+            Object data = fixture.getBody().getUserData();
+            if (data instanceof Proxy && !thawing.contains(data)) {
+                thawing.add((Proxy) data);
+            }
+            return true;
+        }, minX, minY, maxX, maxY);
+
+        thawAll();
+    }
+
+    @Override
+    public boolean isFrozen(int particle) {
+        return particleProxies.get(particle) != null;
+    }
+
+    @Override
+    public float getMaxSpeed(int[] particles) {
+        float max = 0;
+        for (int particle : particles) {
+            Proxy proxy = particleProxies.get(particle);
+            Body body = proxy == null ? bodies.get(particle) : proxy.body;
+
+            max = Math.max(max, body.getLinearVelocity().len2());
+        }
+        return (float) Math.sqrt(max);
+    }
+
+    @Override
+    public void step(float timeStep, int iterations) {
+        if (shapes.size() > 0) {
+            predicted.timeStep = timeStep;
+            shapes.solve(predicted);
+        }
+
+        world.step(timeStep, iterations, Scene.positionIterations(iterations));
+
+        // Proxies pushed by a lasting contact do not report a new one.
+        for (int i = 0; i < proxies.size(); i++) {
+            Proxy proxy = proxies.get(i);
+            if (isMoving(proxy.body) && !thawing.contains(proxy)) {
+                thawing.add(proxy);
+            }
+        }
+
+        thawAll();
+    }
+
+    @Override
+    public int getIterations() {
+        return Scene.VELOCITY_ITERATIONS;
+    }
+
+    @Override
+    public void clear() {
+        bodies.clear();
+        filterGroups.clear();
+        particleProxies.clear();
+        offsetX.clear();
+        offsetY.clear();
+
+        constraintA.clear();
+        constraintB.clear();
+        constraintLength.clear();
+        constraintFrequency.clear();
+        constraintDamping.clear();
+        constraintCount = 0;
+
+        freeParticles.clear();
+        freeConstraints.clear();
+
+        proxies.clear();
+        thawing.clear();
+
+        shapes.clear();
+
+        // Cleanup all bodies and joints, exclude static bodies.
+        Array<Body> bodies = new Array<>();
+        world.getBodies(bodies);
+        bodies.forEach(b -> {
+            if (BodyDef.BodyType.StaticBody != b.getType()) {
+                world.destroyBody(b);
+            }
+        });
+
+        Array<Joint> joints = new Array<>();
+        world.getJoints(joints);
+        joints.forEach(world::destroyJoint);
+    }
+
+    @Override
+    public int getParticleCount() {
+        return bodies.size();
+    }
+
+    @Override
+    public int getConstraintCount() {
+        return constraintCount + shapes.size();
+    }
+
+    @Override
+    public void dispose() {
+        circleShape.dispose();
+    }
+
+    /**
+     * Recreate particle bodies and joints of all proxies waiting to be thawed.
+     */
+    private void thawAll() {
+        for (int i = 0; i < thawing.size(); i++) {
+            thaw(thawing.get(i), true);
+        }
+        thawing.clear();
+    }
+
+    /**
+     * Recreate particle bodies at their offsets from the proxy, moving along with it.
+     *
+     * @param active whether created bodies are active, inactive ones are much cheaper to create.
+     */
+    private void thaw(Proxy proxy, boolean active) {
+        bodyDef.active = active;
+
+        for (int particle : proxy.particles) {
+            position.set(offsetX.get(particle), offsetY.get(particle));
+
+            bodyDef.linearVelocity.set(proxy.body.getLinearVelocityFromLocalPoint(position));
+            bodyDef.position.set(proxy.body.getWorldPoint(position));
+
+            Body body = world.createBody(bodyDef);
+            fixtureDef.filter.groupIndex = filterGroups.get(particle);
+            body.createFixture(fixtureDef);
+
+            bodies.set(particle, body);
+            particleProxies.set(particle, null);
+        }
+        bodyDef.linearVelocity.setZero();
+        bodyDef.active = true;
+        fixtureDef.filter.groupIndex = 0;
+
+        for (int i = 0; i < proxy.constraints.size; i++) {
+            createJoint(proxy.constraints.get(i));
+        }
+
+        world.destroyBody(proxy.body);
+        proxies.remove(proxy);
+    }
+
+    private void createJoint(int constraint) {
+        Body bodyA = bodies.get(constraintA.get(constraint));
+        Body bodyB = bodies.get(constraintB.get(constraint));
+
+        // Particle bodies are centered on their particles, so joints stay anchored at body origins
+        // and nothing has to be read from the bodies.
+        jointDef.bodyA = bodyA;
+        jointDef.bodyB = bodyB;
+        jointDef.length = constraintLength.get(constraint);
+        jointDef.frequencyHz = constraintFrequency.get(constraint);
+        jointDef.dampingRatio = constraintDamping.get(constraint);
+
+        world.createJoint(jointDef);
+    }
+
+    /**
+     * @return distance between the bodies of two particles.
+     */
+    private float distance(int a, int b) {
+        return bodies.get(a).getWorldCenter().dst(bodies.get(b).getWorldCenter());
+    }
+
+    private boolean isRemoved(int particle) {
+        return bodies.get(particle) == null && particleProxies.get(particle) == null;
+    }
+
+    /**
+     * @return whether a body moves faster than a resting one.
+     */
+    private static boolean isMoving(Body body) {
+        return body.getLinearVelocity().len2() > Scene.REST_SPEED * Scene.REST_SPEED;
+    }
+
+    /**
+     * Particles at positions predicted from their velocities at the end of the next step.
+     * Corrections change velocities so that particles move by them during the step.
+     */
+    private final class Predicted implements ShapeConstraints.Particles {
+
+        private float timeStep;
+
+        @Override
+        public Vector2 getPosition(int particle, Vector2 out) {
+            Body body = bodies.get(particle);
+            return out.set(body.getLinearVelocity()).scl(timeStep).add(body.getPosition());
+        }
+
+        /**
+         * Bodies are frozen as a whole, their constraints are skipped until thawed.
+         */
+        @Override
+        public boolean isSimulated(int particle) {
+            return bodies.get(particle) != null;
+        }
+
+        @Override
+        public void correct(int particle, float dx, float dy) {
+            float limit = SLEEP_SPEED * timeStep;
+            if (dx * dx + dy * dy < limit * limit) {
+                return;
+            }
+
+            // Bodies do not rotate, so the impulse can be applied anywhere.
+            bodies.get(particle).applyLinearImpulse(MASS * dx / timeStep, MASS * dy / timeStep, 0, 0, true);
+        }
+    }
+
+    /**
+     * Rigid body replacing frozen particles.
+     */
+    private static final class Proxy {
+
+        private final Body body;
+        private final int[] particles;
+
+        // Constraints between the frozen particles.
+        private final IntArray constraints = new IntArray();
+
+        private Proxy(Body body, int[] particles) {
+            this.body = body;
+            this.particles = particles;
+        }
+    }
+
+    /**
+     * Thaws proxies hit by moving bodies. Bodies can not be created during a step, so proxies
+     * are thawed after it.
+     */
+    private final class ProxyContacts implements ContactListener {
+
+        @Override
+        public void beginContact(Contact contact) {
+            Body a = contact.getFixtureA().getBody();
+            Body b = contact.getFixtureB().getBody();
+
+            hit(a, b);
+            hit(b, a);
+        }
+
+        @Override
+        public void endContact(Contact contact) {
+        }
+
+        @Override
+        public void preSolve(Contact contact, Manifold oldManifold) {
+        }
+
+        @Override
+        public void postSolve(Contact contact, ContactImpulse impulse) {
+        }
+
+        private void hit(Body target, Body other) {
+            Object data = target.getUserData();
+            if (!(data instanceof Proxy) || thawing.contains(data)) {
+                return;
+            }
+
+            // Resting neighbours and walls do not wake proxies.
+            if (other.getType() != BodyDef.BodyType.StaticBody && isMoving(other)) {
+                thawing.add((Proxy) data);
+            }
+        }
+    }
+}
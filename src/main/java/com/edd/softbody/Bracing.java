@@ -0,0 +1,32 @@
+package com.edd.softbody;
+
+/**
+ * How particles of a soft body are held together, trading stiffness for constraints. Each box2d
+ * joint costs about as much to step as a particle, so bodies with fewer constraints step faster.
+ */
+public enum Bracing {
+
+    /**
+     * Links between all neighbouring particles, including grid diagonals and circle spokes.
+     * Stiffest and most expensive.
+     */
+    FULL,
+
+    /**
+     * Links along grid rows and columns or around the ring, bending links skipping a particle
+     * along the outline and a few braces holding the shape.
+     */
+    STRUCTURAL,
+
+    /**
+     * Links along grid rows and columns or around the ring and a few braces, pressure keeps the
+     * area enclosed by the outline instead of links across it.
+     */
+    PRESSURE,
+
+    /**
+     * No links, a single shape matching constraint pulls particles towards the rest shape.
+     * Cheapest, bodies stay rigid rather than springy.
+     */
+    SHAPE_MATCHING
+}
@@ -1,167 +1,410 @@
 package com.edd.softbody;
 
-import com.badlogic.gdx.graphics.GL20;
-import com.badlogic.gdx.graphics.Mesh;
 import com.badlogic.gdx.graphics.Texture;
-import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
-import com.badlogic.gdx.physics.box2d.*;
-import com.badlogic.gdx.physics.box2d.joints.DistanceJointDef;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 public final class Circle extends SoftBody {
 
     private static final int SEGMENT_COUNT = 20;
 
-    private final List<Body> bodies;
+    // Fewest segments a coarser tier may have.
+    private static final int MIN_SEGMENTS = 6;
 
-    public Circle(Texture texture, World world, float radius, float x, float y) {
-        super(texture, 0);
+    // Spokes holding the center when there is not one per segment.
+    private static final int HOLDING_SPOKES = 4;
 
-        this.bodies = createBodies(world, radius, x, y);
+    private final float radius;
+    private final Bracing bracing;
+    private final int tier;
+    private final int tierCount;
+
+    // Particles, constraints and mesh, shared by all circles of the same radius, bracing and tier.
+    private final SoftBodyTemplate template;
+
+    // Particle ids, last particle is always the middle.
+    private final int[] particles;
+
+    private final Vector2 center = new Vector2();
+    private final Vector2 position = new Vector2();
+
+    // Mesh ring through the particles, in vertex order, and the same ring refined.
+    private float[] ring = new float[0];
+    private float[] refined = new float[0];
+
+    public Circle(Texture texture, Solver solver, float radius, float x, float y) {
+        this(texture, solver, radius, Bracing.FULL, 0, x, y, null);
+    }
+
+    public Circle(Texture texture, Solver solver, float radius, Bracing bracing, float x, float y) {
+        this(texture, solver, radius, bracing, 0, x, y, null);
+    }
+
+    /**
+     * Create a circle at a given tier right away, used when restoring snapshots.
+     */
+    Circle(Texture texture, Solver solver, float radius, Bracing bracing, int tier, float x, float y) {
+        this(texture, solver, radius, bracing, tier, x, y, null);
+    }
+
+    /**
+     * @param source circle at another tier this circle replaces, its shape and velocity are copied.
+     */
+    private Circle(Texture texture,
+                   Solver solver,
+                   float radius,
+                   Bracing bracing,
+                   int tier,
+                   float x,
+                   float y,
+                   Circle source) {
+
+        super(texture, solver, 0);
+
+        this.radius = radius;
+        this.bracing = bracing;
+        this.tier = tier;
+        this.tierCount = countTiers(radius);
+
+        int constraints = solver.getConstraintCount();
+        this.template = template(radius, bracing, tier);
+        this.particles = template.instantiate(solver, x, y);
+
+        if (source != null) {
+            copyShape(solver, source);
+        }
+        setConstraintCount(solver.getConstraintCount() - constraints, source);
+    }
+
+    @Override
+    public int getTier() {
+        return tier;
+    }
+
+    @Override
+    public int getTierCount() {
+        return tierCount;
+    }
+
+    @Override
+    public Circle createTier(Solver solver, int tier) {
+        Vector2 center = solver.getPosition(particles[particles.length - 1], new Vector2());
+        return new Circle(getTexture(), solver, radius, bracing, tier, center.x, center.y, this);
+    }
+
+    public float getRadius() {
+        return radius;
+    }
+
+    @Override
+    public Bracing getBracing() {
+        return bracing;
+    }
+
+    @Override
+    public SoftBodyTemplate getTemplate() {
+        return template;
     }
 
+    @Override
+    public String getTopology() {
+        return topology(radius, bracing, tier);
+    }
+
+    @Override
+    public String getTopology(int tier) {
+        return topology(radius, bracing, tier);
+    }
+
+    @Override
+    public void copyTier(Solver solver, SoftBody source) {
+        copyShape(solver, (Circle) source);
+        setConstraintCount(getConstraintCount(), source);
+    }
+
+    @Override
+    public void reset(Solver solver, float x, float y) {
+        template.reset(solver, particles, x, y);
+    }
+
+    @Override
+    public int[] getParticles() {
+        return particles;
+    }
+
+    @Override
+    public int getMaxRefinement() {
+        return Spline.MAX_REFINEMENT;
+    }
+
+    @Override
+    protected float[] createTextureCoordinates() {
+        int refinement = getRefinement();
+        return refinement == 1 ? template.getTextureCoordinates() : createTextureCoordinates((particles.length - 1) * refinement);
+    }
+
+    /**
+     * Ring vertices in between particles are interpolated by a closed spline through the ring.
+     */
     @Override
     protected float[] updateVertices(float[] vertices) {
+        int segments = particles.length - 1;
+        int refinement = getRefinement();
+
         if (vertices.length == 0) {
-            vertices = new float[(bodies.size() + 1) * COMPONENT_COUNT];
+            vertices = new float[(segments * refinement + 1) * COMPONENT_COUNT];
+        }
+        if (refinement == 1) {
+            return updateRing(vertices);
         }
 
+        if (refined.length < vertices.length) {
+            ring = new float[particles.length * COMPONENT_COUNT];
+            refined = new float[vertices.length];
+        }
+        updateRing(ring);
+
+        // Refined ring starts at the particle of the first ring vertex, which is vertex number
+        // refinement of the refined mesh. Vertices past the last particle wrap around to the
+        // first ring vertex.
+        int first = refinement * COMPONENT_COUNT;
+        int count = segments * refinement * COMPONENT_COUNT;
+        Spline.refine(ring, COMPONENT_COUNT, segments, true, refinement, refined, 0, COMPONENT_COUNT);
+
+        vertices[0] = ring[0];
+        vertices[1] = ring[1];
+        System.arraycopy(refined, 0, vertices, first, count - first + COMPONENT_COUNT);
+        System.arraycopy(refined, count - first + COMPONENT_COUNT, vertices, COMPONENT_COUNT, first - COMPONENT_COUNT);
+        return vertices;
+    }
+
+    /**
+     * Write positions of the center and the mesh ring around it, in vertex order.
+     */
+    private float[] updateRing(float[] vertices) {
         int idx = 0;
-        float deltaAngle = (2.f * MathUtils.PI) / (bodies.size() - 1);
 
-        Vector2 center = bodies.get(bodies.size() - 1).getPosition();
+        getPosition(particles[particles.length - 1], center);
 
-        // Last body is always the middle, so starting from the end.
-        for (int i = bodies.size() - 1; i >= 0; i--) {
-            float theta = MathUtils.PI + (deltaAngle * i);
+        // Last particle is always the middle, so starting from the end.
+        for (int i = particles.length - 1; i >= 0; i--) {
+            getPosition(particles[i], position);
 
             // Extending the vectors in order for the mesh to take up the whole
-            // body, including the joined circles.
-            Vector2 pos = bodies.get(i).getLocalPoint(center);
-            Vector2 nor = pos.cpy().nor().scl(-RADIUS);
+            // body, including the joined circles. Normal is computed by hand,
+            // as copying the vector would create garbage each frame.
+            float dx = position.x - center.x;
+            float dy = position.y - center.y;
 
-            vertices[idx++] = center.x - pos.x + nor.x;
-            vertices[idx++] = center.y - pos.y + nor.y;
+            float len = (float) Math.sqrt(dx * dx + dy * dy);
+            float norX = len != 0 ? dx / len * RADIUS : 0;
+            float norY = len != 0 ? dy / len * RADIUS : 0;
 
-            if (i + 1 < bodies.size()) {
-                vertices[idx++] = 0.5f + MathUtils.cos(theta) * 0.5f * -1;
-                vertices[idx++] = 0.5f + MathUtils.sin(theta) * 0.5f;
-            } else {
-                vertices[idx++] = 0.5f;
-                vertices[idx++] = 0.5f;
-            }
+            vertices[idx++] = position.x + norX;
+            vertices[idx++] = position.y + norY;
         }
-
-        vertices[idx++] = vertices[4];
-        vertices[idx++] = vertices[5];
-        vertices[idx++] = vertices[6];
-        vertices[idx] = vertices[7];
-
         return vertices;
     }
 
     @Override
-    protected short[] createIndices() {
+    protected int[] createIndices() {
+        int refinement = getRefinement();
+        return refinement == 1 ? template.getIndices() : createIndices((particles.length - 1) * refinement);
+    }
 
-        // Wont need indices for this body.
-        return new short[0];
+    /**
+     * @return template of a circle, recorded from the circle generator if it was not baked.
+     */
+    static SoftBodyTemplate template(float radius, Bracing bracing, int tier) {
+        return SoftBodyTemplates.get(topology(radius, bracing, tier), () -> {
+            int segments = segments(radius, tier);
+
+            return SoftBodyTemplate.record(
+                    sink -> createParticles(sink, radius, segments, bracing, 0, 0),
+                    createTextureCoordinates(segments),
+                    createIndices(segments)
+            );
+        });
     }
 
-    @Override
-    protected void render(Mesh mesh, ShaderProgram program) {
-        mesh.render(program, GL20.GL_TRIANGLE_FAN);
+    /**
+     * @return triangle indices of a circle with a given number of segments.
+     */
+    private static int[] createIndices(int segments) {
+        int[] indices = new int[segments * 3];
+
+        // Triangle fan unrolled into separate triangles. Center is the first vertex,
+        // each segment joins the center with two neighboring ring vertices.
+        int idx = 0;
+        for (int i = 1; i <= segments; i++) {
+            indices[idx++] = 0;
+            indices[idx++] = i;
+            indices[idx++] = i < segments ? i + 1 : 1;
+        }
+        return indices;
     }
 
     /**
-     * @return created circle bodies in a list.
+     * @return texture coordinates for each vertex, in the same order as vertices.
      */
-    private List<Body> createBodies(World world, float radius, float x, float y) {
-        List<Body> bodies = new ArrayList<>();
+    private static float[] createTextureCoordinates(int segments) {
+        float[] textureCoordinates = new float[(segments + 1) * 2];
 
-        // Shape of the joined bodies.
-        CircleShape circleShape = new CircleShape();
-        circleShape.setRadius(RADIUS);
+        int idx = 0;
+        float deltaAngle = (2.f * MathUtils.PI) / segments;
 
-        // Fixture for the bodies that are to be jointed.
-        FixtureDef fixtureDef = new FixtureDef();
-        fixtureDef.restitution = RESTITUTION;
-        fixtureDef.friction = FRICTION;
-        fixtureDef.density = DENSITY;
-        fixtureDef.shape = circleShape;
+        // Last particle is always the middle, so starting from the end.
+        for (int i = segments; i >= 0; i--) {
+            float theta = MathUtils.PI + (deltaAngle * i);
 
-        // Definition for the bodies that are to be joined.
-        BodyDef bodyDef = new BodyDef();
-        bodyDef.type = BodyDef.BodyType.DynamicBody;
-        bodyDef.fixedRotation = true;
+            if (i < segments) {
+                textureCoordinates[idx++] = 0.5f + MathUtils.cos(theta) * 0.5f * -1;
+                textureCoordinates[idx++] = 0.5f + MathUtils.sin(theta) * 0.5f;
+            } else {
+                textureCoordinates[idx++] = 0.5f;
+                textureCoordinates[idx++] = 0.5f;
+            }
+        }
+        return textureCoordinates;
+    }
+
+    /**
+     * Move particles onto the ring of a circle at another tier, particles in between source
+     * particles are interpolated around the center. Velocities are interpolated as well.
+     */
+    private void copyShape(Solver solver, Circle source) {
+        int[] from = source.particles;
+
+        int sourceSegments = from.length - 1;
+        int segments = particles.length - 1;
+
+        Vector2 center = solver.getPosition(from[sourceSegments], new Vector2());
+        Vector2 a = new Vector2();
+        Vector2 b = new Vector2();
 
+        for (int i = 0; i < segments; i++) {
+            float t = (float) i * sourceSegments / segments;
+            float alpha = t - (int) t;
+
+            int first = from[(int) t];
+            int second = from[((int) t + 1) % sourceSegments];
+
+            // Interpolating straight between particles would flatten the ring.
+            solver.getPosition(first, a).sub(center);
+            solver.getPosition(second, b).sub(center);
+
+            float angle = a.angleRad() + a.angleRad(b) * alpha;
+            float length = MathUtils.lerp(a.len(), b.len(), alpha);
+
+            solver.setPosition(
+                    particles[i],
+                    center.x + MathUtils.cos(angle) * length,
+                    center.y + MathUtils.sin(angle) * length
+            );
+
+            solver.getVelocity(first, a).lerp(solver.getVelocity(second, b), alpha);
+            solver.setVelocity(particles[i], a.x, a.y);
+        }
+
+        solver.getVelocity(from[sourceSegments], a);
+        solver.setVelocity(particles[segments], a.x, a.y);
+    }
+
+    /**
+     * @return topology key of a circle, see {@link SoftBody#getTopology()}.
+     */
+    static String topology(float radius, Bracing bracing, int tier) {
+        return "circle " + radius + " " + bracing + " " + tier;
+    }
+
+    /**
+     * @return number of ring segments at a given tier.
+     */
+    private static int segments(float radius, int tier) {
         int segments = (int) (SEGMENT_COUNT * radius);
+        return Math.max(Math.min(segments, MIN_SEGMENTS), segments >> tier);
+    }
+
+    /**
+     * @return number of tiers which differ in segment count.
+     */
+    static int countTiers(float radius) {
+        int tiers = 1;
+        while (segments(radius, tiers) < segments(radius, tiers - 1)) {
+            tiers++;
+        }
+        return tiers;
+    }
+
+    /**
+     * @return created circle particle ids, center particle is the last one.
+     */
+    private static int[] createParticles(ParticleSink sink, float radius, int segments, Bracing bracing, float x, float y) {
         float deltaAngle = (2.f * MathUtils.PI) / segments;
 
+        int[] particles = new int[segments + 1];
+
         // See: http://www.java-gaming.org/index.php?topic=36531.0
         for (int i = 0; i < segments; i++) {
 
             // Current angle.
             float theta = deltaAngle * i;
 
-            bodyDef.position.set(
+            particles[i] = sink.createParticle(
                     x + radius * MathUtils.cos(theta),
                     y + radius * MathUtils.sin(theta)
             );
-
-            // Create the body and fixture.
-            Body body = world.createBody(bodyDef);
-            body.createFixture(fixtureDef);
-            bodies.add(body);
         }
 
-        // Circle at the center (inner circle).
-        BodyDef innerDef = new BodyDef();
-        innerDef.position.set(new Vector2(x, y));
-        innerDef.type = BodyDef.BodyType.DynamicBody;
-        innerDef.fixedRotation = true;
+        // Particle at the center (inner circle).
+        int inner = sink.createParticle(x, y);
+        particles[segments] = inner;
 
-        // Position is at the center.
-        Body innerBody = world.createBody(innerDef);
-        innerBody.createFixture(fixtureDef);
-        bodies.add(innerBody);
+        if (bracing == Bracing.SHAPE_MATCHING) {
+            sink.createShapeConstraint(particles, SHAPE_STIFFNESS);
+            return particles;
+        }
+
+        // Centers of small circles touch the ring, they are connected to all of it so that they
+        // do not collide with it. Otherwise a few spokes keep the center in the middle.
+        int spokes = bracing == Bracing.FULL || radius <= RADIUS * 2 ? segments : HOLDING_SPOKES;
 
-        // Connect the joints.
-        DistanceJointDef jointDef = new DistanceJointDef();
+        // Connect the constraints.
         for (int i = 0; i < segments; i++) {
 
             // The neighbor.
-            int neighborIndex = (i + 1) % segments;
-
-            // Get the current body and the neighbor.
-            Body currentBody = bodies.get(i);
-            Body neighborBody = bodies.get(neighborIndex);
+            int neighbor = particles[(i + 1) % segments];
 
             // Connect the outer circles to each other.
-            jointDef.initialize(
-                    currentBody,
-                    neighborBody,
-                    currentBody.getWorldCenter(),
-                    neighborBody.getWorldCenter()
-            );
+            sink.createDistanceConstraint(particles[i], neighbor, FREQUENCY, DAMPING);
 
-            jointDef.collideConnected = false;
-            jointDef.frequencyHz = FREQUENCY;
-            jointDef.dampingRatio = DAMPING;
+            // Connect the center circle with other circles.
+            if (spokes == segments) {
+                sink.createDistanceConstraint(particles[i], inner, FREQUENCY, 0.5f);
+            }
+
+            // Skip a neighbor at every other particle, so that the ring resists bending without spokes.
+            if (bracing == Bracing.STRUCTURAL && spokes < segments && i % 2 == 0) {
+                sink.createDistanceConstraint(particles[i], particles[(i + 2) % segments], FREQUENCY, DAMPING);
+            }
+        }
 
-            world.createJoint(jointDef);
+        if (spokes < segments) {
+            for (int i = 0; i < spokes; i++) {
+                sink.createDistanceConstraint(particles[i * segments / spokes], inner, FREQUENCY, 0.5f);
+            }
+        }
 
-            // Connect the center circle with other circles.
-            jointDef.initialize(currentBody, innerBody, currentBody.getWorldCenter(), new Vector2(x, y));
-            jointDef.collideConnected = false;
-            jointDef.frequencyHz = FREQUENCY;
-            jointDef.dampingRatio = 0.5f;
+        int[] ring = Arrays.copyOf(particles, segments);
+        if (bracing == Bracing.PRESSURE) {
+            sink.createPressureConstraint(ring, PRESSURE_STIFFNESS);
+        } else {
 
-            world.createJoint(jointDef);
+            // Keep the area of the outer ring, if the solver supports it.
+            sink.createAreaConstraint(ring);
         }
-        return bodies;
+        return particles;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,369 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.physics.box2d.World;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects per frame performance metrics: physics steps and their time, time spent updating
+ * body vertices, bytes uploaded, draw calls, drawn and culled bodies and live object counts.
+ * Durations go into histograms which are published at a fixed interval, over JMX and optionally
+ * as a CSV line in a log file. Recording never allocates, so that metrics do not distort what
+ * they measure.
+ * <p>
+ * Physics may be recorded on another thread than frames, publishing happens on the thread
+ * recording frames.
+ */
+public final class FrameMetrics implements FrameMetricsMBean {
+
+    public static final String NAME = "com.edd.softbody:type=FrameMetrics";
+
+    private static final String HEADER = "time_s,frames,fps,"
+            + "frame_50_ms,frame_99_ms,frame_max_ms,"
+            + "steps_per_frame,physics_50_ms,physics_99_ms,physics_max_ms,"
+            + "update_50_ms,update_99_ms,update_max_ms,"
+            + "uploaded_bytes_per_frame,draw_calls_per_frame,drawn_per_frame,culled_per_frame,"
+            + "bodies,joints,contacts,particles";
+
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // Interval at which metrics are published, in nanos.
+    private final long interval;
+
+    // Recorded by the thread stepping physics.
+    private final LatencyHistogram physicsTimes = new LatencyHistogram();
+    private final AtomicLong steps = new AtomicLong();
+    private volatile int bodyCount;
+    private volatile int jointCount;
+    private volatile int contactCount;
+    private volatile int particleCount;
+
+    // Recorded by the render thread.
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private final LatencyHistogram updateTimes = new LatencyHistogram();
+    private long uploadedBytes;
+    private long drawCalls;
+    private long drawnBodies;
+    private long culledBodies;
+    private int frames;
+
+    private final long start = System.nanoTime();
+    private long intervalStart = start;
+    private long lastFrame;
+
+    // Values of the last completed interval.
+    private volatile int publishedFrames;
+    private volatile double framesPerSecond;
+    private volatile double frameTime50;
+    private volatile double frameTime99;
+    private volatile double frameTimeMax;
+    private volatile double stepsPerFrame;
+    private volatile double physicsTime50;
+    private volatile double physicsTime99;
+    private volatile double physicsTimeMax;
+    private volatile double updateTime50;
+    private volatile double updateTime99;
+    private volatile double updateTimeMax;
+    private volatile long uploadedBytesPerFrame;
+    private volatile double drawCallsPerFrame;
+    private volatile double drawnBodiesPerFrame;
+    private volatile double culledBodiesPerFrame;
+
+    // Recorded once, not per interval.
+    private volatile long timeToFirstFrame;
+
+    // Published metrics are appended here when set.
+    private Writer log;
+
+    /**
+     * @param interval time between publishing metrics, in seconds.
+     */
+    public FrameMetrics(float interval) {
+        this.interval = (long) (interval * NANOS_PER_SECOND);
+    }
+
+    /**
+     * Register this object with the platform MBean server under {@link #NAME}.
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, new ObjectName(NAME));
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register " + NAME, e);
+        }
+    }
+
+    /**
+     * Unregister this object from the platform MBean server, if registered.
+     */
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister " + NAME, e);
+        }
+    }
+
+    /**
+     * Append published metrics to a given file as CSV, replacing it.
+     */
+    public void startLog(Path path) throws IOException {
+        stopLog();
+
+        log = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+        log.write(HEADER);
+        log.write('\n');
+    }
+
+    /**
+     * Flush and close the log file, if any.
+     */
+    public void stopLog() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    /**
+     * Record physics steps taken since the last call and sample object counts of a scene, must
+     * be called on the thread stepping the scene.
+     *
+     * @param steps number of steps taken.
+     * @param nanos time the steps took.
+     */
+    public void recordPhysics(int steps, long nanos, Scene scene) {
+        physicsTimes.record(nanos);
+        this.steps.addAndGet(steps);
+
+        World world = scene.getWorld();
+        bodyCount = world.getBodyCount();
+        jointCount = world.getJointCount();
+        contactCount = world.getContactCount();
+        particleCount = scene.getSolver().getParticleCount();
+    }
+
+    /**
+     * Record a rendered frame, publishing metrics if the interval has passed. Must be called once
+     * per frame, always on the same thread.
+     *
+     * @param updateNanos   time spent updating body vertices.
+     * @param uploadedBytes number of bytes uploaded to buffers.
+     * @param drawCalls     number of draw calls issued.
+     * @param drawnBodies   number of bodies drawn.
+     * @param culledBodies  number of bodies skipped as they were out of view.
+     * @return whether metrics were published.
+     */
+    public boolean recordFrame(long updateNanos, long uploadedBytes, int drawCalls, int drawnBodies, int culledBodies) {
+        long now = System.nanoTime();
+
+        // The first frame has nothing to measure its time from.
+        if (lastFrame != 0) {
+            frameTimes.record(now - lastFrame);
+        }
+        lastFrame = now;
+
+        updateTimes.record(updateNanos);
+        this.uploadedBytes += uploadedBytes;
+        this.drawCalls += drawCalls;
+        this.drawnBodies += drawnBodies;
+        this.culledBodies += culledBodies;
+        frames++;
+
+        if (now - intervalStart < interval) {
+            return false;
+        }
+        publish(now);
+        return true;
+    }
+
+    /**
+     * Record how long it took to show the scene for the first time.
+     *
+     * @param millis time from JVM start until the first frame showing the scene.
+     */
+    public void recordFirstFrame(long millis) {
+        timeToFirstFrame = millis;
+    }
+
+    @Override
+    public int getFrames() {
+        return publishedFrames;
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    @Override
+    public double getFrameTime50() {
+        return frameTime50;
+    }
+
+    @Override
+    public double getFrameTime99() {
+        return frameTime99;
+    }
+
+    @Override
+    public double getFrameTimeMax() {
+        return frameTimeMax;
+    }
+
+    @Override
+    public double getStepsPerFrame() {
+        return stepsPerFrame;
+    }
+
+    @Override
+    public double getPhysicsTime50() {
+        return physicsTime50;
+    }
+
+    @Override
+    public double getPhysicsTime99() {
+        return physicsTime99;
+    }
+
+    @Override
+    public double getPhysicsTimeMax() {
+        return physicsTimeMax;
+    }
+
+    @Override
+    public double getUpdateTime50() {
+        return updateTime50;
+    }
+
+    @Override
+    public double getUpdateTime99() {
+        return updateTime99;
+    }
+
+    @Override
+    public double getUpdateTimeMax() {
+        return updateTimeMax;
+    }
+
+    @Override
+    public long getUploadedBytesPerFrame() {
+        return uploadedBytesPerFrame;
+    }
+
+    @Override
+    public double getDrawCallsPerFrame() {
+        return drawCallsPerFrame;
+    }
+
+    @Override
+    public double getDrawnBodiesPerFrame() {
+        return drawnBodiesPerFrame;
+    }
+
+    @Override
+    public double getCulledBodiesPerFrame() {
+        return culledBodiesPerFrame;
+    }
+
+    @Override
+    public int getBodyCount() {
+        return bodyCount;
+    }
+
+    @Override
+    public int getJointCount() {
+        return jointCount;
+    }
+
+    @Override
+    public int getContactCount() {
+        return contactCount;
+    }
+
+    @Override
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    @Override
+    public long getTimeToFirstFrame() {
+        return timeToFirstFrame;
+    }
+
+    /**
+     * Publish metrics recorded during the interval ending now and start a new one.
+     */
+    private void publish(long now) {
+        publishedFrames = frames;
+        framesPerSecond = frames * NANOS_PER_SECOND / (now - intervalStart);
+        frameTime50 = millis(frameTimes.getPercentile(50));
+        frameTime99 = millis(frameTimes.getPercentile(99));
+        frameTimeMax = millis(frameTimes.getMax());
+        stepsPerFrame = steps.getAndSet(0) / (double) frames;
+        physicsTime50 = millis(physicsTimes.getPercentile(50));
+        physicsTime99 = millis(physicsTimes.getPercentile(99));
+        physicsTimeMax = millis(physicsTimes.getMax());
+        updateTime50 = millis(updateTimes.getPercentile(50));
+        updateTime99 = millis(updateTimes.getPercentile(99));
+        updateTimeMax = millis(updateTimes.getMax());
+        uploadedBytesPerFrame = uploadedBytes / frames;
+        drawCallsPerFrame = drawCalls / (double) frames;
+        drawnBodiesPerFrame = drawnBodies / (double) frames;
+        culledBodiesPerFrame = culledBodies / (double) frames;
+
+        if (log != null) {
+            writeLog(now);
+        }
+
+        frameTimes.reset();
+        physicsTimes.reset();
+        updateTimes.reset();
+        uploadedBytes = 0;
+        drawCalls = 0;
+        drawnBodies = 0;
+        culledBodies = 0;
+        frames = 0;
+        intervalStart = now;
+    }
+
+    /**
+     * Append published metrics to the log, once per interval so allocating here is fine.
+     */
+    private void writeLog(long now) {
+        try {
+            log.write(String.format(Locale.ROOT,
+                    "%.3f,%d,%.1f,%.3f,%.3f,%.3f,%.2f,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%.2f,%.1f,%.1f,%d,%d,%d,%d\n",
+                    (now - start) / NANOS_PER_SECOND, publishedFrames, framesPerSecond,
+                    frameTime50, frameTime99, frameTimeMax,
+                    stepsPerFrame, physicsTime50, physicsTime99, physicsTimeMax,
+                    updateTime50, updateTime99, updateTimeMax,
+                    uploadedBytesPerFrame, drawCallsPerFrame, drawnBodiesPerFrame, culledBodiesPerFrame,
+                    bodyCount, jointCount, contactCount, particleCount));
+            log.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write metrics", e);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+}
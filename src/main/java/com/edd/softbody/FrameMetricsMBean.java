@@ -0,0 +1,53 @@
+package com.edd.softbody;
+
+/**
+ * Frame metrics exposed over JMX, all values cover the last completed interval. Times are in
+ * millis, per frame values are averages over the frames of the interval.
+ */
+public interface FrameMetricsMBean {
+
+    int getFrames();
+
+    double getFramesPerSecond();
+
+    double getFrameTime50();
+
+    double getFrameTime99();
+
+    double getFrameTimeMax();
+
+    double getStepsPerFrame();
+
+    double getPhysicsTime50();
+
+    double getPhysicsTime99();
+
+    double getPhysicsTimeMax();
+
+    double getUpdateTime50();
+
+    double getUpdateTime99();
+
+    double getUpdateTimeMax();
+
+    long getUploadedBytesPerFrame();
+
+    double getDrawCallsPerFrame();
+
+    double getDrawnBodiesPerFrame();
+
+    double getCulledBodiesPerFrame();
+
+    int getBodyCount();
+
+    int getJointCount();
+
+    int getContactCount();
+
+    int getParticleCount();
+
+    /**
+     * @return millis from JVM start until the first frame showing the scene, 0 until then.
+     */
+    long getTimeToFirstFrame();
+}
@@ -0,0 +1,176 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.RandomXS128;
+import com.badlogic.gdx.physics.box2d.Box2D;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Runs stress scenarios without a display and prints results as CSV to stdout. Each argument
+ * is a scenario description (see {@link Scenario}), if none are given a default scaling set is used.
+ * <pre>
+ * ./gradlew headless -Pscenarios="small:circles=10;large:circles=100,rectangles=100"
+ * </pre>
+ */
+public final class HeadlessRunner {
+
+    // Same level size as the 800x600 window, in meters.
+    static final float WIDTH = 8f;
+    static final float HEIGHT = 6f;
+
+    // Distance from the walls at which bodies are spawned.
+    private static final float MARGIN = 1f;
+
+    // Steps between samples of body deformation.
+    private static final int DEFORMATION_INTERVAL = 10;
+
+    private static final String[] DEFAULT_SCENARIOS = {
+            "tiny:circles=5,rectangles=5",
+            "small:circles=10,rectangles=10",
+            "medium:circles=20,rectangles=20",
+            "large:circles=40,rectangles=40",
+            "large-xpbd:circles=40,rectangles=40,solver=xpbd",
+            "huge-xpbd:circles=1000,rectangles=1000,solver=xpbd",
+            "large-structural:circles=40,rectangles=40,preset=structural",
+            "large-pressure:circles=40,rectangles=40,preset=pressure",
+            "large-shape:circles=40,rectangles=40,preset=shape_matching"
+    };
+
+    private static final String HEADER = "scenario,solver,threads,preset,circles,rectangles,particles,constraints,"
+            + "constraints_per_body,steps,steps_per_sec,p50_ms,p90_ms,p99_ms,max_ms,deformation_mm,max_deformation_mm";
+
+    public static void main(String... args) {
+        Box2D.init();
+
+        String[] descriptions = args.length == 0 ? DEFAULT_SCENARIOS : args;
+
+        System.out.println(HEADER);
+        for (String description : descriptions) {
+            System.out.println(run(Scenario.parse(description)));
+        }
+    }
+
+    /**
+     * Run a single scenario to completion.
+     *
+     * @return CSV row with the results.
+     */
+    public static String run(Scenario scenario) {
+        Scene scene = new Scene(WIDTH, HEIGHT, scenario.getBackend(), scenario.getThreads());
+        spawn(scene, scenario);
+
+        long[] times = new long[scenario.getSteps()];
+
+        // Deformation is sampled between steps, so that it is left out of step times.
+        double deformation = 0;
+        float maxDeformation = 0;
+        int samples = 0;
+
+        long total = 0;
+        for (int i = 0; i < times.length; i++) {
+            long stepStart = System.nanoTime();
+            scene.step();
+            times[i] = System.nanoTime() - stepStart;
+            total += times[i];
+
+            if (i % DEFORMATION_INTERVAL == 0) {
+                for (SoftBody body : scene.getBodies()) {
+                    float sample = body.getTemplate().getDeformation(scene.getSolver(), body.getParticles());
+
+                    deformation += sample;
+                    maxDeformation = Math.max(maxDeformation, sample);
+                    samples++;
+                }
+            }
+        }
+
+        int bodies = scenario.getCircles() + scenario.getRectangles();
+
+        String row = String.format(Locale.ROOT, "%s,%s,%d,%s,%d,%d,%d,%d,%.1f,%d,%.1f,%.4f,%.4f,%.4f,%.4f,%.2f,%.2f",
+                scenario.getName(),
+                scenario.getBackend().name().toLowerCase(Locale.ROOT),
+                scenario.getThreads(),
+                scenario.getBracing().name().toLowerCase(Locale.ROOT),
+                scenario.getCircles(),
+                scenario.getRectangles(),
+                scene.getSolver().getParticleCount(),
+                scene.getSolver().getConstraintCount(),
+                bodies == 0 ? 0f : (float) scene.getSolver().getConstraintCount() / bodies,
+                times.length,
+                times.length / (total / 1e9),
+                millis(percentile(times, 0.5f)),
+                millis(percentile(times, 0.9f)),
+                millis(percentile(times, 0.99f)),
+                millis(percentile(times, 1f)),
+                samples == 0 ? 0 : deformation / samples * 1000,
+                maxDeformation * 1000);
+
+        scene.dispose();
+        return row;
+    }
+
+    /**
+     * Spawn scenario bodies at random positions inside the level bounds, launched in random
+     * directions if the scenario has a speed.
+     */
+    static void spawn(Scene scene, Scenario scenario) {
+        RandomXS128 random = new RandomXS128(scenario.getSeed());
+
+        for (int i = 0; i < scenario.getCircles(); i++) {
+            add(scene, scenario, random, new Circle(
+                    null,
+                    scene.getSolver(),
+                    range(random, 0.2f, 1f),
+                    scenario.getBracing(),
+                    range(random, MARGIN, WIDTH - MARGIN),
+                    range(random, MARGIN, HEIGHT - MARGIN)
+            ));
+        }
+
+        for (int i = 0; i < scenario.getRectangles(); i++) {
+            add(scene, scenario, random, new Rectangle(
+                    null,
+                    scene.getSolver(),
+                    range(random, MARGIN, WIDTH - MARGIN),
+                    range(random, MARGIN, HEIGHT - MARGIN),
+                    2 + random.nextInt(4),
+                    2 + random.nextInt(4),
+                    scenario.getBracing()
+            ));
+        }
+    }
+
+    private static void add(Scene scene, Scenario scenario, RandomXS128 random, SoftBody body) {
+        if (scenario.getSpeed() > 0) {
+            float angle = range(random, 0, MathUtils.PI2);
+            float x = MathUtils.cos(angle) * scenario.getSpeed();
+            float y = MathUtils.sin(angle) * scenario.getSpeed();
+
+            for (int particle : body.getParticles()) {
+                scene.getSolver().setVelocity(particle, x, y);
+            }
+        }
+        scene.add(body);
+    }
+
+    /**
+     * @return value at a given percentile, sorts the array in place.
+     */
+    private static long percentile(long[] values, float percentile) {
+        if (values.length == 0) {
+            return 0;
+        }
+        Arrays.sort(values);
+        return values[Math.min(values.length - 1, (int) Math.ceil(percentile * values.length) - 1)];
+    }
+
+    private static float range(RandomXS128 random, float start, float end) {
+        return start + random.nextFloat() * (end - start);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
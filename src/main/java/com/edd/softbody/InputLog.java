@@ -0,0 +1,342 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.utils.ByteArray;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Applies user input to a scene and records it against the scene tick, so that the same input
+ * can be replayed at the same ticks in later runs. Stored in a compact binary format, little
+ * endian:
+ * <pre>
+ * int   magic, int version, float scene width, float scene height, int event count
+ * per event:
+ *   int   tick since recording started, byte type
+ *   float arguments, count depends on the type
+ * </pre>
+ * Only scene changes are recorded, view changes such as zooming are not. Randomized input must
+ * be resolved before it reaches the log, so that the recorded values are replayed.
+ */
+public final class InputLog {
+
+    public static final int VERSION = 2;
+
+    // "SBIL" read as a little endian int.
+    private static final int MAGIC = 0x4c494253;
+
+    private static final byte SPAWN_CIRCLE = 0;
+    private static final byte SPAWN_RECTANGLE = 1;
+    private static final byte GRAB = 2;
+    private static final byte DRAG = 3;
+    private static final byte RELEASE = 4;
+    private static final byte CLEAR = 5;
+    private static final byte RESET = 6;
+
+    // Number of float arguments, indexed by event type.
+    private static final int[] ARGUMENTS = {4, 5, 2, 2, 0, 0, 0};
+
+    private static final int HEADER_BYTES = 3 * Integer.BYTES + 2 * Float.BYTES;
+    private static final int EVENT_BYTES = Integer.BYTES + 1;
+
+    private final Texture circleTexture;
+    private final Texture rectangleTexture;
+
+    private final IntArray ticks = new IntArray();
+    private final ByteArray types = new ByteArray();
+    private final FloatArray arguments = new FloatArray();
+
+    // Size of the recorded scene.
+    private float width;
+    private float height;
+
+    private boolean recording;
+
+    // Scene tick at which recording or replay started.
+    private int startTick;
+
+    // Next event to replay and index of its first argument.
+    private int next;
+    private int argument;
+
+    /**
+     * @param circleTexture    texture of spawned circles, can be null when not drawing.
+     * @param rectangleTexture texture of spawned rectangles, can be null when not drawing.
+     */
+    public InputLog(Texture circleTexture, Texture rectangleTexture) {
+        this.circleTexture = circleTexture;
+        this.rectangleTexture = rectangleTexture;
+    }
+
+    /**
+     * Drop recorded events and record input applied to a given scene from now on.
+     */
+    public void startRecording(Scene scene) {
+        ticks.clear();
+        types.clear();
+        arguments.clear();
+
+        width = scene.getWidth();
+        height = scene.getHeight();
+        startTick = scene.getTick();
+        recording = true;
+    }
+
+    public void stopRecording() {
+        recording = false;
+    }
+
+    /**
+     * Replay recorded events from the start, relative to the current tick of a given scene.
+     */
+    public void startReplay(Scene scene) {
+        recording = false;
+        startTick = scene.getTick();
+        next = 0;
+        argument = 0;
+    }
+
+    /**
+     * Apply all events recorded up to the current tick of a scene, must be called before each step.
+     */
+    public void replay(Scene scene) {
+        int tick = scene.getTick() - startTick;
+
+        while (next < ticks.size && ticks.get(next) <= tick) {
+            byte type = types.get(next++);
+            apply(scene, type, argument);
+            argument += ARGUMENTS[type];
+        }
+    }
+
+    /**
+     * @return whether all recorded events have been replayed.
+     */
+    public boolean isReplayed() {
+        return next >= ticks.size;
+    }
+
+    /**
+     * @return tick of the last recorded event, relative to the start of the recording.
+     */
+    public int getLastTick() {
+        return ticks.size == 0 ? 0 : ticks.peek();
+    }
+
+    /**
+     * @return width of the recorded scene.
+     */
+    public float getWidth() {
+        return width;
+    }
+
+    /**
+     * @return height of the recorded scene.
+     */
+    public float getHeight() {
+        return height;
+    }
+
+    public void spawnCircle(Scene scene, float radius, float x, float y) {
+        spawnCircle(scene, radius, Bracing.FULL, x, y);
+    }
+
+    public void spawnCircle(Scene scene, float radius, Bracing bracing, float x, float y) {
+        if (record(scene, SPAWN_CIRCLE)) {
+            arguments.addAll(radius, bracing.ordinal(), x, y);
+        }
+        scene.add(scene.getPool().obtainCircle(circleTexture, radius, bracing, x, y));
+    }
+
+    /**
+     * @param x left edge.
+     * @param y bottom edge.
+     */
+    public void spawnRectangle(Scene scene, float x, float y, int width, int height) {
+        spawnRectangle(scene, x, y, width, height, Bracing.FULL);
+    }
+
+    /**
+     * @param x left edge.
+     * @param y bottom edge.
+     */
+    public void spawnRectangle(Scene scene, float x, float y, int width, int height, Bracing bracing) {
+        if (record(scene, SPAWN_RECTANGLE)) {
+            arguments.addAll(x, y, width, height, bracing.ordinal());
+        }
+        scene.add(scene.getPool().obtainRectangle(rectangleTexture, x, y, width, height, bracing));
+    }
+
+    public void grab(Scene scene, float x, float y) {
+        if (record(scene, GRAB)) {
+            arguments.addAll(x, y);
+        }
+        scene.grab(x, y);
+    }
+
+    public void drag(Scene scene, float x, float y) {
+        if (record(scene, DRAG)) {
+            arguments.addAll(x, y);
+        }
+        scene.drag(x, y);
+    }
+
+    public void release(Scene scene) {
+        record(scene, RELEASE);
+        scene.release();
+    }
+
+    public void clear(Scene scene) {
+        record(scene, CLEAR);
+        scene.clear();
+    }
+
+    public void reset(Scene scene) {
+        record(scene, RESET);
+        scene.reset();
+    }
+
+    /**
+     * Write recorded events to a given file, replacing it.
+     */
+    public void write(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER_BYTES + ticks.size * EVENT_BYTES + arguments.size * Float.BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putFloat(width);
+        buffer.putFloat(height);
+        buffer.putInt(ticks.size);
+
+        int argument = 0;
+        for (int i = 0; i < ticks.size; i++) {
+            byte type = types.get(i);
+
+            buffer.putInt(ticks.get(i));
+            buffer.put(type);
+
+            for (int j = 0; j < ARGUMENTS[type]; j++) {
+                buffer.putFloat(arguments.get(argument++));
+            }
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Read events recorded to a given file, ready to be replayed.
+     *
+     * @param circleTexture    texture of spawned circles, can be null when not drawing.
+     * @param rectangleTexture texture of spawned rectangles, can be null when not drawing.
+     */
+    public static InputLog read(Path path, Texture circleTexture, Texture rectangleTexture) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not an input log");
+        }
+
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported input log version: " + version);
+        }
+
+        InputLog log = new InputLog(circleTexture, rectangleTexture);
+        log.width = buffer.getFloat();
+        log.height = buffer.getFloat();
+
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            log.ticks.add(buffer.getInt());
+
+            byte type = buffer.get();
+            if (type < 0 || type >= ARGUMENTS.length) {
+                throw new IllegalArgumentException("Unknown event type: " + type);
+            }
+            log.types.add(type);
+
+            for (int j = 0; j < ARGUMENTS[type]; j++) {
+                log.arguments.add(buffer.getFloat());
+            }
+        }
+        return log;
+    }
+
+    /**
+     * Record an event at the current tick, if recording.
+     *
+     * @return whether the event was recorded, its arguments must be added after.
+     */
+    private boolean record(Scene scene, byte type) {
+        if (recording) {
+            ticks.add(scene.getTick() - startTick);
+            types.add(type);
+        }
+        return recording;
+    }
+
+    /**
+     * Apply an event whose arguments start at a given index.
+     */
+    private void apply(Scene scene, byte type, int argument) {
+        float[] arguments = this.arguments.items;
+
+        switch (type) {
+            case SPAWN_CIRCLE:
+                spawnCircle(scene, arguments[argument], bracing(arguments[argument + 1]), arguments[argument + 2], arguments[argument + 3]);
+                break;
+
+            case SPAWN_RECTANGLE:
+                spawnRectangle(scene, arguments[argument], arguments[argument + 1], (int) arguments[argument + 2], (int) arguments[argument + 3], bracing(arguments[argument + 4]));
+                break;
+
+            case GRAB:
+                grab(scene, arguments[argument], arguments[argument + 1]);
+                break;
+
+            case DRAG:
+                drag(scene, arguments[argument], arguments[argument + 1]);
+                break;
+
+            case RELEASE:
+                release(scene);
+                break;
+
+            case CLEAR:
+                clear(scene);
+                break;
+
+            case RESET:
+                reset(scene);
+                break;
+        }
+    }
+
+    private static Bracing bracing(float ordinal) {
+        if (ordinal < 0 || ordinal >= Bracing.values().length) {
+            throw new IllegalArgumentException("Unknown bracing: " + ordinal);
+        }
+        return Bracing.values()[(int) ordinal];
+    }
+}
@@ -0,0 +1,126 @@
+package com.edd.softbody;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanos with fixed, logarithmic buckets. Values are kept with a
+ * precision of 1/16 of their magnitude, so percentiles are at most about 6% off. Recording
+ * never allocates and may happen on any thread, percentiles read while recording may be off
+ * by the values recorded meanwhile.
+ */
+public final class LatencyHistogram {
+
+    // Buckets per power of two.
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    // Enough buckets for any positive long.
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos duration to record, negative durations are recorded as zero.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+
+        counts.incrementAndGet(bucket(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Another thread recorded a larger value meanwhile, try again.
+        }
+    }
+
+    /**
+     * @return number of recorded values.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return average recorded value in nanos, zero if nothing was recorded.
+     */
+    public long getMean() {
+        long count = this.count.get();
+        return count == 0 ? 0 : total.get() / count;
+    }
+
+    /**
+     * @return largest recorded value in nanos.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100.
+     * @return value in nanos which given percentage of recorded values does not exceed, zero if
+     * nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long count = this.count.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Drop all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return index of the bucket holding a given non-negative value.
+     */
+    private static int bucket(long value) {
+
+        // Small values are kept exactly.
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        // Bits below the top SUB_BITS + 1 are dropped.
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * @return highest value falling into a given bucket.
+     */
+    private static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,126 @@
+package com.edd.softbody;
+
+import java.util.List;
+
+/**
+ * Picks a tier for each soft body from its size on screen and replaces bodies whose tier has
+ * changed. Each tier halves the projected size a body is shown at, bodies far outside of the
+ * view use the coarsest tier. A body only changes tier once its size moves past the tier edge
+ * by a margin, so that bodies do not keep switching back and forth. Replaced bodies are kept in
+ * the scene pool and recycled when a body switches back to their tier.
+ * <p>
+ * Whether a body is near the view is judged by its bounds as of the last time it was drawn, see
+ * {@link SoftBody#updateBounds()}.
+ */
+public final class LevelOfDetail {
+
+    // Fraction of a tier the size must move past the tier edge before switching.
+    private static final float HYSTERESIS = 0.25f;
+
+    // Distance from the view at which bodies use the coarsest tier, in meters.
+    private static final float VIEW_MARGIN = 2f;
+
+    // Replacing a body is expensive, so only a few are replaced per update.
+    private static final int MAX_CHANGES = 8;
+
+    private static final float LOG_2 = (float) Math.log(2);
+
+    // Pixels per meter at which bodies are shown at the tier they were created with.
+    private final float fullScale;
+
+    // Savings as of the last update.
+    private int savedParticles;
+    private int savedConstraints;
+    private int changes;
+
+    /**
+     * @param fullScale pixels per meter at which bodies keep the tier they were created with.
+     */
+    public LevelOfDetail(float fullScale) {
+        this.fullScale = fullScale;
+    }
+
+    /**
+     * Replace bodies whose tier no longer matches their size on screen.
+     *
+     * @param scale pixels per meter on screen.
+     * @param minX  left edge of the view, in meters.
+     * @param minY  bottom edge of the view, in meters.
+     * @param maxX  right edge of the view, in meters.
+     * @param maxY  top edge of the view, in meters.
+     */
+    public void update(Scene scene, float scale, float minX, float minY, float maxX, float maxY) {
+        SoftBodyPool pool = scene.getPool();
+        List<SoftBody> bodies = scene.getBodies();
+
+        // Tier at which a body would be shown at about the same size as at full scale.
+        float level = (float) Math.log(fullScale / scale) / LOG_2;
+
+        changes = 0;
+        savedParticles = 0;
+        savedConstraints = 0;
+
+        for (int i = 0; i < bodies.size(); i++) {
+            SoftBody body = bodies.get(i);
+
+            // Frozen bodies are already cheap, dragged ones would lose their mouse joint.
+            if (changes < MAX_CHANGES && !body.isFrozen() && !scene.isDragging(body)) {
+                int tier = pickTier(body, visible(body, minX, minY, maxX, maxY) ? level : Float.MAX_VALUE);
+
+                if (tier != body.getTier()) {
+                    body = pool.obtainTier(body, tier);
+                    scene.replace(i, body);
+                    changes++;
+                }
+            }
+
+            savedParticles += body.getSavedParticles();
+            savedConstraints += body.getSavedConstraints();
+        }
+    }
+
+    /**
+     * @return particles fewer than at full detail, as of the last update.
+     */
+    public int getSavedParticles() {
+        return savedParticles;
+    }
+
+    /**
+     * @return constraints fewer than at full detail, as of the last update.
+     */
+    public int getSavedConstraints() {
+        return savedConstraints;
+    }
+
+    /**
+     * @return number of bodies replaced in the last update.
+     */
+    public int getChanges() {
+        return changes;
+    }
+
+    /**
+     * @param level preferred tier, may be fractional.
+     * @return tier for a body, keeping the current one unless the level is past its edges.
+     */
+    private static int pickTier(SoftBody body, float level) {
+        int tier = body.getTier();
+        int last = body.getTierCount() - 1;
+
+        if (level > tier + 1 + HYSTERESIS || level < tier - HYSTERESIS) {
+            tier = (int) Math.max(0, Math.min(level, last));
+        }
+        return tier;
+    }
+
+    /**
+     * @return whether the bounds of the body are near the view.
+     */
+    private static boolean visible(SoftBody body, float minX, float minY, float maxX, float maxY) {
+        return body.getMaxX() > minX - VIEW_MARGIN
+                && body.getMinX() < maxX + VIEW_MARGIN
+                && body.getMaxY() > minY - VIEW_MARGIN
+                && body.getMinY() < maxY + VIEW_MARGIN;
+    }
+}
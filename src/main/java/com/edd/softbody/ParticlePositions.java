@@ -0,0 +1,17 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * Source of particle positions, read by soft bodies when updating vertices.
+ */
+public interface ParticlePositions {
+
+    /**
+     * Read current particle position.
+     *
+     * @param out vector to write the position to.
+     * @return the given vector.
+     */
+    Vector2 getPosition(int particle, Vector2 out);
+}
@@ -0,0 +1,49 @@
+package com.edd.softbody;
+
+/**
+ * Receives particles and constraints created by body generators, either a {@link Solver} or a
+ * recorder turning them into a {@link SoftBodyTemplate}. Particles are referred to by ids
+ * returned when creating them.
+ */
+public interface ParticleSink {
+
+    /**
+     * Create a particle of {@link SoftBody#RADIUS} at a given position.
+     *
+     * @return particle id.
+     */
+    int createParticle(float x, float y);
+
+    /**
+     * Create a spring keeping two particles at their current distance.
+     *
+     * @param frequency spring frequency in Hz.
+     * @param damping   spring damping ratio.
+     */
+    void createDistanceConstraint(int a, int b, float frequency, float damping);
+
+    /**
+     * Create a constraint preserving the current area of a closed particle ring. Backends which
+     * have no notion of area constraints may ignore this, bodies must stay stable without it.
+     *
+     * @param ring particle ids in order around the ring.
+     */
+    void createAreaConstraint(int[] ring);
+
+    /**
+     * Create a soft constraint pushing a closed particle ring towards its current area, used
+     * instead of links across the ring.
+     *
+     * @param ring      particle ids in order around the ring.
+     * @param stiffness fraction of the area error corrected per step.
+     */
+    void createPressureConstraint(int[] ring, float stiffness);
+
+    /**
+     * Create a shape matching constraint pulling particles towards their current layout, moved
+     * and rotated to best fit their positions. Holds particles together without any links.
+     *
+     * @param stiffness fraction of the distance to the rest layout corrected per step.
+     */
+    void createShapeConstraint(int[] particles, float stiffness);
+}
@@ -0,0 +1,612 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.*;
+import com.badlogic.gdx.physics.box2d.joints.DistanceJointDef;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.ShortArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Box2d solver which splits the level into vertical strips, each simulated by its own world,
+ * and steps the worlds in parallel. Particles connected by constraints form a group which
+ * always lives in a single world, a group migrates to another world once its center moves
+ * into another strip. Groups living in different worlds do not collide with each other.
+ * Pressure and shape matching constraints are solved by changing particle velocities before
+ * each step.
+ */
+public final class PartitionedSolver implements Solver {
+
+    // Mass of particle bodies, circle fixtures of the soft body density.
+    private static final float MASS = SoftBody.DENSITY * MathUtils.PI * SoftBody.RADIUS * SoftBody.RADIUS;
+
+    // Box2d linear sleep tolerance, smaller corrections are skipped so that resting bodies can sleep.
+    private static final float SLEEP_SPEED = 0.01f;
+
+    // Steps between checks for groups which moved into another strip.
+    private static final int MIGRATION_INTERVAL = 30;
+
+    // Distance a group must move past a strip edge before migrating, prevents thrashing.
+    private static final float MIGRATION_MARGIN = 0.25f;
+
+    private final float stripWidth;
+
+    // One world per strip, each has its own copy of level bounds.
+    private final World[] worlds;
+
+    // Null if there is only a single world.
+    private final ForkJoinPool pool;
+
+    // Particle bodies and groups, indexed by particle id. Bodies of removed particles are null.
+    private final List<Body> bodies = new ArrayList<>();
+    private final IntArray particleGroups = new IntArray();
+
+    // Constraints, kept in order to recreate joints after migration. Removed constraints are
+    // marked with a negative particle id until their slot is reused.
+    private final IntArray constraintA = new IntArray();
+    private final IntArray constraintB = new IntArray();
+    private final FloatArray constraintLength = new FloatArray();
+    private final FloatArray constraintFrequency = new FloatArray();
+    private final FloatArray constraintDamping = new FloatArray();
+    private int constraintCount;
+
+    // Pressure and shape matching constraints.
+    private final ShapeConstraints shapes = new ShapeConstraints();
+    private final Predicted predicted = new Predicted();
+
+    // Collision filter groups, indexed by particle id. Shape matched particles have no joints
+    // keeping touching neighbours from colliding, so each shape shares a negative group instead.
+    private final ShortArray filterGroups = new ShortArray();
+    private final Filter filter = new Filter();
+    private short lastFilterGroup;
+
+    // Groups of connected particles, indexed by group id. Empty groups have no world.
+    private final List<IntArray> groupParticles = new ArrayList<>();
+    private final List<IntArray> groupConstraints = new ArrayList<>();
+    private final IntArray groupWorlds = new IntArray();
+
+    // Ids of removed particles, constraints and emptied groups, reused before new ones are handed out.
+    private final IntArray freeParticles = new IntArray();
+    private final IntArray freeConstraints = new IntArray();
+    private final IntArray freeGroups = new IntArray();
+
+    // Shape of the joined bodies.
+    private final CircleShape circleShape = new CircleShape();
+
+    // Fixture for the bodies that are to be joined.
+    private final FixtureDef fixtureDef = new FixtureDef();
+
+    // Definition for the bodies that are to be joined.
+    private final BodyDef bodyDef = new BodyDef();
+
+    // Definition for the joints that will connect to bodies.
+    private final DistanceJointDef jointDef = new DistanceJointDef();
+
+    private final Vector2 position = new Vector2();
+
+    private float timeStep;
+    private int iterations;
+    private int steps;
+
+    /**
+     * @param width      width of the level in meters.
+     * @param height     height of the level in meters.
+     * @param partitions number of strips and threads stepping them.
+     */
+    public PartitionedSolver(float width, float height, int partitions) {
+        this.stripWidth = width / partitions;
+        this.worlds = new World[partitions];
+        this.pool = partitions > 1 ? new ForkJoinPool(partitions) : null;
+
+        for (int i = 0; i < partitions; i++) {
+            worlds[i] = new World(new Vector2(0f, Scene.GRAVITY), true);
+            Scene.createBounds(worlds[i], width, height);
+        }
+
+        circleShape.setRadius(SoftBody.RADIUS);
+
+        fixtureDef.restitution = SoftBody.RESTITUTION;
+        fixtureDef.friction = SoftBody.FRICTION;
+        fixtureDef.density = SoftBody.DENSITY;
+        fixtureDef.shape = circleShape;
+
+        bodyDef.type = BodyDef.BodyType.DynamicBody;
+        bodyDef.fixedRotation = true;
+
+        jointDef.collideConnected = false;
+    }
+
+    @Override
+    public int createParticle(float x, float y) {
+        int world = strip(x);
+
+        bodyDef.position.set(x, y);
+        Body body = createBody(worlds[world]);
+
+        int particle;
+        if (freeParticles.size > 0) {
+            particle = freeParticles.pop();
+            bodies.set(particle, body);
+            filterGroups.set(particle, (short) 0);
+        } else {
+            particle = bodies.size();
+            bodies.add(body);
+            filterGroups.add((short) 0);
+            particleGroups.add(0);
+        }
+
+        // Each particle starts in its own group.
+        int group;
+        if (freeGroups.size > 0) {
+            group = freeGroups.pop();
+            groupWorlds.set(group, world);
+        } else {
+            group = groupWorlds.size;
+            groupWorlds.add(world);
+            groupParticles.add(new IntArray());
+            groupConstraints.add(new IntArray());
+        }
+
+        groupParticles.get(group).add(particle);
+        particleGroups.set(particle, group);
+
+        return particle;
+    }
+
+    @Override
+    public void createDistanceConstraint(int a, int b, float frequency, float damping) {
+        int group = merge(particleGroups.get(a), particleGroups.get(b));
+
+        int constraint;
+        if (freeConstraints.size > 0) {
+            constraint = freeConstraints.pop();
+            constraintA.set(constraint, a);
+            constraintB.set(constraint, b);
+            constraintLength.set(constraint, distance(a, b));
+            constraintFrequency.set(constraint, frequency);
+            constraintDamping.set(constraint, damping);
+        } else {
+            constraint = constraintA.size;
+            constraintA.add(a);
+            constraintB.add(b);
+            constraintLength.add(distance(a, b));
+            constraintFrequency.add(frequency);
+            constraintDamping.add(damping);
+        }
+        constraintCount++;
+
+        groupConstraints.get(group).add(constraint);
+        createJoint(worlds[groupWorlds.get(group)], constraint);
+    }
+
+    @Override
+    public void createAreaConstraint(int[] ring) {
+
+        // Box2d has no area joints, bodies rely on distance joints only.
+    }
+
+    @Override
+    public void createPressureConstraint(int[] ring, float stiffness) {
+        join(ring);
+
+        shapes.addPressure(ring, stiffness, this);
+    }
+
+    @Override
+    public void createShapeConstraint(int[] particles, float stiffness) {
+        join(particles);
+
+        shapes.addShape(particles, stiffness, this);
+
+        // Groups are reused once all are handed out, shapes sharing one only stop colliding.
+        lastFilterGroup = (short) (lastFilterGroup == Short.MIN_VALUE ? -1 : lastFilterGroup - 1);
+        filter.groupIndex = lastFilterGroup;
+
+        for (int particle : particles) {
+            filterGroups.set(particle, lastFilterGroup);
+            bodies.get(particle).getFixtureList().first().setFilterData(filter);
+        }
+    }
+
+    @Override
+    public void destroyParticles(int[] particles) {
+        for (int particle : particles) {
+            int group = particleGroups.get(particle);
+
+            // Joints are destroyed along with bodies.
+            Body body = bodies.get(particle);
+            bodies.set(particle, null);
+            worlds[groupWorlds.get(group)].destroyBody(body);
+            groupParticles.get(group).removeValue(particle);
+        }
+
+        for (int i = 0; i < constraintA.size; i++) {
+            int a = constraintA.get(i);
+            if (a >= 0 && (bodies.get(a) == null || bodies.get(constraintB.get(i)) == null)) {
+                groupConstraints.get(particleGroups.get(a)).removeValue(i);
+                constraintA.set(i, -1);
+                constraintCount--;
+                freeConstraints.add(i);
+            }
+        }
+        shapes.remove(particles);
+
+        // Constraints no longer refer to removed particles, so their ids can be handed out again.
+        for (int particle : particles) {
+            freeGroup(particleGroups.get(particle));
+        }
+        freeParticles.addAll(particles);
+    }
+
+    @Override
+    public void setActive(int[] particles, boolean active) {
+        for (int particle : particles) {
+            bodies.get(particle).setActive(active);
+        }
+        shapes.setActive(particles, active);
+
+        // Reactivated particles have usually been moved, their group may belong to another strip.
+        if (active && particles.length > 0) {
+            migrateGroup(particleGroups.get(particles[0]));
+        }
+    }
+
+    @Override
+    public void setPosition(int particle, float x, float y) {
+        bodies.get(particle).setTransform(x, y, 0);
+    }
+
+    @Override
+    public Vector2 getVelocity(int particle, Vector2 out) {
+        Body body = bodies.get(particle);
+        return body == null ? out.setZero() : out.set(body.getLinearVelocity());
+    }
+
+    @Override
+    public void setVelocity(int particle, float x, float y) {
+        bodies.get(particle).setLinearVelocity(x, y);
+    }
+
+    @Override
+    public Vector2 getPosition(int particle, Vector2 out) {
+        Body body = bodies.get(particle);
+        return body == null ? out.setZero() : out.set(body.getPosition());
+    }
+
+    /**
+     * Positions are copied with one JNI call per particle body.
+     */
+    @Override
+    public void readPositions(float[] out) {
+        for (int i = 0; i < bodies.size(); i++) {
+            getPosition(i, position);
+            out[i * 2] = position.x;
+            out[i * 2 + 1] = position.y;
+        }
+    }
+
+    @Override
+    public boolean freeze(int[] particles) {
+
+        // Proxies would have to migrate between worlds along with groups, not supported.
+        return false;
+    }
+
+    @Override
+    public void thaw(float minX, float minY, float maxX, float maxY) {
+    }
+
+    @Override
+    public boolean isFrozen(int particle) {
+        return false;
+    }
+
+    @Override
+    public float getMaxSpeed(int[] particles) {
+        float max = 0;
+        for (int particle : particles) {
+            max = Math.max(max, bodies.get(particle).getLinearVelocity().len2());
+        }
+        return (float) Math.sqrt(max);
+    }
+
+    @Override
+    public void step(float timeStep, int iterations) {
+        this.timeStep = timeStep;
+        this.iterations = iterations;
+
+        if (shapes.size() > 0) {
+            predicted.timeStep = timeStep;
+            shapes.solve(predicted);
+        }
+
+        if (pool == null) {
+            worlds[0].step(timeStep, iterations, Scene.positionIterations(iterations));
+        } else {
+            pool.invoke(new StepAction(0, worlds.length));
+        }
+
+        if (++steps % MIGRATION_INTERVAL == 0) {
+            migrateGroups();
+        }
+    }
+
+    @Override
+    public int getIterations() {
+        return Scene.VELOCITY_ITERATIONS;
+    }
+
+    @Override
+    public void clear() {
+        for (World world : worlds) {
+
+            // Cleanup all bodies, exclude static bodies. Joints are destroyed along with bodies.
+            Array<Body> bodies = new Array<>();
+            world.getBodies(bodies);
+            bodies.forEach(b -> {
+                if (BodyDef.BodyType.StaticBody != b.getType()) {
+                    world.destroyBody(b);
+                }
+            });
+        }
+
+        bodies.clear();
+        filterGroups.clear();
+        particleGroups.clear();
+
+        constraintA.clear();
+        constraintB.clear();
+        constraintLength.clear();
+        constraintFrequency.clear();
+        constraintDamping.clear();
+        constraintCount = 0;
+
+        groupParticles.clear();
+        groupConstraints.clear();
+        groupWorlds.clear();
+
+        freeParticles.clear();
+        freeConstraints.clear();
+        freeGroups.clear();
+
+        shapes.clear();
+    }
+
+    @Override
+    public int getParticleCount() {
+        return bodies.size();
+    }
+
+    @Override
+    public int getConstraintCount() {
+        return constraintCount + shapes.size();
+    }
+
+    @Override
+    public void dispose() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        for (World world : worlds) {
+            world.dispose();
+        }
+        circleShape.dispose();
+    }
+
+    /**
+     * Merge two groups, moving the smaller group into the world of the larger one.
+     *
+     * @return id of the merged group.
+     */
+    private int merge(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+
+        int larger = groupParticles.get(a).size >= groupParticles.get(b).size ? a : b;
+        int smaller = larger == a ? b : a;
+
+        if (groupWorlds.get(larger) != groupWorlds.get(smaller)) {
+            migrate(smaller, groupWorlds.get(larger));
+        }
+
+        IntArray particles = groupParticles.get(smaller);
+        for (int i = 0; i < particles.size; i++) {
+            particleGroups.set(particles.get(i), larger);
+        }
+
+        groupParticles.get(larger).addAll(particles);
+        groupConstraints.get(larger).addAll(groupConstraints.get(smaller));
+
+        particles.clear();
+        groupConstraints.get(smaller).clear();
+        freeGroup(smaller);
+
+        return larger;
+    }
+
+    /**
+     * Hand out a group again once it has no particles left, groups are freed only once.
+     */
+    private void freeGroup(int group) {
+        if (groupParticles.get(group).size == 0 && groupWorlds.get(group) >= 0) {
+            groupWorlds.set(group, -1);
+            freeGroups.add(group);
+        }
+    }
+
+    /**
+     * Merge groups of given particles, so that they live in a single world.
+     */
+    private void join(int[] particles) {
+        int group = particleGroups.get(particles[0]);
+        for (int particle : particles) {
+            group = merge(group, particleGroups.get(particle));
+        }
+    }
+
+    /**
+     * Move groups whose center has moved into another strip.
+     */
+    private void migrateGroups() {
+        for (int group = 0; group < groupParticles.size(); group++) {
+            migrateGroup(group);
+        }
+    }
+
+    /**
+     * Move a group if its center has moved into another strip.
+     */
+    private void migrateGroup(int group) {
+        IntArray particles = groupParticles.get(group);
+        if (particles.size == 0) {
+            return;
+        }
+
+        float x = 0;
+        for (int i = 0; i < particles.size; i++) {
+            x += getPosition(particles.get(i), position).x;
+        }
+        x /= particles.size;
+
+        int world = groupWorlds.get(group);
+        if (x < world * stripWidth - MIGRATION_MARGIN || x > (world + 1) * stripWidth + MIGRATION_MARGIN) {
+            migrate(group, strip(x));
+        }
+    }
+
+    /**
+     * Recreate all group bodies and joints in another world, keeping positions and velocities.
+     */
+    private void migrate(int group, int target) {
+        World from = worlds[groupWorlds.get(group)];
+        World to = worlds[target];
+
+        IntArray particles = groupParticles.get(group);
+        for (int i = 0; i < particles.size; i++) {
+            int particle = particles.get(i);
+            Body body = bodies.get(particle);
+
+            bodyDef.position.set(body.getPosition());
+            bodyDef.linearVelocity.set(body.getLinearVelocity());
+            bodyDef.active = body.isActive();
+            fixtureDef.filter.groupIndex = filterGroups.get(particle);
+
+            // Joints of the body are destroyed along with it.
+            bodies.set(particle, createBody(to));
+            from.destroyBody(body);
+        }
+        bodyDef.linearVelocity.setZero();
+        bodyDef.active = true;
+        fixtureDef.filter.groupIndex = 0;
+
+        IntArray constraints = groupConstraints.get(group);
+        for (int i = 0; i < constraints.size; i++) {
+            createJoint(to, constraints.get(i));
+        }
+        groupWorlds.set(group, target);
+    }
+
+    /**
+     * @return body created at the current body definition position.
+     */
+    private Body createBody(World world) {
+        Body body = world.createBody(bodyDef);
+        body.createFixture(fixtureDef);
+        return body;
+    }
+
+    private void createJoint(World world, int constraint) {
+        Body bodyA = bodies.get(constraintA.get(constraint));
+        Body bodyB = bodies.get(constraintB.get(constraint));
+
+        // Particle bodies are centered on their particles, so joints stay anchored at body origins
+        // and nothing has to be read from the bodies.
+        jointDef.bodyA = bodyA;
+        jointDef.bodyB = bodyB;
+        jointDef.length = constraintLength.get(constraint);
+        jointDef.frequencyHz = constraintFrequency.get(constraint);
+        jointDef.dampingRatio = constraintDamping.get(constraint);
+
+        world.createJoint(jointDef);
+    }
+
+    /**
+     * @return distance between the bodies of two particles.
+     */
+    private float distance(int a, int b) {
+        return bodies.get(a).getWorldCenter().dst(bodies.get(b).getWorldCenter());
+    }
+
+    /**
+     * @return index of the strip containing a given x coordinate.
+     */
+    private int strip(float x) {
+        return MathUtils.clamp((int) (x / stripWidth), 0, worlds.length - 1);
+    }
+
+    /**
+     * Particles at positions predicted from their velocities at the end of the next step.
+     * Corrections change velocities so that particles move by them during the step.
+     */
+    private final class Predicted implements ShapeConstraints.Particles {
+
+        private float timeStep;
+
+        @Override
+        public Vector2 getPosition(int particle, Vector2 out) {
+            Body body = bodies.get(particle);
+            return out.set(body.getLinearVelocity()).scl(timeStep).add(body.getPosition());
+        }
+
+        @Override
+        public boolean isSimulated(int particle) {
+            return bodies.get(particle) != null;
+        }
+
+        @Override
+        public void correct(int particle, float dx, float dy) {
+            float limit = SLEEP_SPEED * timeStep;
+            if (dx * dx + dy * dy < limit * limit) {
+                return;
+            }
+
+            // Bodies do not rotate, so the impulse can be applied anywhere.
+            bodies.get(particle).applyLinearImpulse(MASS * dx / timeStep, MASS * dy / timeStep, 0, 0, true);
+        }
+    }
+
+    /**
+     * Steps a range of worlds, splitting the range until a single world is left.
+     */
+    private final class StepAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        private StepAction(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                worlds[from].step(timeStep, iterations, Scene.positionIterations(iterations));
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new StepAction(from, middle), new StepAction(middle, to));
+        }
+    }
+}
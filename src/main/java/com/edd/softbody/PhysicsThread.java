@@ -0,0 +1,274 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Steps a scene on its own thread at a fixed rate, so rendering never waits for physics.
+ * After each step particle positions are copied into a snapshot which is handed to the render
+ * thread without locking, the renderer interpolates between the last two steps.
+ * <p>
+ * The scene must only be touched via {@link #execute(Consumer)} once the thread is started.
+ * Bodies acquired from {@link #acquire()} read positions from this object instead of the solver.
+ */
+public final class PhysicsThread implements ParticlePositions {
+
+    private static final long TIME_STEP_NANOS = (long) (Scene.TIME_STEP * TimeUnit.SECONDS.toNanos(1));
+    private static final long MAX_FRAME_NANOS = (long) (Scene.MAX_FRAME_TIME * TimeUnit.SECONDS.toNanos(1));
+
+    // Marks the ready snapshot as not yet acquired by the render thread.
+    private static final int FRESH = 4;
+    private static final int INDEX = FRESH - 1;
+
+    private final Scene scene;
+    private final Thread thread;
+
+    // Receives step times and object counts, can be null.
+    private final FrameMetrics metrics;
+
+    // Scene changes submitted by the render thread.
+    private final Queue<Consumer<Scene>> commands = new ConcurrentLinkedQueue<>();
+
+    // Triple buffer: physics thread writes the back snapshot, render thread reads the front one
+    // and the ready one is swapped between them.
+    private final Snapshot[] snapshots = {new Snapshot(), new Snapshot(), new Snapshot()};
+    private final AtomicInteger ready = new AtomicInteger(1);
+
+    private volatile boolean running;
+
+    // Physics thread state.
+    private int back = 0;
+    private float[] positions = new float[0];
+    private int positionCount = 0;
+    private SoftBody[] bodies = new SoftBody[0];
+    private long time;
+    private final Vector2 position = new Vector2();
+
+    // Render thread state.
+    private int front = 2;
+    private Snapshot snapshot = snapshots[front];
+    private float alpha;
+
+    public PhysicsThread(Scene scene) {
+        this(scene, null);
+    }
+
+    /**
+     * @param metrics receives step times and object counts from the physics thread, can be null.
+     */
+    public PhysicsThread(Scene scene, FrameMetrics metrics) {
+        this.scene = scene;
+        this.metrics = metrics;
+        this.thread = new Thread(this::run, "physics");
+
+        // Never keep the application alive.
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+
+        // Publish initial state, so the first frame already has bodies to draw.
+        time = System.nanoTime();
+        updateBodies();
+        publish();
+
+        thread.start();
+    }
+
+    /**
+     * Stop the physics thread and wait for it to finish, the scene may be accessed directly after.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run a command on the physics thread before the next step, in order of submission.
+     */
+    public void execute(Consumer<Scene> command) {
+        commands.add(command);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Acquire the latest published state for rendering. Must be called on the render thread
+     * once per frame, before drawing the bodies.
+     *
+     * @return bodies to draw, reading interpolated positions from this object.
+     */
+    public SoftBody[] acquire() {
+        if ((ready.get() & FRESH) != 0) {
+            front = ready.getAndSet(front) & INDEX;
+            snapshot = snapshots[front];
+        }
+
+        // Render one step behind the simulation, between the last two steps.
+        alpha = MathUtils.clamp((System.nanoTime() - snapshot.time) / (float) TIME_STEP_NANOS, 0f, 1f);
+        return snapshot.bodies;
+    }
+
+    /**
+     * Read interpolated particle position from the acquired state.
+     */
+    @Override
+    public Vector2 getPosition(int particle, Vector2 out) {
+        float[] previous = snapshot.previous;
+        float[] current = snapshot.current;
+
+        int i = particle * 2;
+        return out.set(
+                previous[i] + (current[i] - previous[i]) * alpha,
+                previous[i + 1] + (current[i + 1] - previous[i + 1]) * alpha
+        );
+    }
+
+    private void run() {
+        long last = System.nanoTime();
+        long accumulator = 0;
+
+        while (running) {
+            runCommands();
+
+            long now = System.nanoTime();
+            accumulator += Math.min(now - last, MAX_FRAME_NANOS);
+            last = now;
+
+            int steps = 0;
+            long stepTime = 0;
+
+            while (accumulator >= TIME_STEP_NANOS) {
+                long start = System.nanoTime();
+                scene.step();
+                stepTime += System.nanoTime() - start;
+                steps++;
+
+                accumulator -= TIME_STEP_NANOS;
+
+                time = now - accumulator;
+                publish();
+            }
+
+            if (metrics != null && steps > 0) {
+                metrics.recordPhysics(steps, stepTime, scene);
+            }
+
+            // Sleep until the next step is due or a command arrives.
+            LockSupport.parkNanos(TIME_STEP_NANOS - accumulator);
+        }
+    }
+
+    private void runCommands() {
+        Consumer<Scene> command = commands.poll();
+        if (command == null) {
+            return;
+        }
+
+        do {
+            command.accept(scene);
+        } while ((command = commands.poll()) != null);
+
+        updateBodies();
+    }
+
+    /**
+     * Rebuild published body array if scene bodies have changed.
+     */
+    private void updateBodies() {
+        List<SoftBody> list = scene.getBodies();
+
+        int same = 0;
+        while (same < bodies.length && same < list.size() && bodies[same] == list.get(same)) {
+            same++;
+        }
+
+        if (same == bodies.length && same == list.size()) {
+            return;
+        }
+
+        // Bodies from the first changed one on may be new, recycled or recreated at another tier,
+        // their particle ids may have been used by removed particles before, so they must not be
+        // interpolated from where those were. Bodies before it keep their previous positions.
+        Solver solver = scene.getSolver();
+        for (int i = same; i < list.size(); i++) {
+            for (int particle : list.get(i).getParticles()) {
+                int index = particle * 2;
+                if (index < positionCount) {
+                    solver.getPosition(particle, position);
+                    positions[index] = position.x;
+                    positions[index + 1] = position.y;
+                }
+            }
+        }
+
+        bodies = list.toArray(new SoftBody[list.size()]);
+        for (SoftBody body : bodies) {
+            body.setPositions(this);
+        }
+    }
+
+    /**
+     * Copy current particle positions into the back snapshot and swap it with the ready one.
+     */
+    private void publish() {
+        Solver solver = scene.getSolver();
+        Snapshot snapshot = snapshots[back];
+
+        int count = solver.getParticleCount() * 2;
+        if (positions.length < count) {
+            positions = new float[count];
+        }
+        snapshot.ensureCapacity(count);
+
+        solver.readPositions(snapshot.current);
+
+        // Particles without a previous position are not interpolated.
+        int previous = Math.min(positionCount, count);
+        System.arraycopy(positions, 0, snapshot.previous, 0, previous);
+        System.arraycopy(snapshot.current, previous, snapshot.previous, previous, count - previous);
+
+        System.arraycopy(snapshot.current, 0, positions, 0, count);
+        positionCount = count;
+
+        snapshot.bodies = bodies;
+        snapshot.time = time;
+
+        back = ready.getAndSet(back | FRESH) & INDEX;
+    }
+
+    /**
+     * Particle positions of two consecutive steps, packed as x, y pairs by particle id.
+     */
+    private static final class Snapshot {
+
+        private float[] previous = new float[0];
+        private float[] current = new float[0];
+
+        private SoftBody[] bodies = new SoftBody[0];
+
+        // Time in nanos at which the current positions were reached.
+        private long time;
+
+        private void ensureCapacity(int count) {
+            if (current.length < count) {
+                previous = new float[count];
+                current = new float[count];
+            }
+        }
+    }
+}
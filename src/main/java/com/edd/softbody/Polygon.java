@@ -0,0 +1,108 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * Solid body of an arbitrary outline, created from a template registered under a name, see
+ * {@link #register(String, float[])}.
+ */
+public final class Polygon extends SoftBody {
+
+    private final String name;
+    private final SoftBodyTemplate template;
+
+    // Particle ids, in the same order as vertices and outline points.
+    private final int[] particles;
+
+    private final Vector2 position = new Vector2();
+
+    /**
+     * @param name name the outline was registered under.
+     * @param x    x the outline origin is moved to.
+     * @param y    y the outline origin is moved to.
+     */
+    public Polygon(Texture texture, Solver solver, String name, float x, float y) {
+        super(texture, solver, 0);
+
+        this.name = name;
+        this.template = SoftBodyTemplates.get(topology(name));
+
+        if (template == null) {
+            throw new IllegalArgumentException("Unknown outline: " + name);
+        }
+
+        int constraints = solver.getConstraintCount();
+        this.particles = template.instantiate(solver, x, y);
+
+        setConstraintCount(solver.getConstraintCount() - constraints, null);
+    }
+
+    /**
+     * Register the template of an outline under a name, which must not be registered or baked
+     * already.
+     *
+     * @param outline x, y pairs of a simple polygon, see {@link SoftBodyTemplate#fromOutline(float[])}.
+     */
+    public static void register(String name, float[] outline) {
+        if (!SoftBodyTemplates.add(topology(name), SoftBodyTemplate.fromOutline(outline))) {
+            throw new IllegalArgumentException("Outline already registered: " + name);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getTopology() {
+        return topology(name);
+    }
+
+    /**
+     * @param x x the outline origin is moved to.
+     * @param y y the outline origin is moved to.
+     */
+    @Override
+    public void reset(Solver solver, float x, float y) {
+        template.reset(solver, particles, x, y);
+    }
+
+    @Override
+    public int[] getParticles() {
+        return particles;
+    }
+
+    @Override
+    protected float[] createTextureCoordinates() {
+        return template.getTextureCoordinates();
+    }
+
+    @Override
+    protected float[] updateVertices(float[] vertices) {
+        if (vertices.length == 0) {
+            vertices = new float[particles.length * COMPONENT_COUNT];
+        }
+
+        int idx = 0;
+        for (int particle : particles) {
+            getPosition(particle, position);
+
+            vertices[idx++] = position.x;
+            vertices[idx++] = position.y;
+        }
+        return vertices;
+    }
+
+    @Override
+    protected int[] createIndices() {
+        return template.getIndices();
+    }
+
+    /**
+     * @return topology key of a polygon, see {@link SoftBody#getTopology()}.
+     */
+    static String topology(String name) {
+        return "polygon " + name;
+    }
+}
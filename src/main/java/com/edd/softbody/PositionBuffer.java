@@ -0,0 +1,111 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Vertex positions kept in a direct buffer which a GL buffer mirrors. Positions are written
+ * straight into the direct buffer and only ranges written since the last upload are uploaded,
+ * so positions which did not change are neither copied nor uploaded again.
+ */
+final class PositionBuffer implements Disposable {
+
+    private static final int VERTEX_BYTES = SoftBody.COMPONENT_COUNT * Float.BYTES;
+
+    // Written ranges fewer than this many vertices apart are uploaded as one, each upload is a GL call.
+    private static final int MERGE_GAP = 256;
+
+    private final ByteBuffer bytes;
+    private final FloatBuffer floats;
+    private final int handle;
+
+    // Vertex ranges written since the last upload, first vertex and the vertex past the last one.
+    private final IntArray dirty = new IntArray();
+
+    // Position attribute location of the program the buffer is bound to.
+    private int location;
+
+    /**
+     * @param maxVertices number of vertices the buffer holds.
+     */
+    PositionBuffer(int maxVertices) {
+        bytes = BufferUtils.newByteBuffer(maxVertices * VERTEX_BYTES);
+        floats = bytes.asFloatBuffer();
+        handle = Gdx.gl20.glGenBuffer();
+
+        Gdx.gl20.glBindBuffer(GL20.GL_ARRAY_BUFFER, handle);
+        Gdx.gl20.glBufferData(GL20.GL_ARRAY_BUFFER, bytes.capacity(), null, GL20.GL_DYNAMIC_DRAW);
+        Gdx.gl20.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Write positions of given vertices, they are uploaded on the next bind.
+     *
+     * @param vertex first vertex written to.
+     * @param source vertex array, see {@link SoftBody#getVertices()}.
+     * @param from   first source vertex.
+     * @param count  number of vertices written.
+     */
+    void put(int vertex, float[] source, int from, int count) {
+        floats.position(vertex * SoftBody.COMPONENT_COUNT);
+        floats.put(source, from * SoftBody.COMPONENT_COUNT, count * SoftBody.COMPONENT_COUNT);
+
+        // Vertices are mostly written in order, so only the last range is extended.
+        int end = vertex + count;
+        int last = dirty.size - 1;
+        if (last > 0 && vertex >= dirty.get(last - 1) && vertex <= dirty.get(last) + MERGE_GAP) {
+            dirty.set(last, Math.max(dirty.get(last), end));
+        } else {
+            dirty.add(vertex);
+            dirty.add(end);
+        }
+    }
+
+    /**
+     * Bind the buffer as the position attribute of a program, uploading ranges written since
+     * the last bind.
+     *
+     * @return number of bytes uploaded.
+     */
+    int bind(ShaderProgram program) {
+        Gdx.gl20.glBindBuffer(GL20.GL_ARRAY_BUFFER, handle);
+
+        int uploaded = 0;
+        for (int i = 0; i < dirty.size; i += 2) {
+            int from = dirty.get(i) * VERTEX_BYTES;
+            int to = dirty.get(i + 1) * VERTEX_BYTES;
+
+            // Backends upload the remaining bytes of the buffer.
+            bytes.limit(to);
+            bytes.position(from);
+            Gdx.gl20.glBufferSubData(GL20.GL_ARRAY_BUFFER, from, to - from, bytes);
+
+            uploaded += to - from;
+        }
+        bytes.clear();
+        dirty.clear();
+
+        location = program.getAttributeLocation(ShaderProgram.POSITION_ATTRIBUTE);
+        program.enableVertexAttribute(location);
+        program.setVertexAttribute(location, SoftBody.COMPONENT_COUNT, GL20.GL_FLOAT, false, 0, 0);
+        return uploaded;
+    }
+
+    void unbind(ShaderProgram program) {
+        program.disableVertexAttribute(location);
+        Gdx.gl20.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+    }
+
+    @Override
+    public void dispose() {
+        Gdx.gl20.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+        Gdx.gl20.glDeleteBuffer(handle);
+    }
+}
@@ -0,0 +1,34 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * Positions of all particles read from a solver once per frame, so that bodies updating their
+ * vertices read an array instead of the solver and may be prepared on other threads. Reading is
+ * about as expensive as updating bodies straight from the solver, see
+ * {@link Solver#readPositions(float[])}.
+ */
+public final class PositionReadback implements ParticlePositions {
+
+    private float[] positions = new float[0];
+
+    /**
+     * Read current positions of all particles of a given solver.
+     */
+    public void update(Solver solver) {
+        int count = solver.getParticleCount() * 2;
+        if (positions.length < count) {
+            positions = new float[Math.max(count, positions.length * 2)];
+        }
+        solver.readPositions(positions);
+    }
+
+    /**
+     * Read particle position as of the last {@link #update(Solver)}.
+     */
+    @Override
+    public Vector2 getPosition(int particle, Vector2 out) {
+        int i = particle * 2;
+        return out.set(positions[i], positions[i + 1]);
+    }
+}
@@ -1,170 +1,534 @@
 package com.edd.softbody;
 
 import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.math.MathUtils;
 import com.badlogic.gdx.math.Vector2;
-import com.badlogic.gdx.physics.box2d.*;
-import com.badlogic.gdx.physics.box2d.joints.DistanceJointDef;
-
-import java.util.ArrayList;
-import java.util.List;
 
 public final class Rectangle extends SoftBody {
 
     private static final float SPACING = RADIUS * 2;
 
+    // Grid size at the tier the body was created with.
+    private final int fullWidth;
+    private final int fullHeight;
+
+    private final Bracing bracing;
+    private final int tier;
+    private final int tierCount;
+
+    // Grid size at the current tier, coarser tiers space particles further apart.
     private final int width;
     private final int height;
     private final int total;
 
-    // Could and should use just a list here, though too lazy to refactor.
-    private final Body[][] bodies;
+    // Particles, constraints and mesh, shared by all rectangles of the same size, bracing and tier.
+    private final SoftBodyTemplate template;
+
+    // Particle ids, row by row, in the same order as vertices.
+    private final int[] particles;
+
+    // Particles along the edges of the grid, interior ones stay within them.
+    private final int[] outline;
+
+    private final Vector2 position = new Vector2();
 
-    public Rectangle(Texture texture, World world, float x, float y, int width, int height) {
-        super(texture, width * height * COMPONENT_COUNT);
+    // Particle positions row by row, and the same rows refined, column by column.
+    private float[] grid = new float[0];
+    private float[] refined = new float[0];
+
+    public Rectangle(Texture texture, Solver solver, float x, float y, int width, int height) {
+        this(texture, solver, x, y, width, height, Bracing.FULL, 0, null);
+    }
+
+    public Rectangle(Texture texture, Solver solver, float x, float y, int width, int height, Bracing bracing) {
+        this(texture, solver, x, y, width, height, bracing, 0, null);
+    }
+
+    /**
+     * Create a rectangle at a given tier right away, used when restoring snapshots.
+     */
+    Rectangle(Texture texture, Solver solver, float x, float y, int width, int height, Bracing bracing, int tier) {
+        this(texture, solver, x, y, width, height, bracing, tier, null);
+    }
 
-        this.width = width;
-        this.height = height;
+    /**
+     * @param source rectangle at another tier this rectangle replaces, its shape and velocity are copied.
+     */
+    private Rectangle(Texture texture,
+                      Solver solver,
+                      float x,
+                      float y,
+                      int fullWidth,
+                      int fullHeight,
+                      Bracing bracing,
+                      int tier,
+                      Rectangle source) {
+
+        super(texture, solver, size(fullWidth, tier) * size(fullHeight, tier) * COMPONENT_COUNT);
+
+        this.fullWidth = fullWidth;
+        this.fullHeight = fullHeight;
+        this.bracing = bracing;
+        this.tier = tier;
+        this.tierCount = countTiers(fullWidth, fullHeight);
+
+        this.width = size(fullWidth, tier);
+        this.height = size(fullHeight, tier);
         this.total = width * height;
 
-        this.bodies = createBody(world, x, y);
+        int constraints = solver.getConstraintCount();
+        this.template = template(fullWidth, fullHeight, bracing, tier);
+        this.particles = template.instantiate(solver, x, y);
+        this.outline = createOutline();
+
+        if (source != null) {
+            copyShape(solver, source);
+        }
+        setConstraintCount(solver.getConstraintCount() - constraints, source);
+    }
+
+    @Override
+    public int getTier() {
+        return tier;
+    }
+
+    @Override
+    public int getTierCount() {
+        return tierCount;
+    }
+
+    @Override
+    public Rectangle createTier(Solver solver, int tier) {
+        Vector2 corner = solver.getPosition(particles[0], new Vector2());
+        return new Rectangle(getTexture(), solver, corner.x, corner.y, fullWidth, fullHeight, bracing, tier, this);
+    }
+
+    /**
+     * Corrections spread across the grid one constraint per iteration, so larger grids need more.
+     */
+    @Override
+    public int getMinIterations() {
+        return Math.max(MIN_ITERATIONS, Math.max(width, height) / 2);
+    }
+
+    /**
+     * @return grid width at the tier the body was created with.
+     */
+    public int getFullWidth() {
+        return fullWidth;
+    }
+
+    /**
+     * @return grid height at the tier the body was created with.
+     */
+    public int getFullHeight() {
+        return fullHeight;
+    }
+
+    @Override
+    public Bracing getBracing() {
+        return bracing;
+    }
+
+    @Override
+    public SoftBodyTemplate getTemplate() {
+        return template;
+    }
+
+    @Override
+    public String getTopology() {
+        return topology(fullWidth, fullHeight, bracing, tier);
+    }
+
+    @Override
+    public String getTopology(int tier) {
+        return topology(fullWidth, fullHeight, bracing, tier);
+    }
+
+    @Override
+    public void copyTier(Solver solver, SoftBody source) {
+        copyShape(solver, (Rectangle) source);
+        setConstraintCount(getConstraintCount(), source);
+    }
+
+    /**
+     * @param x left edge.
+     * @param y bottom edge.
+     */
+    @Override
+    public void reset(Solver solver, float x, float y) {
+        template.reset(solver, particles, x, y);
+    }
+
+    @Override
+    public int[] getParticles() {
+        return particles;
+    }
+
+    @Override
+    protected int[] getOutline() {
+        return outline;
     }
 
-    private final Vector2 center = new Vector2();
+    @Override
+    public int getMaxRefinement() {
+        return Spline.MAX_REFINEMENT;
+    }
 
+    @Override
+    protected float[] createTextureCoordinates() {
+        int refinement = getRefinement();
+        return refinement == 1 ? template.getTextureCoordinates() : createTextureCoordinates(refine(width), refine(height));
+    }
+
+    /**
+     * Vertices in between particles are interpolated by bicubic patches, splines along rows
+     * first and along columns of the refined rows after.
+     */
     @Override
     protected float[] updateVertices(float[] vertices) {
-        center.setZero();
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                Vector2 pos = bodies[i][j].getPosition();
-                center.add(pos.x, pos.y);
-            }
+        int refinement = getRefinement();
+        int refinedWidth = refine(width);
+        int refinedHeight = refine(height);
+
+        if (vertices.length == 0) {
+            vertices = new float[refinedWidth * refinedHeight * COMPONENT_COUNT];
+        }
+        if (refinement == 1) {
+            return updateGrid(vertices);
         }
-        center.set(center.x / total, center.y / total);
 
-        int idx = 0;
+        if (refined.length < refinedWidth * height * COMPONENT_COUNT) {
+            grid = new float[total * COMPONENT_COUNT];
+            refined = new float[refinedWidth * height * COMPONENT_COUNT];
+        }
+        updateGrid(grid);
 
         for (int j = 0; j < height; j++) {
-            for (int i = 0; i < width; i++) {
-                float u = (float) i / (width - 1);
+            Spline.refine(grid, j * width * COMPONENT_COUNT, width, false, refinement,
+                    refined, j * COMPONENT_COUNT, height * COMPONENT_COUNT);
+        }
 
-                // v is facing down hence the -1.
-                float v = 1 - (float) j / (height - 1);
+        for (int i = 0; i < refinedWidth; i++) {
+            Spline.refine(refined, i * height * COMPONENT_COUNT, height, false, refinement,
+                    vertices, i * COMPONENT_COUNT, refinedWidth * COMPONENT_COUNT);
+        }
+        return vertices;
+    }
 
-                Vector2 pos = bodies[i][j].getLocalPoint(center);
+    /**
+     * Write particle positions row by row.
+     */
+    private float[] updateGrid(float[] vertices) {
+        int idx = 0;
 
-                vertices[idx++] = center.x - pos.x;
-                vertices[idx++] = center.y - pos.y;
-                vertices[idx++] = u;
-                vertices[idx++] = v;
-            }
+        for (int i = 0; i < total; i++) {
+            getPosition(particles[i], position);
+
+            vertices[idx++] = position.x;
+            vertices[idx++] = position.y;
         }
         return vertices;
     }
 
     @Override
-    protected short[] createIndices() {
-        List<Integer> indices = new ArrayList<>();
+    protected int[] createIndices() {
+        int refinement = getRefinement();
+        return refinement == 1 ? template.getIndices() : createIndices(refine(width), refine(height));
+    }
+
+    /**
+     * @return number of mesh vertices along a grid edge of a given number of particles.
+     */
+    private int refine(int size) {
+        return Spline.count(size, false, getRefinement());
+    }
+
+    /**
+     * @return template of a rectangle, recorded from the rectangle generator if it was not baked.
+     */
+    static SoftBodyTemplate template(int fullWidth, int fullHeight, Bracing bracing, int tier) {
+        return SoftBodyTemplates.get(topology(fullWidth, fullHeight, bracing, tier), () -> {
+            int width = size(fullWidth, tier);
+            int height = size(fullHeight, tier);
+            float spacingX = width > 1 ? (fullWidth - 1) * SPACING / (width - 1) : 0;
+            float spacingY = height > 1 ? (fullHeight - 1) * SPACING / (height - 1) : 0;
+
+            return SoftBodyTemplate.record(
+                    sink -> createParticles(sink, width, height, spacingX, spacingY, bracing),
+                    createTextureCoordinates(width, height),
+                    createIndices(width, height)
+            );
+        });
+    }
 
-        // See for more info:
-        // http://www.learnopengles.com/android-lesson-eight-an-introduction-to-index-buffer-objects-ibos/
+    /**
+     * @return triangle indices of a grid of a given size.
+     */
+    private static int[] createIndices(int width, int height) {
+        int[] indices = new int[(width - 1) * (height - 1) * 6];
+
+        // Two triangles per grid cell.
+        int idx = 0;
         for (int y = 0; y < height - 1; y++) {
-            if (y > 0) {
+            for (int x = 0; x < width - 1; x++) {
+                int bottomLeft = y * width + x;
+                int topLeft = (y + 1) * width + x;
+
+                indices[idx++] = bottomLeft;
+                indices[idx++] = topLeft;
+                indices[idx++] = bottomLeft + 1;
 
-                // Degenerate begin: repeat first vertex.
-                indices.add(y * width);
+                indices[idx++] = bottomLeft + 1;
+                indices[idx++] = topLeft;
+                indices[idx++] = topLeft + 1;
             }
+        }
+        return indices;
+    }
+
+    /**
+     * @return texture coordinates for each vertex, in the same order as vertices.
+     */
+    private static float[] createTextureCoordinates(int width, int height) {
+        float[] textureCoordinates = new float[width * height * 2];
 
-            for (int x = 0; x < width; x++) {
+        int idx = 0;
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                textureCoordinates[idx++] = (float) i / (width - 1);
 
-                // One part of the strip.
-                indices.add((y * width) + x);
-                indices.add(((y + 1) * width) + x);
+                // v is facing down hence the -1.
+                textureCoordinates[idx++] = 1 - (float) j / (height - 1);
             }
+        }
+        return textureCoordinates;
+    }
 
-            if (y < height - 2) {
+    /**
+     * Move particles onto the grid of a rectangle at another tier, particles in between source
+     * particles are interpolated bilinearly. Velocities are interpolated as well.
+     */
+    private void copyShape(Solver solver, Rectangle source) {
+        Vector2 position = new Vector2();
+        Vector2 velocity = new Vector2();
 
-                // Degenerate end: repeat last vertex.
-                indices.add((y + 1) * width + (width - 1));
+        for (int j = 0; j < height; j++) {
+            float v = height > 1 ? (float) j * (source.height - 1) / (height - 1) : 0;
+
+            for (int i = 0; i < width; i++) {
+                float u = width > 1 ? (float) i * (source.width - 1) / (width - 1) : 0;
+
+                int particle = particles[j * width + i];
+
+                source.sample(solver, u, v, false, position);
+                solver.setPosition(particle, position.x, position.y);
+
+                source.sample(solver, u, v, true, velocity);
+                solver.setVelocity(particle, velocity.x, velocity.y);
             }
         }
+    }
 
-        // Should probably just create an array initially to save resources,
-        // though this is called only once so w/e.
-        short[] indicesArray = new short[indices.size()];
-        for (int i = 0; i < indices.size(); i++) {
-            indicesArray[i] = indices.get(i).shortValue();
-        }
-        return indicesArray;
+    /**
+     * Interpolate particle positions or velocities at a given point of the grid.
+     *
+     * @param u column, may be fractional.
+     * @param v row, may be fractional.
+     */
+    private Vector2 sample(Solver solver, float u, float v, boolean velocity, Vector2 out) {
+        int left = Math.max(0, Math.min((int) u, width - 2));
+        int bottom = Math.max(0, Math.min((int) v, height - 2));
+        int right = Math.min(left + 1, width - 1);
+        int top = Math.min(bottom + 1, height - 1);
+
+        Vector2 bottomLeft = read(solver, particles[bottom * width + left], velocity, new Vector2());
+        Vector2 bottomRight = read(solver, particles[bottom * width + right], velocity, new Vector2());
+        Vector2 topLeft = read(solver, particles[top * width + left], velocity, new Vector2());
+        Vector2 topRight = read(solver, particles[top * width + right], velocity, new Vector2());
+
+        float alphaX = MathUtils.clamp(u - left, 0, 1);
+        float alphaY = MathUtils.clamp(v - bottom, 0, 1);
+
+        bottomLeft.lerp(bottomRight, alphaX);
+        topLeft.lerp(topRight, alphaX);
+        return out.set(bottomLeft.lerp(topLeft, alphaY));
+    }
+
+    private static Vector2 read(Solver solver, int particle, boolean velocity, Vector2 out) {
+        return velocity ? solver.getVelocity(particle, out) : solver.getPosition(particle, out);
     }
 
     /**
-     * @return created bodies in a matrix.
+     * @return topology key of a rectangle, see {@link SoftBody#getTopology()}.
      */
-    private Body[][] createBody(World world, float x, float y) {
+    static String topology(int width, int height, Bracing bracing, int tier) {
+        return "rectangle " + width + " " + height + " " + bracing + " " + tier;
+    }
+
+    /**
+     * @return grid size along one axis at a given tier, ends of the grid are always kept.
+     */
+    private static int size(int fullSize, int tier) {
+        return Math.max(Math.min(fullSize, 2), ((fullSize - 1) >> tier) + 1);
+    }
 
-        // Shape of the joined bodies.
-        CircleShape circleShape = new CircleShape();
-        circleShape.setRadius(RADIUS);
+    /**
+     * @return number of tiers which differ in grid size along either axis.
+     */
+    static int countTiers(int fullWidth, int fullHeight) {
+        return Math.max(countTiers(fullWidth), countTiers(fullHeight));
+    }
+
+    /**
+     * @return number of tiers which differ in grid size along one axis.
+     */
+    private static int countTiers(int fullSize) {
+        int tiers = 1;
+        while (size(fullSize, tiers) < size(fullSize, tiers - 1)) {
+            tiers++;
+        }
+        return tiers;
+    }
 
-        // Fixture for the bodies that are to be joined.
-        FixtureDef fixtureDef = new FixtureDef();
-        fixtureDef.restitution = RESTITUTION;
-        fixtureDef.friction = FRICTION;
-        fixtureDef.density = DENSITY;
-        fixtureDef.shape = circleShape;
+    /**
+     * @return ids of particles along the edges of the grid.
+     */
+    private int[] createOutline() {
 
-        // Definition for the bodies that are to be joined.
-        BodyDef bodyDef = new BodyDef();
-        bodyDef.type = BodyDef.BodyType.DynamicBody;
-        bodyDef.fixedRotation = true;
+        // Grids this thin have no interior particles.
+        if (width <= 2 || height <= 2) {
+            return particles;
+        }
 
-        // Definition for the joints that will connect to bodies.
-        DistanceJointDef jointDef = new DistanceJointDef();
-        jointDef.collideConnected = false;
-        jointDef.frequencyHz = FREQUENCY;
-        jointDef.dampingRatio = DAMPING;
+        int[] outline = new int[(width + height) * 2 - 4];
+        int idx = 0;
 
-        Body[][] bodies = new Body[width][height];
+        // Bottom and top rows.
         for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                bodyDef.position.set(i * SPACING + x, j * SPACING + y);
+            outline[idx++] = particles[i];
+            outline[idx++] = particles[(height - 1) * width + i];
+        }
+
+        // Left and right columns, without corners.
+        for (int j = 1; j < height - 1; j++) {
+            outline[idx++] = particles[j * width];
+            outline[idx++] = particles[j * width + width - 1];
+        }
+        return outline;
+    }
+
+    /**
+     * @return particle ids of a grid created at the origin, row by row.
+     */
+    private static int[] createParticles(ParticleSink sink,
+                                         int width,
+                                         int height,
+                                         float spacingX,
+                                         float spacingY,
+                                         Bracing bracing) {
 
-                Body curr = world.createBody(bodyDef);
-                curr.createFixture(fixtureDef);
+        int[] particles = new int[width * height];
 
-                // Create body matrix which will be used to create vertex buffer.
-                bodies[i][j] = curr;
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < height; j++) {
+                int curr = sink.createParticle(i * spacingX, j * spacingY);
+                particles[j * width + i] = curr;
 
-                // Body to which to connect.
-                Body connect;
+                if (bracing == Bracing.SHAPE_MATCHING) {
+                    continue;
+                }
 
                 // Connect to left.
-                if (i - 1 >= 0 && (connect = bodies[i - 1][j]) != null) {
-                    jointDef.initialize(curr, connect, curr.getWorldCenter(), connect.getWorldCenter());
-                    world.createJoint(jointDef);
+                if (i - 1 >= 0) {
+                    sink.createDistanceConstraint(curr, particles[j * width + i - 1], FREQUENCY, DAMPING);
                 }
 
                 // Connect to bottom.
-                if (j - 1 >= 0 && (connect = bodies[i][j - 1]) != null) {
-                    jointDef.initialize(curr, connect, curr.getWorldCenter(), connect.getWorldCenter());
-                    world.createJoint(jointDef);
+                if (j - 1 >= 0) {
+                    sink.createDistanceConstraint(curr, particles[(j - 1) * width + i], FREQUENCY, DAMPING);
+                }
+
+                if (bracing != Bracing.FULL) {
+                    continue;
                 }
 
                 // Connect to left bottom.
-                if (i - 1 >= 0 && j - 1 >= 0 && (connect = bodies[i - 1][j - 1]) != null) {
-                    jointDef.initialize(curr, connect, curr.getWorldCenter(), connect.getWorldCenter());
-                    world.createJoint(jointDef);
+                if (i - 1 >= 0 && j - 1 >= 0) {
+                    sink.createDistanceConstraint(curr, particles[(j - 1) * width + i - 1], FREQUENCY, DAMPING);
                 }
 
                 // Connect to left top.
-                if (i - 1 >= 0 && j + 1 < height && (connect = bodies[i - 1][j + 1]) != null) {
-                    jointDef.initialize(curr, connect, curr.getWorldCenter(), connect.getWorldCenter());
-                    world.createJoint(jointDef);
+                if (i - 1 >= 0 && j + 1 < height) {
+                    sink.createDistanceConstraint(curr, particles[(j + 1) * width + i - 1], FREQUENCY, DAMPING);
                 }
             }
         }
-        circleShape.dispose();
-        return bodies;
+
+        switch (bracing) {
+            case STRUCTURAL:
+                createBendingLinks(sink, particles, width, height);
+                createCornerBraces(sink, particles, width, height);
+                break;
+
+            case PRESSURE:
+                createCornerBraces(sink, particles, width, height);
+                sink.createPressureConstraint(createRing(particles, width, height), PRESSURE_STIFFNESS);
+                break;
+
+            case SHAPE_MATCHING:
+                sink.createShapeConstraint(particles, SHAPE_STIFFNESS);
+                break;
+        }
+        return particles;
+    }
+
+    /**
+     * Connect particles two apart along the edges of a grid, so that the edges resist bending.
+     */
+    private static void createBendingLinks(ParticleSink sink, int[] particles, int width, int height) {
+        for (int i = 0; i + 2 < width; i++) {
+            sink.createDistanceConstraint(particles[i], particles[i + 2], FREQUENCY, DAMPING);
+            sink.createDistanceConstraint(particles[(height - 1) * width + i], particles[(height - 1) * width + i + 2], FREQUENCY, DAMPING);
+        }
+
+        for (int j = 0; j + 2 < height; j++) {
+            sink.createDistanceConstraint(particles[j * width], particles[(j + 2) * width], FREQUENCY, DAMPING);
+            sink.createDistanceConstraint(particles[j * width + width - 1], particles[(j + 2) * width + width - 1], FREQUENCY, DAMPING);
+        }
+    }
+
+    /**
+     * Connect diagonals of the corner cells of a grid, which keeps the corners square and the
+     * grid from shearing. Thin grids share corner cells, those are braced once.
+     */
+    private static void createCornerBraces(ParticleSink sink, int[] particles, int width, int height) {
+        for (int j = 0; j < height - 1; j += Math.max(1, height - 2)) {
+            for (int i = 0; i < width - 1; i += Math.max(1, width - 2)) {
+                sink.createDistanceConstraint(particles[j * width + i], particles[(j + 1) * width + i + 1], FREQUENCY, DAMPING);
+            }
+        }
+    }
+
+    /**
+     * @return ids of particles along the edges of a grid, in order around it.
+     */
+    private static int[] createRing(int[] particles, int width, int height) {
+        int[] ring = new int[(width + height) * 2 - 4];
+        int idx = 0;
+
+        for (int i = 0; i < width; i++) {
+            ring[idx++] = particles[i];
+        }
+        for (int j = 1; j < height; j++) {
+            ring[idx++] = particles[j * width + width - 1];
+        }
+        for (int i = width - 2; i >= 0; i--) {
+            ring[idx++] = particles[(height - 1) * width + i];
+        }
+        for (int j = height - 2; j > 0; j--) {
+            ring[idx++] = particles[j * width];
+        }
+        return ring;
     }
-}
\ No newline at end of file
+}
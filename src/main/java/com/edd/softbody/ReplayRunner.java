@@ -0,0 +1,57 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.physics.box2d.Box2D;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+/**
+ * Replays recorded input without a display, one step per tick at full quality, and prints the
+ * time of each step as CSV to stdout. Runs of the same recording are identical, so diffing their
+ * output shows performance regressions.
+ * <pre>
+ * ./gradlew replay -Precording=input.bin -Psolver=xpbd
+ * </pre>
+ */
+public final class ReplayRunner {
+
+    // Ticks stepped after the last recorded event, so that its effects are measured too.
+    private static final int TAIL_TICKS = 300;
+
+    private static final String HEADER = "tick,bodies,particles,step_ms";
+
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Usage: ReplayRunner <recording> [box2d|xpbd|partitioned]");
+        }
+
+        Box2D.init();
+
+        InputLog log = InputLog.read(Paths.get(args[0]), null, null);
+        Scene.Backend backend = args.length > 1
+                ? Scene.Backend.valueOf(args[1].toUpperCase(Locale.ROOT))
+                : Scene.Backend.BOX2D;
+
+        Scene scene = new Scene(log.getWidth(), log.getHeight(), backend);
+        log.startReplay(scene);
+
+        System.out.println(HEADER);
+
+        int ticks = log.getLastTick() + TAIL_TICKS;
+        for (int tick = 0; tick < ticks; tick++) {
+            log.replay(scene);
+
+            long start = System.nanoTime();
+            scene.step();
+            long time = System.nanoTime() - start;
+
+            System.out.println(String.format(Locale.ROOT, "%d,%d,%d,%.4f",
+                    tick,
+                    scene.getBodies().size(),
+                    scene.getSolver().getParticleCount(),
+                    time / 1e6));
+        }
+        scene.dispose();
+    }
+}
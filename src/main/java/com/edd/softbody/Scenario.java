@@ -0,0 +1,165 @@
+package com.edd.softbody;
+
+import java.util.Locale;
+
+/**
+ * Description of a stress scenario for headless runs. Parsed from a string in the form of:
+ * <pre>
+ * name:circles=50,rectangles=50,steps=3000,seed=1,solver=partitioned,threads=4,preset=pressure,speed=5
+ * </pre>
+ * Every key is optional, missing keys fall back to defaults.
+ */
+public final class Scenario {
+
+    private static final int DEFAULT_STEPS = 3000;
+    private static final long DEFAULT_SEED = 1;
+
+    private final String name;
+    private final int circles;
+    private final int rectangles;
+    private final int steps;
+    private final long seed;
+    private final Scene.Backend backend;
+    private final int threads;
+    private final Bracing bracing;
+    private final float speed;
+
+    public Scenario(String name,
+                    int circles,
+                    int rectangles,
+                    int steps,
+                    long seed,
+                    Scene.Backend backend,
+                    int threads,
+                    Bracing bracing,
+                    float speed) {
+        this.name = name;
+        this.circles = circles;
+        this.rectangles = rectangles;
+        this.steps = steps;
+        this.seed = seed;
+        this.backend = backend;
+        this.threads = threads;
+        this.bracing = bracing;
+        this.speed = speed;
+    }
+
+    /**
+     * @param description scenario description, see class docs for the format.
+     * @return parsed scenario.
+     */
+    public static Scenario parse(String description) {
+        String name = description;
+        String params = "";
+
+        int separator = description.indexOf(':');
+        if (separator >= 0) {
+            name = description.substring(0, separator);
+            params = description.substring(separator + 1);
+        }
+
+        int circles = 0;
+        int rectangles = 0;
+        int steps = DEFAULT_STEPS;
+        long seed = DEFAULT_SEED;
+        Scene.Backend backend = Scene.Backend.BOX2D;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Bracing bracing = Bracing.FULL;
+        float speed = 0;
+
+        for (String param : params.split(",")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+
+            String[] pair = param.split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Malformed scenario parameter: " + param);
+            }
+
+            String value = pair[1].trim();
+            switch (pair[0].trim()) {
+                case "circles":
+                    circles = Integer.parseInt(value);
+                    break;
+
+                case "rectangles":
+                    rectangles = Integer.parseInt(value);
+                    break;
+
+                case "steps":
+                    steps = Integer.parseInt(value);
+                    break;
+
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+
+                case "solver":
+                    backend = Scene.Backend.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+
+                case "preset":
+                    bracing = Bracing.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+
+                case "speed":
+                    speed = Float.parseFloat(value);
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unknown scenario parameter: " + pair[0]);
+            }
+        }
+        return new Scenario(name, circles, rectangles, steps, seed, backend, threads, bracing, speed);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCircles() {
+        return circles;
+    }
+
+    public int getRectangles() {
+        return rectangles;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public Scene.Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * @return number of threads, used only by partitioned backend.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return bracing of spawned bodies.
+     */
+    public Bracing getBracing() {
+        return bracing;
+    }
+
+    /**
+     * @return speed bodies are launched at in random directions, in m/s.
+     */
+    public float getSpeed() {
+        return speed;
+    }
+}
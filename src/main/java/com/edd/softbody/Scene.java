@@ -0,0 +1,489 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.Body;
+import com.badlogic.gdx.physics.box2d.BodyDef;
+import com.badlogic.gdx.physics.box2d.PolygonShape;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.physics.box2d.joints.MouseJoint;
+import com.badlogic.gdx.physics.box2d.joints.MouseJointDef;
+import com.badlogic.gdx.utils.FloatArray;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Physics side of the sandbox: box2d world, level bounds and soft bodies living in it.
+ * Knows nothing about rendering, so it can be stepped without a display.
+ */
+public final class Scene {
+
+    /**
+     * Solver backends simulating soft bodies.
+     */
+    public enum Backend {
+        BOX2D,
+        XPBD,
+
+        // Box2d split into several worlds stepped in parallel.
+        PARTITIONED
+    }
+
+    // Box2d constants.
+    public static final int VELOCITY_ITERATIONS = 6;
+    public static final int POSITION_ITERATIONS = 2;
+
+    public static final float TIME_STEP = 1.0f / 300f;
+    public static final float GRAVITY = 0;
+
+    // Max frame time accepted by the step controller, prevents the spiral of death.
+    public static final float MAX_FRAME_TIME = 0.25f;
+
+    // Speed below which a particle is considered to be resting, in m/s.
+    public static final float REST_SPEED = 0.05f;
+
+    // Time all particles of a body must rest for before it is frozen, in seconds.
+    private static final float FREEZE_DELAY = 0.5f;
+
+    // Simulated time between checks for resting bodies, in seconds.
+    private static final float REST_CHECK_INTERVAL = 0.1f;
+
+    // General constants.
+    private static final float WALL_HEIGHT = 0.5f;
+
+    // Half size of the area searched for bodies to grab.
+    private static final float GRAB_DISTANCE = 0.2f;
+
+    // All soft bodies in the scene.
+    private final List<SoftBody> bodies = new ArrayList<>();
+
+    // Time each body has been resting for, in the same order as bodies.
+    private final FloatArray restingTimes = new FloatArray();
+
+    private final float width;
+    private final float height;
+    private final Backend backend;
+    private final int partitions;
+
+    // Replaced along with all bodies on reset.
+    private World world;
+    private Body ground;
+    private Solver solver;
+    private StepController controller;
+    private SoftBodyPool pool;
+
+    // Joint definition for mouse and a dragged object.
+    private final MouseJointDef jointDef = new MouseJointDef();
+
+    // Target for the mouse joint.
+    private final Vector2 target = new Vector2();
+
+    // Joint connecting the mouse and the body that is being dragged.
+    private MouseJoint joint;
+
+    // Soft body the dragged particle belongs to, null if there is none.
+    private SoftBody dragged;
+
+    private final Vector2 position = new Vector2();
+
+    // Simulated time since the last check for resting bodies.
+    private float restCheckTime = 0f;
+
+    // Number of steps taken since the scene was created.
+    private int tick = 0;
+
+    /**
+     * @param width  width of the level in meters.
+     * @param height height of the level in meters.
+     */
+    public Scene(float width, float height) {
+        this(width, height, Backend.BOX2D);
+    }
+
+    /**
+     * @param width   width of the level in meters.
+     * @param height  height of the level in meters.
+     * @param backend solver used to simulate soft bodies.
+     */
+    public Scene(float width, float height, Backend backend) {
+        this(width, height, backend, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param width      width of the level in meters.
+     * @param height     height of the level in meters.
+     * @param backend    solver used to simulate soft bodies.
+     * @param partitions number of worlds to split the level into, used only by partitioned backend.
+     */
+    public Scene(float width, float height, Backend backend, int partitions) {
+        this.width = width;
+        this.height = height;
+        this.backend = backend;
+        this.partitions = partitions;
+
+        createWorld();
+
+        jointDef.collideConnected = true;
+        jointDef.maxForce = 500f;
+    }
+
+    /**
+     * Advance the simulation by a given frame time, within the frame budget of the step controller.
+     *
+     * @param delta frame time in seconds.
+     * @return number of steps taken.
+     */
+    public int update(float delta) {
+        int steps = controller.update(delta);
+        updateFrozen(steps * controller.getTimeStep());
+        tick += steps;
+        return steps;
+    }
+
+    /**
+     * Advance the simulation by a single time step at full quality.
+     */
+    public void step() {
+        solver.step(TIME_STEP, solver.getIterations());
+        updateFrozen(TIME_STEP);
+        tick++;
+    }
+
+    /**
+     * Add a soft body to the scene, body must be created using this scenes solver.
+     */
+    public void add(SoftBody body) {
+        bodies.add(body);
+        restingTimes.add(0);
+        controller.addBounds(body);
+    }
+
+    /**
+     * Replace a body with another one, such as the same body at another tier. The replaced body
+     * is freed into the pool, so that replacing it back is cheap.
+     *
+     * @param index index of the body to replace.
+     */
+    public void replace(int index, SoftBody body) {
+        SoftBody replaced = bodies.set(index, body);
+        pool.freeTier(replaced);
+
+        restingTimes.set(index, 0);
+        controller.addBounds(body);
+    }
+
+    /**
+     * Remove all soft bodies and joints, static bodies (bounds) are kept. Removed bodies are
+     * freed into the pool, so that spawning them again is cheap.
+     */
+    public void clear() {
+        release();
+
+        for (SoftBody body : bodies) {
+            pool.free(body);
+        }
+        bodies.clear();
+        restingTimes.clear();
+        controller.clearBounds();
+    }
+
+    /**
+     * Remove all soft bodies by replacing the world, solver and pool with new ones. The old ones
+     * are released in bulk, which is much faster than removing bodies one by one in large
+     * scenes. The budget is kept, objects obtained from the getters before must not be used after.
+     */
+    public void reset() {
+        float budget = controller.getBudget();
+
+        solver.dispose();
+        world.dispose();
+
+        bodies.clear();
+        restingTimes.clear();
+        restCheckTime = 0;
+        joint = null;
+        dragged = null;
+
+        createWorld();
+        controller.setBudget(budget);
+    }
+
+    /**
+     * Start dragging a body near a given point. Only bodies living in the scene world can be
+     * dragged, so this does nothing for solvers which do not use it.
+     */
+    public void grab(float x, float y) {
+
+        // Frozen bodies are rigid, they must be soft again before a particle can be grabbed.
+        solver.thaw(x - GRAB_DISTANCE, y - GRAB_DISTANCE, x + GRAB_DISTANCE, y + GRAB_DISTANCE);
+
+        world.QueryAABB(fixture -> {
+
+            if (BodyDef.BodyType.StaticBody == fixture.getBody().getType()) {
+                return false;
+            }
+
+            jointDef.bodyB = fixture.getBody();
+            jointDef.target.set(x, y);
+            joint = (MouseJoint) world.createJoint(jointDef);
+            dragged = findBody(fixture.getBody().getPosition());
+
+            return false;
+
+        }, x - GRAB_DISTANCE, y - GRAB_DISTANCE, x + GRAB_DISTANCE, y + GRAB_DISTANCE);
+    }
+
+    /**
+     * Start dragging the body at a given position, used when restoring snapshots.
+     *
+     * @param bodyX   position of the body to drag.
+     * @param bodyY   position of the body to drag.
+     * @param anchorX point on the body the joint pulls at.
+     * @param anchorY point on the body the joint pulls at.
+     */
+    void grab(float bodyX, float bodyY, float anchorX, float anchorY) {
+        world.QueryAABB(fixture -> {
+            Body body = fixture.getBody();
+            if (BodyDef.BodyType.StaticBody == body.getType() || !body.getPosition().epsilonEquals(bodyX, bodyY, 0)) {
+                return true;
+            }
+
+            jointDef.bodyB = body;
+            jointDef.target.set(anchorX, anchorY);
+            joint = (MouseJoint) world.createJoint(jointDef);
+            dragged = findBody(body.getPosition());
+
+            return false;
+
+        }, bodyX - SoftBody.RADIUS, bodyY - SoftBody.RADIUS, bodyX + SoftBody.RADIUS, bodyY + SoftBody.RADIUS);
+    }
+
+    /**
+     * @return joint dragging a body, null if no body is being dragged.
+     */
+    MouseJoint getJoint() {
+        return joint;
+    }
+
+    /**
+     * @return whether a body is being dragged.
+     */
+    public boolean isDragging() {
+        return joint != null;
+    }
+
+    /**
+     * @return whether a given soft body is being dragged.
+     */
+    public boolean isDragging(SoftBody body) {
+        return joint != null && dragged == body;
+    }
+
+    /**
+     * Move the dragged body towards a given point, if any body is being dragged.
+     */
+    public void drag(float x, float y) {
+        if (joint != null) {
+            joint.setTarget(target.set(x, y));
+        }
+    }
+
+    /**
+     * Stop dragging the current body, if any.
+     */
+    public void release() {
+        if (joint != null) {
+            world.destroyJoint(joint);
+            joint = null;
+            dragged = null;
+        }
+    }
+
+    public void dispose() {
+        solver.dispose();
+        world.dispose();
+    }
+
+    /**
+     * @return number of steps taken since the scene was created, kept on reset.
+     */
+    public int getTick() {
+        return tick;
+    }
+
+    public List<SoftBody> getBodies() {
+        return bodies;
+    }
+
+    public World getWorld() {
+        return world;
+    }
+
+    public Solver getSolver() {
+        return solver;
+    }
+
+    public StepController getController() {
+        return controller;
+    }
+
+    /**
+     * @return pool recycling bodies of this scene, obtained bodies must still be added.
+     */
+    public SoftBodyPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return static ground body, used as an anchor for mouse joints.
+     */
+    public Body getGround() {
+        return ground;
+    }
+
+    public float getWidth() {
+        return width;
+    }
+
+    public float getHeight() {
+        return height;
+    }
+
+    /**
+     * Create world along with the level bounds, solver and everything depending on it.
+     */
+    private void createWorld() {
+        world = new World(new Vector2(0f, GRAVITY), true);
+        ground = createBounds(world, width, height);
+        solver = createSolver(backend, partitions);
+        controller = new StepController(solver);
+        pool = new SoftBodyPool(solver);
+
+        jointDef.bodyA = ground;
+    }
+
+    /**
+     * @return solver for a given backend, sharing bounds with this scene.
+     */
+    private Solver createSolver(Backend backend, int partitions) {
+        switch (backend) {
+            case XPBD:
+
+                // Inner edges of the walls.
+                float edge = WALL_HEIGHT / 2;
+                return new XpbdSolver(edge, edge, width - edge, height - edge, GRAVITY);
+
+            case PARTITIONED:
+                return new PartitionedSolver(width, height, partitions);
+
+            default:
+                return new Box2DSolver(world);
+        }
+    }
+
+    /**
+     * @return soft body with a particle at a given position, null if there is none.
+     */
+    private SoftBody findBody(Vector2 particlePosition) {
+        for (int i = 0; i < bodies.size(); i++) {
+            SoftBody body = bodies.get(i);
+            for (int particle : body.getParticles()) {
+                if (solver.getPosition(particle, position).epsilonEquals(particlePosition, 0)) {
+                    return body;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sync frozen state of bodies with the solver and freeze bodies which have been resting
+     * for long enough.
+     *
+     * @param time simulated time since the last call.
+     */
+    private void updateFrozen(float time) {
+
+        // Solver thaws bodies which were hit during the step.
+        for (int i = 0; i < bodies.size(); i++) {
+            SoftBody body = bodies.get(i);
+            if (body.isFrozen() && !solver.isFrozen(body.getParticles()[0])) {
+                body.setFrozen(false);
+                restingTimes.set(i, 0);
+            }
+        }
+
+        restCheckTime += time;
+        if (restCheckTime < REST_CHECK_INTERVAL) {
+            return;
+        }
+
+        for (int i = 0; i < bodies.size(); i++) {
+            SoftBody body = bodies.get(i);
+            if (body.isFrozen()) {
+                continue;
+            }
+
+            if (solver.getMaxSpeed(body.getParticles()) > REST_SPEED) {
+                restingTimes.set(i, 0);
+                continue;
+            }
+
+            restingTimes.incr(i, restCheckTime);
+            if (restingTimes.get(i) >= FREEZE_DELAY && solver.freeze(body.getParticles())) {
+                body.setFrozen(true);
+            }
+        }
+        restCheckTime = 0;
+    }
+
+    /**
+     * @return box2d position iterations matching given velocity iterations, keeping the default ratio.
+     */
+    static int positionIterations(int velocityIterations) {
+        return Math.max(1, velocityIterations * POSITION_ITERATIONS / VELOCITY_ITERATIONS);
+    }
+
+    /**
+     * Create bounding for the level in a given world.
+     *
+     * @return ground body.
+     */
+    static Body createBounds(World world, float width, float height) {
+
+        // Left.
+        createWall(world, width, -width / 2, height / 2, true);
+
+        // Right.
+        createWall(world, width, width / 2, height / 2, true);
+
+        // Top.
+        createWall(world, width, 0, height, false);
+
+        // Bottom.
+        return createWall(world, width, 0, 0, false);
+    }
+
+    /**
+     * Create a static wall at a given coordinate.
+     */
+    private static Body createWall(World world, float width, float x, float y, boolean vertical) {
+        float hw = width / 2;
+        float hh = WALL_HEIGHT / 2;
+
+        BodyDef bodyDef = new BodyDef();
+        bodyDef.position.set(new Vector2(x + hw, y));
+        bodyDef.angle = vertical ? MathUtils.degRad * 90 : 0;
+
+        Body body = world.createBody(bodyDef);
+
+        PolygonShape box = new PolygonShape();
+        box.setAsBox(hw, hh);
+
+        body.createFixture(box, 0.0f);
+        box.dispose();
+
+        return body;
+    }
+}
@@ -0,0 +1,358 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.joints.MouseJoint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Saves and restores the full simulation state of a scene in a compact binary format, little
+ * endian:
+ * <pre>
+ * int   magic, int version, int body count
+ * per body:
+ *   byte  type, int texture, int tier, byte bracing, byte whether frozen
+ *   float radius                 (circle)
+ *   int   full width, full height (rectangle)
+ *   int   particle count
+ *   float x, y, velocity x, velocity y per particle
+ * byte  whether a body is dragged
+ *   float body x, body y, anchor x, anchor y, target x, target y
+ * </pre>
+ * Constraints are not stored, they follow from the body type, size, bracing and tier. Frozen
+ * bodies are frozen again once their particles are restored. Textures are stored as ids given by
+ * the caller. Mesh refinement is not stored, it is set by the batch drawing bodies on each draw.
+ */
+public final class SceneSnapshot {
+
+    public static final int VERSION = 3;
+
+    // "SBSN" read as a little endian int.
+    private static final int MAGIC = 0x4e534253;
+
+    private static final byte CIRCLE = 0;
+    private static final byte RECTANGLE = 1;
+
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    private static final int BODY_BYTES = 3 + 2 * Integer.BYTES;
+    private static final int PARTICLE_BYTES = 4 * Float.BYTES;
+    private static final int JOINT_BYTES = 1 + 6 * Float.BYTES;
+
+    private final Vector2 position = new Vector2();
+    private final Vector2 velocity = new Vector2();
+
+    // Reused between writes, grown as needed.
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+
+    /**
+     * Write the state of a scene to a given file, replacing it.
+     *
+     * @param textures gives an id for each body texture, passed back when restoring.
+     */
+    public void write(Scene scene, ToIntFunction<Texture> textures, Path path) throws IOException {
+        ByteBuffer buffer = write(scene, textures);
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Write the state of a scene to a buffer owned by this object.
+     *
+     * @param textures gives an id for each body texture, passed back when restoring.
+     * @return buffer ready to be read, valid until the next write.
+     */
+    public ByteBuffer write(Scene scene, ToIntFunction<Texture> textures) {
+        Solver solver = scene.getSolver();
+        List<SoftBody> bodies = scene.getBodies();
+
+        ensureCapacity(size(bodies));
+
+        buffer.clear();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(bodies.size());
+
+        for (int i = 0; i < bodies.size(); i++) {
+            SoftBody body = bodies.get(i);
+
+            if (body instanceof Circle) {
+                buffer.put(CIRCLE);
+                buffer.putInt(textures.applyAsInt(body.getTexture()));
+                buffer.putInt(body.getTier());
+                buffer.put((byte) body.getBracing().ordinal());
+                buffer.put((byte) (body.isFrozen() ? 1 : 0));
+                buffer.putFloat(((Circle) body).getRadius());
+            } else if (body instanceof Rectangle) {
+                buffer.put(RECTANGLE);
+                buffer.putInt(textures.applyAsInt(body.getTexture()));
+                buffer.putInt(body.getTier());
+                buffer.put((byte) body.getBracing().ordinal());
+                buffer.put((byte) (body.isFrozen() ? 1 : 0));
+                buffer.putInt(((Rectangle) body).getFullWidth());
+                buffer.putInt(((Rectangle) body).getFullHeight());
+            } else {
+                throw new IllegalArgumentException("Unsupported body type: " + body.getClass().getName());
+            }
+
+            int[] particles = body.getParticles();
+            buffer.putInt(particles.length);
+
+            for (int particle : particles) {
+                solver.getPosition(particle, position);
+                solver.getVelocity(particle, velocity);
+
+                buffer.putFloat(position.x);
+                buffer.putFloat(position.y);
+                buffer.putFloat(velocity.x);
+                buffer.putFloat(velocity.y);
+            }
+        }
+
+        MouseJoint joint = scene.getJoint();
+        if (joint == null) {
+            buffer.put((byte) 0);
+        } else {
+            Vector2 body = joint.getBodyB().getPosition();
+            Vector2 anchor = joint.getAnchorB();
+            Vector2 target = joint.getTarget();
+
+            buffer.put((byte) 1);
+            buffer.putFloat(body.x);
+            buffer.putFloat(body.y);
+            buffer.putFloat(anchor.x);
+            buffer.putFloat(anchor.y);
+            buffer.putFloat(target.x);
+            buffer.putFloat(target.y);
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Replace all bodies of a scene with the ones stored in a given file, the file is mapped
+     * instead of being read into memory.
+     *
+     * @param textures gives a texture for each id given when writing.
+     */
+    public static void read(Path path, Scene scene, IntFunction<Texture> textures) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), scene, textures);
+        }
+    }
+
+    /**
+     * Replace all bodies of a scene with the ones stored in a given buffer. The whole buffer is
+     * validated before the scene is {@link Scene#reset() reset}, so a malformed snapshot leaves
+     * the scene as it was. Objects obtained from the scene before must not be used after.
+     *
+     * @param textures gives a texture for each id given when writing.
+     */
+    public static void read(ByteBuffer buffer, Scene scene, IntFunction<Texture> textures) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a scene snapshot");
+        }
+
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported snapshot version: " + version);
+        }
+
+        int bodyCount = buffer.getInt();
+        if (bodyCount < 0) {
+            throw new IllegalArgumentException("Negative body count: " + bodyCount);
+        }
+
+        List<Record> records = new ArrayList<>();
+        for (int i = 0; i < bodyCount; i++) {
+            records.add(readRecord(buffer, textures, i));
+        }
+
+        require(buffer, 1, "joint");
+        boolean dragged = buffer.get() != 0;
+        if (dragged) {
+            require(buffer, JOINT_BYTES - 1, "joint");
+        }
+
+        scene.reset();
+        Solver solver = scene.getSolver();
+
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+
+            // Bodies are created near their stored position, so that box2d does not move
+            // their particles across the whole world when the stored positions are set.
+            int first = record.particles;
+            int last = first + (record.particleCount - 1) * PARTICLE_BYTES;
+
+            SoftBody body;
+            if (record.type == CIRCLE) {
+                body = new Circle(record.texture, solver, record.radius, record.bracing, record.tier,
+                        buffer.getFloat(last), buffer.getFloat(last + Float.BYTES));
+            } else {
+                body = new Rectangle(record.texture, solver, buffer.getFloat(first), buffer.getFloat(first + Float.BYTES),
+                        record.width, record.height, record.bracing, record.tier);
+            }
+
+            int[] particles = body.getParticles();
+            for (int j = 0; j < particles.length; j++) {
+                int offset = first + j * PARTICLE_BYTES;
+
+                solver.setPosition(particles[j], buffer.getFloat(offset), buffer.getFloat(offset + Float.BYTES));
+                solver.setVelocity(particles[j], buffer.getFloat(offset + 2 * Float.BYTES), buffer.getFloat(offset + 3 * Float.BYTES));
+            }
+
+            if (record.frozen && solver.freeze(particles)) {
+                body.setFrozen(true);
+            }
+
+            scene.add(body);
+        }
+
+        if (dragged) {
+            float bodyX = buffer.getFloat();
+            float bodyY = buffer.getFloat();
+            float anchorX = buffer.getFloat();
+            float anchorY = buffer.getFloat();
+
+            scene.grab(bodyX, bodyY, anchorX, anchorY);
+            scene.drag(buffer.getFloat(), buffer.getFloat());
+        }
+    }
+
+    /**
+     * Read and validate a stored body, skipping its particles.
+     *
+     * @param index index of the body, used in messages.
+     */
+    private static Record readRecord(ByteBuffer buffer, IntFunction<Texture> textures, int index) {
+        require(buffer, BODY_BYTES, "body " + index);
+
+        Record record = new Record();
+        record.type = buffer.get();
+        record.texture = textures.apply(buffer.getInt());
+        record.tier = buffer.getInt();
+        record.bracing = bracing(buffer.get());
+        record.frozen = buffer.get() != 0;
+
+        int tierCount;
+        if (record.type == CIRCLE) {
+            require(buffer, Float.BYTES, "body " + index);
+            record.radius = buffer.getFloat();
+
+            if (!(record.radius > 0)) {
+                throw new IllegalArgumentException("Invalid radius of body " + index + ": " + record.radius);
+            }
+            tierCount = Circle.countTiers(record.radius);
+        } else if (record.type == RECTANGLE) {
+            require(buffer, 2 * Integer.BYTES, "body " + index);
+            record.width = buffer.getInt();
+            record.height = buffer.getInt();
+
+            if (record.width < 1 || record.height < 1) {
+                throw new IllegalArgumentException("Invalid size of body " + index + ": " + record.width + "x" + record.height);
+            }
+            tierCount = Rectangle.countTiers(record.width, record.height);
+        } else {
+            throw new IllegalArgumentException("Unknown body type: " + record.type);
+        }
+
+        if (record.tier < 0 || record.tier >= tierCount) {
+            throw new IllegalArgumentException("Invalid tier of body " + index + ": " + record.tier);
+        }
+
+        SoftBodyTemplate template = record.type == CIRCLE
+                ? Circle.template(record.radius, record.bracing, record.tier)
+                : Rectangle.template(record.width, record.height, record.bracing, record.tier);
+
+        require(buffer, Integer.BYTES, "body " + index);
+        record.particleCount = buffer.getInt();
+        if (record.particleCount != template.getParticleCount()) {
+            throw new IllegalArgumentException("Particle count does not match body " + index);
+        }
+
+        require(buffer, (long) record.particleCount * PARTICLE_BYTES, "particles of body " + index);
+        record.particles = buffer.position();
+        buffer.position(record.particles + record.particleCount * PARTICLE_BYTES);
+        return record;
+    }
+
+    /**
+     * Verify that a buffer has at least a given number of bytes left.
+     */
+    private static void require(ByteBuffer buffer, long bytes, String what) {
+        if (buffer.remaining() < bytes) {
+            throw new IllegalArgumentException("Snapshot ends before " + what);
+        }
+    }
+
+    /**
+     * @return number of bytes needed to store given bodies.
+     */
+    private static int size(List<SoftBody> bodies) {
+        int size = HEADER_BYTES + JOINT_BYTES;
+
+        for (int i = 0; i < bodies.size(); i++) {
+            SoftBody body = bodies.get(i);
+
+            // Rectangles store two ints where circles store a float.
+            size += BODY_BYTES + (body instanceof Rectangle ? 2 * Integer.BYTES : Float.BYTES);
+            size += Integer.BYTES + body.getParticles().length * PARTICLE_BYTES;
+        }
+        return size;
+    }
+
+    private static Bracing bracing(byte ordinal) {
+        if (ordinal < 0 || ordinal >= Bracing.values().length) {
+            throw new IllegalArgumentException("Unknown bracing: " + ordinal);
+        }
+        return Bracing.values()[ordinal];
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(Math.max(size, buffer.capacity() * 2));
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Stored body, validated but not created yet.
+     */
+    private static final class Record {
+
+        byte type;
+        Texture texture;
+        int tier;
+        Bracing bracing;
+        boolean frozen;
+
+        float radius;
+        int width;
+        int height;
+
+        // Number of particles and offset of the first one in the buffer.
+        int particleCount;
+        int particles;
+    }
+}
@@ -0,0 +1,371 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.Vector2;
+
+import java.util.Arrays;
+
+/**
+ * Constraints acting on whole particle groups instead of particle pairs, shared by all solvers.
+ * Pressure keeps the area enclosed by a particle ring, shape matching pulls particles towards
+ * their rest layout moved and rotated to best fit their current positions, see:
+ * http://matthias-mueller-fischer.ch/publications/MeshlessDeformations_SIG05.pdf
+ * <p>
+ * Constraints are solved once per step against positions predicted by the solver and move each
+ * particle by a fraction of its error given by constraint stiffness, so stiffness is relative to
+ * the step rate. All particles are assumed to have the same mass. Constraints belong to single
+ * bodies, which are frozen and activated as a whole.
+ */
+final class ShapeConstraints {
+
+    /**
+     * Particles as seen by the constraints, implemented by solvers.
+     */
+    interface Particles extends ParticlePositions {
+
+        /**
+         * @return whether a particle is simulated, constraints of particles which are not
+         * simulated are skipped.
+         */
+        boolean isSimulated(int particle);
+
+        /**
+         * Move a particle by a given offset during the current step.
+         */
+        void correct(int particle, float dx, float dy);
+    }
+
+    private static final byte PRESSURE = 0;
+    private static final byte SHAPE = 1;
+
+    // Initial capacity of constraint arrays.
+    private static final int CAPACITY = 16;
+
+    private int count;
+    private byte[] kinds = new byte[CAPACITY];
+    private float[] stiffness = new float[CAPACITY];
+    private int[] starts = new int[CAPACITY];
+    private int[] lengths = new int[CAPACITY];
+    private boolean[] active = new boolean[CAPACITY];
+
+    // Rest area of pressure constraints.
+    private float[] restAreas = new float[CAPACITY];
+
+    // Particles of all constraints are stored in a shared array, along with rest offsets of
+    // shape matching particles from their rest centroid.
+    private int memberCount;
+    private int[] members = new int[CAPACITY * 8];
+    private float[] restX = new float[CAPACITY * 8];
+    private float[] restY = new float[CAPACITY * 8];
+
+    // Positions of the constraint being solved.
+    private float[] x = new float[CAPACITY];
+    private float[] y = new float[CAPACITY];
+
+    // Particles passed to the last call of setActive or remove, indexed by particle id.
+    private boolean[] marked = new boolean[CAPACITY];
+
+    private final Vector2 position = new Vector2();
+
+    /**
+     * Add a constraint preserving the current area of a closed particle ring.
+     *
+     * @param ring      particle ids in order around the ring.
+     * @param stiffness fraction of the area error corrected per step.
+     */
+    void addPressure(int[] ring, float stiffness, ParticlePositions positions) {
+        int c = add(PRESSURE, ring, stiffness, positions);
+        restAreas[c] = area(c);
+    }
+
+    /**
+     * Add a constraint keeping the current layout of given particles.
+     *
+     * @param stiffness fraction of the distance to the rest layout corrected per step.
+     */
+    void addShape(int[] particles, float stiffness, ParticlePositions positions) {
+        int c = add(SHAPE, particles, stiffness, positions);
+        int start = starts[c];
+        int length = lengths[c];
+
+        float centerX = centerX(length);
+        float centerY = centerY(length);
+
+        for (int i = 0; i < length; i++) {
+            restX[start + i] = x[i] - centerX;
+            restY[start + i] = y[i] - centerY;
+        }
+    }
+
+    /**
+     * Correct positions of all active constraints.
+     */
+    void solve(Particles particles) {
+        for (int c = 0; c < count; c++) {
+            if (!active[c] || !particles.isSimulated(members[starts[c]])) {
+                continue;
+            }
+
+            read(c, particles);
+
+            if (kinds[c] == PRESSURE) {
+                solvePressure(c, particles);
+            } else {
+                solveShape(c, particles);
+            }
+        }
+    }
+
+    /**
+     * Enable or disable constraints of given particles.
+     */
+    void setActive(int[] particles, boolean active) {
+        mark(particles);
+
+        for (int c = 0; c < count; c++) {
+            if (isMarked(members[starts[c]])) {
+                this.active[c] = active;
+            }
+        }
+        unmark(particles);
+    }
+
+    /**
+     * Remove constraints of given particles, keeping the order of the remaining ones.
+     */
+    void remove(int[] particles) {
+        mark(particles);
+
+        int constraints = 0;
+        int length = 0;
+        for (int c = 0; c < count; c++) {
+            if (hasMarked(c)) {
+                continue;
+            }
+
+            System.arraycopy(members, starts[c], members, length, lengths[c]);
+            System.arraycopy(restX, starts[c], restX, length, lengths[c]);
+            System.arraycopy(restY, starts[c], restY, length, lengths[c]);
+
+            kinds[constraints] = kinds[c];
+            stiffness[constraints] = stiffness[c];
+            starts[constraints] = length;
+            lengths[constraints] = lengths[c];
+            active[constraints] = active[c];
+            restAreas[constraints] = restAreas[c];
+
+            length += lengths[c];
+            constraints++;
+        }
+        count = constraints;
+        memberCount = length;
+
+        unmark(particles);
+    }
+
+    void clear() {
+        count = 0;
+        memberCount = 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Add a constraint and read current positions of its particles.
+     *
+     * @return constraint id.
+     */
+    private int add(byte kind, int[] particles, float stiffness, ParticlePositions positions) {
+        if (count == kinds.length) {
+            int capacity = count * 2;
+
+            kinds = Arrays.copyOf(kinds, capacity);
+            this.stiffness = Arrays.copyOf(this.stiffness, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            active = Arrays.copyOf(active, capacity);
+            restAreas = Arrays.copyOf(restAreas, capacity);
+        }
+
+        if (memberCount + particles.length > members.length) {
+            int capacity = Math.max(members.length * 2, memberCount + particles.length);
+
+            members = Arrays.copyOf(members, capacity);
+            restX = Arrays.copyOf(restX, capacity);
+            restY = Arrays.copyOf(restY, capacity);
+        }
+
+        int c = count++;
+        kinds[c] = kind;
+        this.stiffness[c] = stiffness;
+        starts[c] = memberCount;
+        lengths[c] = particles.length;
+        active[c] = true;
+
+        System.arraycopy(particles, 0, members, memberCount, particles.length);
+        memberCount += particles.length;
+
+        read(c, positions);
+        return c;
+    }
+
+    /**
+     * Move ring particles along the area gradient, which for each particle is half of the
+     * perpendicular vector between its neighbours.
+     */
+    private void solvePressure(int c, Particles particles) {
+        int start = starts[c];
+        int length = lengths[c];
+
+        float weight = 0;
+        for (int i = 0; i < length; i++) {
+            int prev = (i + length - 1) % length;
+            int next = (i + 1) % length;
+
+            float gx = 0.5f * (y[next] - y[prev]);
+            float gy = 0.5f * (x[prev] - x[next]);
+
+            weight += gx * gx + gy * gy;
+        }
+
+        if (weight == 0) {
+            return;
+        }
+
+        float delta = stiffness[c] * (restAreas[c] - area(c)) / weight;
+
+        for (int i = 0; i < length; i++) {
+            int prev = (i + length - 1) % length;
+            int next = (i + 1) % length;
+
+            float gx = 0.5f * (y[next] - y[prev]);
+            float gy = 0.5f * (x[prev] - x[next]);
+
+            particles.correct(members[start + i], delta * gx, delta * gy);
+        }
+    }
+
+    /**
+     * Move particles towards their rest offsets, rotated by the angle best matching their current
+     * offsets from the centroid. In 2D the rotation of the polar decomposition is found directly.
+     */
+    private void solveShape(int c, Particles particles) {
+        int start = starts[c];
+        int length = lengths[c];
+
+        float centerX = centerX(length);
+        float centerY = centerY(length);
+
+        // Sum of outer products of current and rest offsets, only the parts giving the angle.
+        float cos = 0;
+        float sin = 0;
+        for (int i = 0; i < length; i++) {
+            float px = x[i] - centerX;
+            float py = y[i] - centerY;
+            float qx = restX[start + i];
+            float qy = restY[start + i];
+
+            cos += px * qx + py * qy;
+            sin += py * qx - px * qy;
+        }
+
+        float len = (float) Math.sqrt(cos * cos + sin * sin);
+        if (len == 0) {
+            return;
+        }
+
+        cos /= len;
+        sin /= len;
+
+        for (int i = 0; i < length; i++) {
+            float qx = restX[start + i];
+            float qy = restY[start + i];
+
+            float goalX = centerX + cos * qx - sin * qy;
+            float goalY = centerY + sin * qx + cos * qy;
+
+            particles.correct(members[start + i], stiffness[c] * (goalX - x[i]), stiffness[c] * (goalY - y[i]));
+        }
+    }
+
+    /**
+     * Read positions of constraint particles.
+     */
+    private void read(int c, ParticlePositions positions) {
+        int start = starts[c];
+        int length = lengths[c];
+
+        if (length > x.length) {
+            x = new float[length];
+            y = new float[length];
+        }
+
+        for (int i = 0; i < length; i++) {
+            positions.getPosition(members[start + i], position);
+            x[i] = position.x;
+            y[i] = position.y;
+        }
+    }
+
+    /**
+     * @return signed area of the ring whose positions were read last.
+     */
+    private float area(int c) {
+        int length = lengths[c];
+
+        float area = 0;
+        for (int i = 0; i < length; i++) {
+            int next = (i + 1) % length;
+            area += x[i] * y[next] - x[next] * y[i];
+        }
+        return area / 2;
+    }
+
+    private float centerX(int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += x[i];
+        }
+        return sum / length;
+    }
+
+    private float centerY(int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += y[i];
+        }
+        return sum / length;
+    }
+
+    /**
+     * @return whether a constraint has marked particles.
+     */
+    private boolean hasMarked(int c) {
+        for (int i = starts[c]; i < starts[c] + lengths[c]; i++) {
+            if (isMarked(members[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isMarked(int particle) {
+        return particle < marked.length && marked[particle];
+    }
+
+    private void mark(int[] particles) {
+        for (int particle : particles) {
+            if (particle >= marked.length) {
+                marked = Arrays.copyOf(marked, Math.max(marked.length * 2, particle + 1));
+            }
+            marked[particle] = true;
+        }
+    }
+
+    private void unmark(int[] particles) {
+        for (int particle : particles) {
+            marked[particle] = false;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.edd.softbody;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Runs many independent scenes without rendering, such as server side sandboxes, on a bounded
+ * pool of worker threads. The host is advanced in ticks of fixed simulated time, each tick is
+ * owed to every scene and worked off by the workers:
+ * <ul>
+ * <li>a scene is updated by one worker at a time, so scenes need no locking, and within the
+ * budget of its step controller, see {@link StepController#setBudget(float)}</li>
+ * <li>a scene is updated once per task, working off all ticks it owes at once, and queued behind
+ * all other scenes if it owes more by then, so that slow scenes can not starve others</li>
+ * <li>at most {@link Scene#MAX_FRAME_TIME} is simulated per update, further owed ticks are
+ * dropped and counted, see {@link #getDroppedTicks()}</li>
+ * <li>at most a given number of ticks may be owed across all scenes, advancing blocks once the
+ * host is that far behind, so that the caller slows down instead of work piling up</li>
+ * </ul>
+ * Workers steal queued scenes from each other, as scenes vary a lot in cost. Scenes are changed
+ * through commands, which run on the worker updating the scene, before its next update.
+ */
+public final class SimulationHost {
+
+    private final ForkJoinPool workers;
+    private final float tickTime;
+    private final int maxBacklog;
+
+    // Most ticks simulated per update, the step controller drops time beyond a frame.
+    private final int maxTicks;
+
+    // A permit for each tick which may still be owed, taken when owing and released when worked off.
+    private final Semaphore backlog;
+
+    // Scenes are added and removed while advancing.
+    private final List<HostedScene> scenes = new CopyOnWriteArrayList<>();
+
+    private final LongAdder ticks = new LongAdder();
+    private final LongAdder steps = new LongAdder();
+    private final LongAdder droppedTicks = new LongAdder();
+
+    /**
+     * @param threads    number of worker threads.
+     * @param tickTime   simulated time per tick, in seconds, at most {@link Scene#MAX_FRAME_TIME}.
+     * @param maxBacklog most ticks owed across all scenes before advancing blocks.
+     */
+    public SimulationHost(int threads, float tickTime, int maxBacklog) {
+        if (threads < 1 || tickTime <= 0 || maxBacklog < 1) {
+            throw new IllegalArgumentException("Threads, tick time and backlog must be positive");
+        }
+        if (tickTime > Scene.MAX_FRAME_TIME) {
+            throw new IllegalArgumentException("Tick time must be at most " + Scene.MAX_FRAME_TIME + ": " + tickTime);
+        }
+        this.tickTime = tickTime;
+        this.maxBacklog = maxBacklog;
+        this.maxTicks = (int) (Scene.MAX_FRAME_TIME / tickTime);
+        this.backlog = new Semaphore(maxBacklog);
+
+        // Queued scenes are taken in order, so that each gets its turn.
+        this.workers = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * Host a scene, it must not be touched other than through commands afterwards.
+     *
+     * @return handle of the hosted scene.
+     */
+    public HostedScene add(Scene scene) {
+        HostedScene hosted = new HostedScene(scene);
+        scenes.add(hosted);
+        return hosted;
+    }
+
+    /**
+     * Host a scene, updating it within a given time budget.
+     *
+     * @param budget time each update may take, in millis.
+     * @return handle of the hosted scene.
+     */
+    public HostedScene add(Scene scene, float budget) {
+        scene.getController().setBudget(budget);
+        return add(scene);
+    }
+
+    /**
+     * Stop hosting a scene and dispose of it once its current update is done. Blocks while the
+     * host is behind, like {@link #advance()}.
+     */
+    public void remove(HostedScene hosted) {
+        if (scenes.remove(hosted)) {
+            hosted.removed = true;
+            backlog.acquireUninterruptibly();
+            hosted.owe();
+        }
+    }
+
+    /**
+     * Owe a tick to every scene, blocking while the host is too far behind to owe more.
+     *
+     * @throws InterruptedException if interrupted while waiting for workers to catch up.
+     */
+    public void advance() throws InterruptedException {
+        for (HostedScene hosted : scenes) {
+            backlog.acquire();
+            hosted.owe();
+        }
+    }
+
+    /**
+     * Wait until all owed ticks are worked off. Only waits, unlike waiting for the pool to be
+     * quiescent, which runs queued scenes on the waiting thread.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void awaitIdle() throws InterruptedException {
+        backlog.acquire(maxBacklog);
+        backlog.release(maxBacklog);
+    }
+
+    /**
+     * Remove all scenes, wait until they are disposed of and stop the workers. The host must not
+     * be advanced meanwhile.
+     */
+    public void dispose() {
+        for (HostedScene hosted : scenes) {
+            remove(hosted);
+        }
+
+        // Scenes queue themselves again while owed ticks, so the workers are stopped once idle.
+        try {
+            awaitIdle();
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getSceneCount() {
+        return scenes.size();
+    }
+
+    public int getThreads() {
+        return workers.getParallelism();
+    }
+
+    /**
+     * @return number of ticks owed across all scenes which are not worked off yet.
+     */
+    public int getBacklog() {
+        return maxBacklog - backlog.availablePermits();
+    }
+
+    /**
+     * @return number of ticks worked off across all scenes, including dropped ones.
+     */
+    public long getTicks() {
+        return ticks.sum();
+    }
+
+    /**
+     * @return number of physics steps taken across all scenes.
+     */
+    public long getSteps() {
+        return steps.sum();
+    }
+
+    /**
+     * @return number of ticks worked off across all scenes without being simulated, as scenes
+     * owed more than {@link Scene#MAX_FRAME_TIME} at once.
+     */
+    public long getDroppedTicks() {
+        return droppedTicks.sum();
+    }
+
+    /**
+     * A scene run by the host, along with ticks it owes and commands waiting for it.
+     */
+    public final class HostedScene {
+
+        private final Scene scene;
+        private final Queue<Consumer<Scene>> commands = new ConcurrentLinkedQueue<>();
+
+        // Ticks owed, the scene is queued for a worker while positive.
+        private final AtomicInteger owed = new AtomicInteger();
+        private final Runnable task = this::update;
+
+        private volatile boolean removed;
+        private volatile long ticks;
+        private volatile long droppedTicks;
+        private volatile RuntimeException failure;
+
+        // Worker state, published to the next worker by updates of owed ticks.
+        private boolean disposed;
+
+        private HostedScene(Scene scene) {
+            this.scene = scene;
+        }
+
+        /**
+         * Run a command on the worker updating the scene, before its next update and in order of
+         * submission.
+         */
+        public void execute(Consumer<Scene> command) {
+            commands.add(command);
+        }
+
+        /**
+         * @return number of ticks the scene has worked off.
+         */
+        public long getTicks() {
+            return ticks;
+        }
+
+        /**
+         * @return number of ticks the scene has worked off without simulating them.
+         */
+        public long getDroppedTicks() {
+            return droppedTicks;
+        }
+
+        /**
+         * @return exception thrown while updating the scene, which is then removed, null if none.
+         */
+        public RuntimeException getFailure() {
+            return failure;
+        }
+
+        private void owe() {
+            if (owed.getAndIncrement() == 0) {
+                workers.execute(task);
+            }
+        }
+
+        /**
+         * Work off all ticks owed so far, on a worker. Permits of owed ticks are released even if
+         * the update throws an error, so that the host does not stall.
+         */
+        private void update() {
+            int owed = this.owed.get();
+
+            try {
+                if (!disposed) {
+                    if (!removed) {
+                        try {
+                            Consumer<Scene> command;
+                            while ((command = commands.poll()) != null) {
+                                command.accept(scene);
+                            }
+
+                            // Ticks beyond the step controller's budget are dropped by it, ones
+                            // beyond a frame are dropped here, as the controller would lose them.
+                            int simulated = Math.min(owed, maxTicks);
+                            steps.add(scene.update(simulated * tickTime));
+
+                            ticks += owed;
+                            droppedTicks += owed - simulated;
+                            SimulationHost.this.ticks.add(owed);
+                            SimulationHost.this.droppedTicks.add(owed - simulated);
+                        } catch (RuntimeException e) {
+                            failure = e;
+                            scenes.remove(this);
+                            removed = true;
+                        }
+                    }
+                    if (removed) {
+                        commands.clear();
+                        scene.dispose();
+                        disposed = true;
+                    }
+                }
+            } finally {
+                backlog.release(owed);
+
+                // Removed scenes may still be owed ticks by advances which started before, they are
+                // worked off without updating.
+                if (this.owed.addAndGet(-owed) > 0) {
+                    workers.execute(task);
+                }
+            }
+        }
+    }
+}
@@ -1,23 +1,23 @@
 package com.edd.softbody;
 
-import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.graphics.*;
-import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.math.Vector2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class SoftBody {
 
     /**
-     * Component count of the vertex array.
+     * Component count of the vertex array, texture coordinates are kept apart as they never change.
      * <pre>
      * 0 - x
      * 1 - y
-     * 2 - z
-     * 3 - u
-     * 4 - v
      * ...
      * </pre>
      */
-    protected static final int COMPONENT_COUNT = 4;
+    protected static final int COMPONENT_COUNT = 2;
 
     // Joined body constants.
     protected static final float RESTITUTION = 0.05f;
@@ -29,80 +29,454 @@ public abstract class SoftBody {
     protected static final float FREQUENCY = 15f;
     protected static final float DAMPING = 0.5f;
 
-    private final Texture texture;
+    // Pressure and shape matching constants, fraction of the error corrected per step.
+    protected static final float PRESSURE_STIFFNESS = 0.2f;
+    protected static final float SHAPE_STIFFNESS = 0.03f;
+
+    // Stability bounds, a particle at 15 m/s travels about its radius per step.
+    protected static final int MIN_ITERATIONS = 2;
+    protected static final float MAX_TIME_STEP = 1f / 100f;
+
+    // Index patterns and texture coordinates shared by all bodies of the same topology and
+    // refinement, bodies may be created and refined on any thread.
+    private static final Map<String, int[]> SHARED_INDICES = new ConcurrentHashMap<>();
+    private static final Map<String, float[]> SHARED_TEXTURE_COORDINATES = new ConcurrentHashMap<>();
+
+    private Texture texture;
     private float[] vertices;
+    private int[] indices;
+    private float[] textureCoordinates;
+
+    // Mesh segments per particle spacing.
+    private int refinement = 1;
+
+    // Where particle positions are read from, usually the solver simulating this body.
+    private ParticlePositions positions;
+
+    // Set by the scene, which may step on another thread than the one updating vertices.
+    private volatile boolean frozen;
+
+    // Whether vertices have been updated since the body was frozen.
+    private boolean cached;
+
+    // Number of times vertices were updated, lets unchanged vertices be skipped when uploading.
+    private int version;
+
+    // Bounds of the mesh as of the last bounds update, and whether they were updated since the
+    // body was frozen. Unbounded until the first update.
+    private float minX = Float.NEGATIVE_INFINITY;
+    private float minY = Float.NEGATIVE_INFINITY;
+    private float maxX = Float.POSITIVE_INFINITY;
+    private float maxY = Float.POSITIVE_INFINITY;
+    private boolean boundsCached;
+    private final Vector2 boundsPosition = new Vector2();
+
+    // Constraints created for this body.
+    private int constraintCount;
 
-    private Mesh mesh;
+    // Particles and constraints fewer than at the tier the body was created with.
+    private int savedParticles;
+    private int savedConstraints;
 
-    public SoftBody(Texture texture, int verticesCount) {
+    public SoftBody(Texture texture, ParticlePositions positions, int verticesCount) {
         this.texture = texture;
+        this.positions = positions;
         this.vertices = new float[verticesCount];
     }
 
     /**
-     * Update mesh and draw the body.
-     *
-     * @param program shader program using for rendering.
+     * Update vertex array from current body positions. Must always be called before drawing,
+     * or else the body will be static.
      */
-    public void act(ShaderProgram program) {
+    public void update() {
 
-        // Must always update vertex array before drawing the mesh,
-        // or else the body will be static.
+        // Frozen bodies do not move, vertices of the first update after freezing stay valid.
+        if (frozen) {
+            if (cached) {
+                return;
+            }
+            cached = true;
+        } else {
+            cached = false;
+        }
         vertices = updateVertices(vertices);
+        version++;
+    }
+
+    /**
+     * @return number of times vertices changed, vertices of frozen bodies change once after
+     * freezing.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Update axis aligned bounds of this body from current positions of its outline particles,
+     * which is much cheaper than updating vertices. Lets bodies out of view be skipped before
+     * their vertices are updated.
+     */
+    public void updateBounds() {
+        if (frozen) {
+            if (boundsCached) {
+                return;
+            }
+            boundsCached = true;
+        } else {
+            boundsCached = false;
+        }
 
-        if (mesh == null) {
-            mesh = createMesh();
+        minX = minY = Float.POSITIVE_INFINITY;
+        maxX = maxY = Float.NEGATIVE_INFINITY;
+
+        for (int particle : getOutline()) {
+            getPosition(particle, boundsPosition);
+
+            minX = Math.min(minX, boundsPosition.x);
+            minY = Math.min(minY, boundsPosition.y);
+            maxX = Math.max(maxX, boundsPosition.x);
+            maxY = Math.max(maxY, boundsPosition.y);
         }
-        mesh.setVertices(vertices);
 
-        // Rendering.
-        Gdx.gl20.glEnable(GL20.GL_BLEND);
-        Gdx.gl20.glEnable(GL20.GL_TEXTURE_2D);
+        // Meshes may extend up to a particle radius past particle centers.
+        minX -= RADIUS;
+        minY -= RADIUS;
+        maxX += RADIUS;
+        maxY += RADIUS;
+    }
+
+    /**
+     * Forget bounds until the next {@link #updateBounds()}, used when bodies are recycled elsewhere.
+     */
+    void clearBounds() {
+        minX = minY = Float.NEGATIVE_INFINITY;
+        maxX = maxY = Float.POSITIVE_INFINITY;
+        boundsCached = false;
+    }
+
+    /**
+     * @return left edge as of the last {@link #updateBounds()}.
+     */
+    public float getMinX() {
+        return minX;
+    }
+
+    /**
+     * @return bottom edge as of the last {@link #updateBounds()}.
+     */
+    public float getMinY() {
+        return minY;
+    }
+
+    /**
+     * @return right edge as of the last {@link #updateBounds()}.
+     */
+    public float getMaxX() {
+        return maxX;
+    }
+
+    /**
+     * @return top edge as of the last {@link #updateBounds()}.
+     */
+    public float getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * @return vertex array as of the last {@link #update()}.
+     */
+    public float[] getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return number of vertices in the vertex array.
+     */
+    public int getVertexCount() {
+        return vertices.length / COMPONENT_COUNT;
+    }
+
+    /**
+     * @return triangle indices, created once per topology and shared between bodies, so they
+     * must not be modified.
+     */
+    public int[] getIndices() {
+        if (indices == null) {
+            String mesh = getMesh();
+            indices = mesh == null ? createIndices() : SHARED_INDICES.computeIfAbsent(mesh, key -> createIndices());
+        }
+        return indices;
+    }
 
-        Gdx.gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+    /**
+     * @return texture coordinates, u and v for each vertex in the same order as vertices. Created
+     * once per topology and refinement and shared between bodies, so they must not be modified.
+     */
+    public float[] getTextureCoordinates() {
+        if (textureCoordinates == null) {
+            String mesh = getMesh();
+            textureCoordinates = mesh == null
+                    ? createTextureCoordinates()
+                    : SHARED_TEXTURE_COORDINATES.computeIfAbsent(mesh, key -> createTextureCoordinates());
+        }
+        return textureCoordinates;
+    }
 
-        texture.bind();
-        render(mesh, program);
+    /**
+     * @return mesh segments drawn per particle spacing, see {@link #setRefinement(int)}.
+     */
+    public int getRefinement() {
+        return refinement;
     }
 
     /**
-     * Hook method called when rendering a mesh.
+     * @return most mesh segments this body can be drawn with per particle spacing.
      */
-    protected void render(Mesh mesh, ShaderProgram program) {
-        mesh.render(program, GL20.GL_TRIANGLE_STRIP);
+    public int getMaxRefinement() {
+        return 1;
     }
 
     /**
-     * Update mesh vertex array. Called each time before rendering.
+     * Draw the mesh with more vertices than there are particles, so that bodies simulated with
+     * few particles still look smooth. Vertices in between particles are interpolated from
+     * particle positions, simulation is not affected. Vertices are updated from scratch on the
+     * next update.
      *
-     * @param vertices current array of vertices.
+     * @param refinement mesh segments per particle spacing, 1 draws a vertex per particle.
+     *                   Clamped to {@link #getMaxRefinement()}.
      */
-    protected abstract float[] updateVertices(float[] vertices);
+    void setRefinement(int refinement) {
+        if (refinement < 1) {
+            throw new IllegalArgumentException("Refinement must be positive: " + refinement);
+        }
+
+        refinement = Math.min(refinement, getMaxRefinement());
+        if (refinement == this.refinement) {
+            return;
+        }
+
+        this.refinement = refinement;
+        vertices = new float[0];
+        indices = null;
+        textureCoordinates = null;
+        cached = false;
+    }
+
+    /**
+     * @return whether the body is frozen into a single rigid body, see {@link Solver#freeze(int[])}.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Vertices and bounds cached while frozen are forgotten whenever the body freezes or thaws,
+     * as it may have moved in between, even while it was out of view and not updated.
+     */
+    void setFrozen(boolean frozen) {
+        if (frozen != this.frozen) {
+            cached = false;
+            boundsCached = false;
+        }
+        this.frozen = frozen;
+    }
+
+    /**
+     * @return level of detail, 0 is the detail the body was created with and each next tier
+     * has about half as many particles along each edge.
+     */
+    public int getTier() {
+        return 0;
+    }
 
     /**
-     * Create a buffer of triangle indices. Called only once during mesh creation.
+     * @return number of tiers this body can be created at.
+     */
+    public int getTierCount() {
+        return 1;
+    }
+
+    /**
+     * Create this body at another tier, keeping its current shape and velocity. Particles of this
+     * body are left untouched, they should be removed once the created body replaces this one.
      *
-     * @return created array of indices.
+     * @param solver solver this body was created with.
+     * @return created body.
      */
-    protected abstract short[] createIndices();
+    public SoftBody createTier(Solver solver, int tier) {
+        throw new UnsupportedOperationException("Body has a single tier");
+    }
+
+    /**
+     * Move particles of this body into the current shape of the same body at another tier,
+     * keeping its velocity, so that this body can replace it the same way one created by
+     * {@link #createTier(Solver, int)} would. Used when recycling bodies. Particles must be active.
+     *
+     * @param solver solver both bodies were created with.
+     * @param source body this body replaces.
+     */
+    public void copyTier(Solver solver, SoftBody source) {
+        throw new UnsupportedOperationException("Body has a single tier");
+    }
+
+    public int getConstraintCount() {
+        return constraintCount;
+    }
+
+    /**
+     * @return particles fewer than at the tier this body was created with.
+     */
+    public int getSavedParticles() {
+        return savedParticles;
+    }
+
+    /**
+     * @return constraints fewer than at the tier this body was created with.
+     */
+    public int getSavedConstraints() {
+        return savedConstraints;
+    }
+
+    /**
+     * @return key shared by bodies with the same particles and constraints, such bodies can be
+     * recycled into one another. Null if this body can not be recycled.
+     */
+    public String getTopology() {
+        return null;
+    }
+
+    /**
+     * @return key shared by bodies with the same particles and constraints as this body would
+     * have at a given tier, null if this body can not be recycled.
+     */
+    public String getTopology(int tier) {
+        return tier == getTier() ? getTopology() : null;
+    }
+
+    /**
+     * @return how particles of this body are held together.
+     */
+    public Bracing getBracing() {
+        return Bracing.FULL;
+    }
+
+    /**
+     * @return template this body was created from, null if it was not created from one.
+     */
+    public SoftBodyTemplate getTemplate() {
+        return null;
+    }
+
+    /**
+     * Move particles into the rest layout of this body at a given position and stop them, used
+     * when recycling bodies. Particles must not be frozen.
+     *
+     * @param solver solver this body was created with.
+     */
+    public void reset(Solver solver, float x, float y) {
+        throw new UnsupportedOperationException("Body can not be recycled");
+    }
 
     /**
-     * @return mesh based on created indices and vertex buffers.
+     * Change where particle positions are read from when updating vertices.
      */
-    private Mesh createMesh() {
-        short[] indices = createIndices();
+    public void setPositions(ParticlePositions positions) {
+        this.positions = positions;
+    }
 
-        Mesh mesh = new Mesh(
-                false,
-                vertices.length,
-                indices.length,
-                new VertexAttribute(VertexAttributes.Usage.Position, 2, ShaderProgram.POSITION_ATTRIBUTE),
-                new VertexAttribute(VertexAttributes.Usage.TextureCoordinates, 2, ShaderProgram.TEXCOORD_ATTRIBUTE)
-        );
+    /**
+     * @return fewest solver iterations this body stays stable with.
+     */
+    public int getMinIterations() {
+        return MIN_ITERATIONS;
+    }
 
-        // Indices will stay the same all the time, while vertex array will update,
-        // so not setting the vertex array here.
-        mesh.setIndices(indices);
-        return mesh;
+    /**
+     * @return longest time step this body stays stable with, in seconds.
+     */
+    public float getMaxTimeStep() {
+        return MAX_TIME_STEP;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return texture of this body, can be null for bodies that are never drawn.
+     */
+    public Texture getTexture() {
+        return texture;
+    }
+
+    void setTexture(Texture texture) {
+        this.texture = texture;
+    }
+
+    /**
+     * Read particle position, should be used instead of reading the solver directly.
+     *
+     * @param out vector to write the position to.
+     * @return the given vector.
+     */
+    protected Vector2 getPosition(int particle, Vector2 out) {
+        return positions.getPosition(particle, out);
+    }
+
+    /**
+     * Record number of constraints created for this body, must be called once particles are created.
+     *
+     * @param source body at another tier this body replaces, null if there is none.
+     */
+    protected void setConstraintCount(int constraintCount, SoftBody source) {
+        this.constraintCount = constraintCount;
+
+        if (source != null) {
+            savedParticles = source.savedParticles + source.getParticles().length - getParticles().length;
+            savedConstraints = source.savedConstraints + source.constraintCount - constraintCount;
+        }
+    }
+
+    /**
+     * @return ids of all particles of this body.
+     */
+    public abstract int[] getParticles();
+
+    /**
+     * @return particles bounding all others under normal deformation, used to update bounds.
+     * All particles by default, must not be modified.
+     */
+    protected int[] getOutline() {
+        return getParticles();
+    }
+
+    /**
+     * @return key of the mesh shared by bodies of the same topology and refinement, null if this
+     * body does not share its mesh.
+     */
+    private String getMesh() {
+        String topology = getTopology();
+        return topology == null || refinement == 1 ? topology : topology + " x" + refinement;
+    }
+
+    /**
+     * Create texture coordinates at the current refinement, u and v for each vertex in the same
+     * order as vertices. Called once per topology and refinement.
+     *
+     * @return created array of texture coordinates.
+     */
+    protected abstract float[] createTextureCoordinates();
+
+    /**
+     * Update mesh vertex array at the current refinement. Called each time before rendering.
+     *
+     * @param vertices current array of vertices, empty when the refinement changed.
+     */
+    protected abstract float[] updateVertices(float[] vertices);
+
+    /**
+     * Create a buffer of triangle indices at the current refinement, three per triangle
+     * ({@link GL20#GL_TRIANGLES}), so that all bodies can be drawn in a single batch. Ints are
+     * used so that large bodies are not limited to short indices. Called once per topology and
+     * refinement.
+     *
+     * @return created array of indices.
+     */
+    protected abstract int[] createIndices();
+}
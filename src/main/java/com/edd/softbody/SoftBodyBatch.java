@@ -0,0 +1,515 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.*;
+import com.badlogic.gdx.graphics.glutils.IndexBufferObject;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.graphics.glutils.VertexBufferObject;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Draws many soft bodies using shared buffers. Bodies are grouped by texture, all groups are
+ * packed into one set of buffers, uploaded once and drawn with one draw call per texture. GL
+ * state is set only once per batch. Bodies with more vertices than short indices can address
+ * are drawn on their own, without indices.
+ * <p>
+ * Positions are copied from bodies straight into a direct buffer, see {@link PositionBuffer}, and
+ * only ranges which changed are uploaded. Positions of bodies which did not change since they
+ * were uploaded at the same offset, such as frozen bodies, are neither copied nor uploaded.
+ * Texture coordinates and indices live in their own buffers, which are uploaded only when the
+ * packed bodies change.
+ * <p>
+ * Offsets are only compared with the last flush, so skipping assumes that each frame flushes
+ * once and packs the same visible bodies in the same order as the frame before. A body entering
+ * or leaving the view moves the bodies packed after it, whose positions are then copied again
+ * for one frame, skipping resumes once the visible bodies stay the same. Frames which fill the
+ * buffers flush more than once and copy all positions.
+ * <p>
+ * Bodies out of the view set by {@link #setView(float, float, float, float)} are culled by their
+ * bounds, before their vertices are updated.
+ * <p>
+ * Meshes can be drawn finer than bodies are simulated, see {@link #setRefinement(int)}, so that
+ * bodies made of few particles still look smooth.
+ * <p>
+ * Bodies are only queued when drawn. Once the batch ends, vertices of all queued bodies are
+ * prepared first, in parallel when a pool is given, and GL calls are issued after on the calling
+ * thread. Bodies prepared in parallel must read positions from a snapshot such as
+ * {@link PositionReadback}, never from a solver.
+ */
+public final class SoftBodyBatch implements Disposable {
+
+    // Max number of vertices that can be addressed by short indices.
+    private static final int MAX_VERTICES = Short.MAX_VALUE;
+    private static final int MAX_INDICES = MAX_VERTICES * 3;
+
+    // Fewest bodies worth preparing in parallel and most bodies prepared by a single task.
+    private static final int PARALLEL_BODIES = 64;
+    private static final int TASK_BODIES = 32;
+
+    private final ShaderProgram program;
+
+    // Prepares bodies in parallel, null to prepare them on the calling thread.
+    private final ForkJoinPool pool;
+
+    private final PositionBuffer positionBuffer;
+    private final VertexBufferObject textureBuffer;
+    private final IndexBufferObject indexBuffer;
+
+    private final float[] textureCoordinates = new float[MAX_VERTICES * 2];
+    private final short[] indices = new short[MAX_INDICES];
+
+    // Bodies queued since the batch began and whether each of them is in view once prepared.
+    private final List<SoftBody> queued = new ArrayList<>();
+    private boolean[] visible = new boolean[0];
+
+    // Visible bodies grouped by texture, groups are kept between frames to avoid garbage.
+    private final List<Texture> textures = new ArrayList<>();
+    private final List<List<SoftBody>> groups = new ArrayList<>();
+
+    // Draw calls pending the next flush: texture, index offset and index count.
+    private final Array<Texture> drawTextures = new Array<>();
+    private final IntArray drawOffsets = new IntArray();
+    private final IntArray drawCounts = new IntArray();
+
+    // Bodies packed since the last flush and bodies whose texture coordinates and indices are
+    // in the buffers, in packing order.
+    private List<SoftBody> packed = new ArrayList<>();
+    private List<SoftBody> uploaded = new ArrayList<>();
+
+    // Vertex versions of packed and uploaded bodies, see SoftBody#getVersion().
+    private IntArray packedVersions = new IntArray();
+    private IntArray uploadedVersions = new IntArray();
+
+    // Whether packed bodies differ from the uploaded ones so far.
+    private boolean changed;
+
+    private int vertexCount;
+    private int indexCount;
+
+    // Mesh segments drawn per particle spacing, applied to bodies as they are prepared.
+    private int refinement = 1;
+
+    // Bodies outside of these edges are culled, nothing is culled by default.
+    private float viewMinX = Float.NEGATIVE_INFINITY;
+    private float viewMinY = Float.NEGATIVE_INFINITY;
+    private float viewMaxX = Float.POSITIVE_INFINITY;
+    private float viewMaxY = Float.POSITIVE_INFINITY;
+
+    private int renderCalls;
+    private long uploadedBytes;
+    private long updateTime;
+    private int drawnBodies;
+    private int culledBodies;
+    private boolean drawing;
+
+    public SoftBodyBatch(ShaderProgram program) {
+        this(program, null);
+    }
+
+    /**
+     * @param pool prepares vertices of queued bodies in parallel, null to prepare them on the
+     *             calling thread.
+     */
+    public SoftBodyBatch(ShaderProgram program, ForkJoinPool pool) {
+        this.program = program;
+        this.pool = pool;
+
+        this.positionBuffer = new PositionBuffer(MAX_VERTICES);
+
+        this.textureBuffer = new VertexBufferObject(true, MAX_VERTICES,
+                new VertexAttribute(VertexAttributes.Usage.TextureCoordinates, 2, ShaderProgram.TEXCOORD_ATTRIBUTE));
+
+        this.indexBuffer = new IndexBufferObject(true, MAX_INDICES);
+    }
+
+    /**
+     * Set the visible area, bodies entirely outside of it are not updated nor drawn.
+     *
+     * @param minX left edge of the view, in meters.
+     * @param minY bottom edge of the view, in meters.
+     * @param maxX right edge of the view, in meters.
+     * @param maxY top edge of the view, in meters.
+     */
+    public void setView(float minX, float minY, float maxX, float maxY) {
+        viewMinX = minX;
+        viewMinY = minY;
+        viewMaxX = maxX;
+        viewMaxY = maxY;
+    }
+
+    /**
+     * Set how many mesh segments bodies are drawn with per particle spacing, vertices in between
+     * particles are interpolated. Bodies which can not be refined are drawn as they are.
+     *
+     * @param refinement segments per particle spacing, 1 draws a vertex per particle.
+     */
+    public void setRefinement(int refinement) {
+        if (refinement < 1) {
+            throw new IllegalArgumentException("Refinement must be positive: " + refinement);
+        }
+
+        // Texture coordinates and indices of the uploaded bodies change along.
+        if (refinement != this.refinement) {
+            this.refinement = refinement;
+            uploaded.clear();
+        }
+    }
+
+    public int getRefinement() {
+        return refinement;
+    }
+
+    /**
+     * Start queuing bodies.
+     *
+     * @param projection projection matrix used for rendering.
+     */
+    public void begin(Matrix4 projection) {
+        if (drawing) {
+            throw new IllegalStateException("SoftBodyBatch.end must be called before begin");
+        }
+        drawing = true;
+        renderCalls = 0;
+        uploadedBytes = 0;
+        updateTime = 0;
+        drawnBodies = 0;
+        culledBodies = 0;
+
+        program.begin();
+        program.setUniformMatrix("u_projTrans", projection);
+        program.setUniformi("u_texture", 0);
+    }
+
+    /**
+     * Queue a body for drawing, its vertices are updated once the batch ends, unless it is out
+     * of view. Each body may be queued once per batch.
+     */
+    public void draw(SoftBody body) {
+        if (!drawing) {
+            throw new IllegalStateException("SoftBodyBatch.begin must be called before draw");
+        }
+        queued.add(body);
+    }
+
+    /**
+     * Prepare all queued bodies, pack the visible ones and draw them.
+     */
+    public void end() {
+        if (!drawing) {
+            throw new IllegalStateException("SoftBodyBatch.begin must be called before end");
+        }
+
+        prepare();
+
+        for (int i = 0; i < queued.size(); i++) {
+            SoftBody body = queued.get(i);
+            if (!visible[i]) {
+                culledBodies++;
+                continue;
+            }
+            drawnBodies++;
+
+            int group = textures.indexOf(body.getTexture());
+            if (group < 0) {
+                group = textures.size();
+                textures.add(body.getTexture());
+                groups.add(new ArrayList<>());
+            }
+            groups.get(group).add(body);
+        }
+        queued.clear();
+
+        // Rendering state is the same for all bodies.
+        Gdx.gl.glEnable(GL20.GL_BLEND);
+        Gdx.gl.glBlendFunc(GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+
+        for (int i = 0; i < groups.size(); i++) {
+            List<SoftBody> group = groups.get(i);
+            if (group.isEmpty()) {
+                continue;
+            }
+
+            Texture texture = textures.get(i);
+            int offset = indexCount;
+
+            for (int j = 0; j < group.size(); j++) {
+                SoftBody body = group.get(j);
+
+                if (body.getVertexCount() > MAX_VERTICES) {
+                    queueDraw(texture, offset);
+                    flush();
+                    drawUnindexed(texture, body);
+                    offset = 0;
+                    continue;
+                }
+
+                // Buffers are full, draw what is packed so far and continue from the start.
+                if (vertexCount + body.getVertexCount() > MAX_VERTICES
+                        || indexCount + body.getIndices().length > MAX_INDICES) {
+
+                    queueDraw(texture, offset);
+                    flush();
+                    offset = 0;
+                }
+                pack(body);
+            }
+            queueDraw(texture, offset);
+            group.clear();
+        }
+        flush();
+
+        program.end();
+        drawing = false;
+    }
+
+    /**
+     * @return number of draw calls issued during the last batch.
+     */
+    public int getRenderCalls() {
+        return renderCalls;
+    }
+
+    /**
+     * @return number of bodies drawn during the last batch.
+     */
+    public int getDrawnBodies() {
+        return drawnBodies;
+    }
+
+    /**
+     * @return number of bodies skipped during the last batch as they were out of view.
+     */
+    public int getCulledBodies() {
+        return culledBodies;
+    }
+
+    /**
+     * @return number of bytes uploaded to buffers during the last batch.
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return time spent updating body bounds and vertices during the last batch, in nanos. Wall
+     * time when bodies were prepared in parallel.
+     */
+    public long getUpdateTime() {
+        return updateTime;
+    }
+
+    @Override
+    public void dispose() {
+        positionBuffer.dispose();
+        textureBuffer.dispose();
+        indexBuffer.dispose();
+    }
+
+    /**
+     * Update bounds of all queued bodies and vertices of the ones in view.
+     */
+    private void prepare() {
+        long start = System.nanoTime();
+
+        int count = queued.size();
+        if (visible.length < count) {
+            visible = new boolean[Math.max(count, visible.length * 2)];
+        }
+
+        if (pool == null || count < PARALLEL_BODIES) {
+            prepare(0, count);
+        } else {
+            pool.invoke(new PrepareAction(0, count));
+        }
+        updateTime = System.nanoTime() - start;
+    }
+
+    /**
+     * Prepare queued bodies in a given range, may run on any thread as bodies do not share state.
+     */
+    private void prepare(int from, int to) {
+        for (int i = from; i < to; i++) {
+            SoftBody body = queued.get(i);
+            body.updateBounds();
+
+            boolean inView = body.getMaxX() >= viewMinX && body.getMinX() <= viewMaxX
+                    && body.getMaxY() >= viewMinY && body.getMinY() <= viewMaxY;
+
+            if (inView) {
+                body.setRefinement(refinement);
+                body.update();
+            }
+            visible[i] = inView;
+        }
+    }
+
+    /**
+     * Copy body vertices, texture coordinates and offset indices into the shared buffers.
+     */
+    private void pack(SoftBody body) {
+        int count = body.getVertexCount();
+
+        // Unchanged while the same bodies are packed in the same order.
+        int packedCount = packed.size();
+        changed |= packedCount >= uploaded.size() || uploaded.get(packedCount) != body;
+
+        // Vertices are still in the buffer if they did not change since they were uploaded.
+        if (changed || uploadedVersions.get(packedCount) != body.getVersion()) {
+            positionBuffer.put(vertexCount, body.getVertices(), 0, count);
+        }
+        packedVersions.add(body.getVersion());
+
+        if (changed) {
+            System.arraycopy(body.getTextureCoordinates(), 0, textureCoordinates, vertexCount * 2, count * 2);
+
+            int[] bodyIndices = body.getIndices();
+            for (int index : bodyIndices) {
+                indices[indexCount++] = (short) (index + vertexCount);
+            }
+        } else {
+            indexCount += body.getIndices().length;
+        }
+
+        packed.add(body);
+        vertexCount += count;
+    }
+
+    /**
+     * Draw a body too large for short indices by copying the vertices of each triangle in order
+     * and drawing them without indices, in as many draw calls as needed.
+     */
+    private void drawUnindexed(Texture texture, SoftBody body) {
+        float[] bodyVertices = body.getVertices();
+        float[] bodyCoordinates = body.getTextureCoordinates();
+        int[] bodyIndices = body.getIndices();
+
+        // Whole triangles only.
+        int chunk = MAX_VERTICES - MAX_VERTICES % 3;
+
+        if (texture != null) {
+            texture.bind();
+        }
+
+        for (int start = 0; start < bodyIndices.length; start += chunk) {
+            int count = Math.min(chunk, bodyIndices.length - start);
+
+            for (int i = 0; i < count; i++) {
+                int index = bodyIndices[start + i];
+
+                positionBuffer.put(i, bodyVertices, index, 1);
+                System.arraycopy(bodyCoordinates, index * 2, textureCoordinates, i * 2, 2);
+            }
+
+            textureBuffer.setVertices(textureCoordinates, 0, count * 2);
+            uploadedBytes += count * 2 * Float.BYTES;
+
+            uploadedBytes += positionBuffer.bind(program);
+            textureBuffer.bind(program);
+            Gdx.gl.glDrawArrays(GL20.GL_TRIANGLES, 0, count);
+            textureBuffer.unbind(program);
+            positionBuffer.unbind(program);
+            renderCalls++;
+        }
+
+        // Positions and texture coordinates of packed bodies were overwritten.
+        uploaded.clear();
+    }
+
+    /**
+     * Queue a draw call for indices packed since a given offset.
+     */
+    private void queueDraw(Texture texture, int offset) {
+        if (indexCount > offset) {
+            drawTextures.add(texture);
+            drawOffsets.add(offset);
+            drawCounts.add(indexCount - offset);
+        }
+    }
+
+    /**
+     * Upload packed buffers and issue queued draw calls.
+     */
+    private void flush() {
+        if (drawTextures.size == 0) {
+            packed.clear();
+            packedVersions.clear();
+            changed = false;
+            return;
+        }
+
+        if (changed || packed.size() != uploaded.size()) {
+            textureBuffer.setVertices(textureCoordinates, 0, vertexCount * 2);
+            indexBuffer.setIndices(indices, 0, indexCount);
+            uploadedBytes += vertexCount * 2 * Float.BYTES + indexCount * Short.BYTES;
+
+            // Swap, so that neither list allocates.
+            List<SoftBody> swap = uploaded;
+            uploaded = packed;
+            packed = swap;
+        }
+        packed.clear();
+        changed = false;
+
+        // Same bodies in the same order otherwise, whose versions may have changed.
+        IntArray swap = uploadedVersions;
+        uploadedVersions = packedVersions;
+        packedVersions = swap;
+        packedVersions.clear();
+
+        uploadedBytes += positionBuffer.bind(program);
+        textureBuffer.bind(program);
+        indexBuffer.bind();
+
+        for (int i = 0; i < drawTextures.size; i++) {
+            Texture texture = drawTextures.get(i);
+            if (texture != null) {
+                texture.bind();
+            }
+            Gdx.gl.glDrawElements(GL20.GL_TRIANGLES, drawCounts.get(i), GL20.GL_UNSIGNED_SHORT, drawOffsets.get(i) * Short.BYTES);
+            renderCalls++;
+        }
+
+        indexBuffer.unbind();
+        textureBuffer.unbind(program);
+        positionBuffer.unbind(program);
+
+        drawTextures.clear();
+        drawOffsets.clear();
+        drawCounts.clear();
+
+        vertexCount = 0;
+        indexCount = 0;
+    }
+
+    private final class PrepareAction extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        private PrepareAction(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TASK_BODIES) {
+                prepare(from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new PrepareAction(from, middle), new PrepareAction(middle, to));
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.graphics.Texture;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recycles soft bodies removed from a scene. Particles of freed bodies are deactivated instead of
+ * removed, a body with the same topology obtained later is moved into place and reactivated,
+ * which is much cheaper than creating its particles and constraints again.
+ */
+public final class SoftBodyPool {
+
+    // Most bodies kept per topology, particles of further freed bodies are removed.
+    private static final int MAX_FREE = 256;
+
+    // Circle radii are rounded to this many buckets per meter, so that similar circles are recycled.
+    private static final int RADIUS_BUCKETS = 10;
+
+    private final Solver solver;
+
+    // Deactivated bodies by topology.
+    private final Map<String, List<SoftBody>> free = new HashMap<>();
+
+    private int freeCount;
+    private int hits;
+    private int misses;
+
+    /**
+     * @param solver solver all pooled bodies are created with.
+     */
+    public SoftBodyPool(Solver solver) {
+        this.solver = solver;
+    }
+
+    /**
+     * @return recycled or newly created circle at a given center.
+     */
+    public Circle obtainCircle(Texture texture, float radius, float x, float y) {
+        return obtainCircle(texture, radius, Bracing.FULL, x, y);
+    }
+
+    /**
+     * @return recycled or newly created circle of a given bracing at a given center. The radius
+     * is rounded to a tenth of a meter, so that circles of about the same size can be recycled.
+     */
+    public Circle obtainCircle(Texture texture, float radius, Bracing bracing, float x, float y) {
+        float bucket = bucketRadius(radius);
+
+        Circle circle = (Circle) obtain(Circle.topology(bucket, bracing, 0), texture, x, y);
+        return circle != null ? circle : new Circle(texture, solver, bucket, bracing, x, y);
+    }
+
+    /**
+     * @return recycled or newly created rectangle at a given bottom left corner.
+     */
+    public Rectangle obtainRectangle(Texture texture, float x, float y, int width, int height) {
+        return obtainRectangle(texture, x, y, width, height, Bracing.FULL);
+    }
+
+    /**
+     * @return recycled or newly created rectangle of a given bracing at a given bottom left corner.
+     */
+    public Rectangle obtainRectangle(Texture texture, float x, float y, int width, int height, Bracing bracing) {
+        Rectangle rectangle = (Rectangle) obtain(Rectangle.topology(width, height, bracing, 0), texture, x, y);
+        return rectangle != null ? rectangle : new Rectangle(texture, solver, x, y, width, height, bracing);
+    }
+
+    /**
+     * Obtain a body replacing a given one at another tier, see {@link SoftBody#createTier(Solver, int)}.
+     * A freed body of that tier is moved into the current shape of the given body if there is one,
+     * so that bodies switching tiers back and forth are not created again each time.
+     *
+     * @return recycled or newly created body at the given tier.
+     */
+    public SoftBody obtainTier(SoftBody body, int tier) {
+        String topology = body.getTopology(tier);
+
+        List<SoftBody> bodies = topology != null ? free.get(topology) : null;
+        if (bodies == null || bodies.isEmpty()) {
+            misses++;
+            return body.createTier(solver, tier);
+        }
+
+        SoftBody recycled = bodies.remove(bodies.size() - 1);
+        freeCount--;
+        hits++;
+
+        recycled.setTexture(body.getTexture());
+        recycled.clearBounds();
+        solver.setActive(recycled.getParticles(), true);
+        recycled.copyTier(solver, body);
+        return recycled;
+    }
+
+    /**
+     * Deactivate particles of a body no longer in the scene, so that it can be recycled. Bodies
+     * which can not be recycled have their particles removed, as do bodies at a tier other than
+     * the one they were created with, since bodies are only obtained at that tier.
+     */
+    public void free(SoftBody body) {
+        if (body.getTier() != 0) {
+            solver.destroyParticles(body.getParticles());
+            return;
+        }
+        pool(body);
+    }
+
+    /**
+     * Deactivate particles of a body replaced by itself at another tier, so that it can be
+     * recycled by {@link #obtainTier(SoftBody, int)} once the body switches back.
+     */
+    void freeTier(SoftBody body) {
+        pool(body);
+    }
+
+    /**
+     * @return number of bodies waiting to be recycled.
+     */
+    public int getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * @return number of bodies obtained by recycling.
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of bodies obtained by creating them.
+     */
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return radius rounded to the nearest bucket, so that circles of about the same size share a topology.
+     */
+    private static float bucketRadius(float radius) {
+        return Math.max(1, Math.round(radius * RADIUS_BUCKETS)) / (float) RADIUS_BUCKETS;
+    }
+
+    /**
+     * Deactivate particles of a body under its current topology, or remove them if there is no room.
+     */
+    private void pool(SoftBody body) {
+        String topology = body.getTopology();
+
+        List<SoftBody> bodies = topology != null ? free.get(topology) : null;
+        if (topology == null || bodies != null && bodies.size() >= MAX_FREE) {
+            solver.destroyParticles(body.getParticles());
+            return;
+        }
+
+        if (bodies == null) {
+            bodies = new ArrayList<>();
+            free.put(topology, bodies);
+        }
+
+        // Frozen particles are thawed by the solver before being deactivated.
+        solver.setActive(body.getParticles(), false);
+        body.setFrozen(false);
+
+        bodies.add(body);
+        freeCount++;
+    }
+
+    /**
+     * @return freed body of a given topology moved into place, null if there is none.
+     */
+    private SoftBody obtain(String topology, Texture texture, float x, float y) {
+        List<SoftBody> bodies = free.get(topology);
+        if (bodies == null || bodies.isEmpty()) {
+            misses++;
+            return null;
+        }
+
+        SoftBody body = bodies.remove(bodies.size() - 1);
+        freeCount--;
+        hits++;
+
+        body.setTexture(texture);
+        body.clearBounds();
+        body.reset(solver, x, y);
+        solver.setActive(body.getParticles(), true);
+        return body;
+    }
+}
@@ -0,0 +1,511 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.EarClippingTriangulator;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.ByteArray;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.IntSet;
+import com.badlogic.gdx.utils.ShortArray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Particles, constraints and mesh of a soft body in its rest layout, recorded once per topology
+ * and replayed to create bodies of the same shape without running their generators again.
+ * Stored in a compact binary format, little endian:
+ * <pre>
+ * int   particle count
+ * float x, y offset per particle
+ * int   constraint count
+ *   int a, int b, float frequency, float damping per constraint
+ * int   group constraint count
+ *   byte kind, float stiffness, int length, int particle per group particle, per group
+ * int   texture coordinate count, float u, v per vertex
+ * int   index count, int index per index
+ * </pre>
+ * Particles are referred to by their index in the body particle array. Group constraints are
+ * area, pressure and shape matching constraints, in the order they were created.
+ */
+public final class SoftBodyTemplate {
+
+    private static final int CONSTRAINT_BYTES = 2 * Integer.BYTES + 2 * Float.BYTES;
+    private static final int GROUP_BYTES = 1 + Float.BYTES + Integer.BYTES;
+
+    // Kinds of group constraints.
+    private static final byte AREA = 0;
+    private static final byte PRESSURE = 1;
+    private static final byte SHAPE = 2;
+
+    // Particle x, y pairs relative to the position bodies are created at.
+    private final float[] offsets;
+
+    // Particle a, b pairs and their frequency, damping pairs.
+    private final int[] constraints;
+    private final float[] springs;
+
+    // Group constraint kinds, stiffness and particles.
+    private final byte[] groupKinds;
+    private final float[] groupStiffness;
+    private final int[][] groups;
+
+    private final float[] textureCoordinates;
+    private final int[] indices;
+
+    private SoftBodyTemplate(float[] offsets,
+                             int[] constraints,
+                             float[] springs,
+                             byte[] groupKinds,
+                             float[] groupStiffness,
+                             int[][] groups,
+                             float[] textureCoordinates,
+                             int[] indices) {
+
+        this.offsets = offsets;
+        this.constraints = constraints;
+        this.springs = springs;
+        this.groupKinds = groupKinds;
+        this.groupStiffness = groupStiffness;
+        this.groups = groups;
+        this.textureCoordinates = textureCoordinates;
+        this.indices = indices;
+    }
+
+    /**
+     * Record particles and constraints created by a body generator at the origin.
+     *
+     * @param generator creates particles and constraints of a body at the origin, returns
+     *                  particle ids in the order of the body particle array.
+     * @return template of the generated body.
+     */
+    public static SoftBodyTemplate record(Function<ParticleSink, int[]> generator,
+                                          float[] textureCoordinates,
+                                          int[] indices) {
+
+        Recorder recorder = new Recorder();
+        int[] particles = generator.apply(recorder);
+
+        if (particles.length != recorder.getParticleCount()) {
+            throw new IllegalArgumentException("Generator must return all particles it creates");
+        }
+
+        // Recorded ids are in creation order, templates are in body order.
+        int[] order = new int[particles.length];
+        float[] offsets = new float[particles.length * 2];
+
+        for (int i = 0; i < particles.length; i++) {
+            order[particles[i]] = i;
+            offsets[i * 2] = recorder.positions.get(particles[i] * 2);
+            offsets[i * 2 + 1] = recorder.positions.get(particles[i] * 2 + 1);
+        }
+
+        int[] constraints = recorder.constraints.toArray();
+        for (int i = 0; i < constraints.length; i++) {
+            constraints[i] = order[constraints[i]];
+        }
+
+        int[][] groups = recorder.groups.toArray(new int[0][]);
+        for (int[] group : groups) {
+            for (int i = 0; i < group.length; i++) {
+                group[i] = order[group[i]];
+            }
+        }
+
+        return new SoftBodyTemplate(
+                offsets,
+                constraints,
+                recorder.springs.toArray(),
+                recorder.groupKinds.toArray(),
+                recorder.groupStiffness.toArray(),
+                groups,
+                textureCoordinates,
+                indices
+        );
+    }
+
+    /**
+     * Create a template of a solid body with a given outline. Particles are placed at the outline
+     * points, which should be spaced about a particle diameter apart, and connected along the
+     * edges of the triangulated outline. The outline area is kept by an area constraint and
+     * the texture is stretched over its bounds.
+     *
+     * @param outline x, y pairs of a simple polygon, in either winding.
+     */
+    public static SoftBodyTemplate fromOutline(float[] outline) {
+        int count = outline.length / 2;
+        if (count < 3 || outline.length % 2 != 0) {
+            throw new IllegalArgumentException("Outline must have at least three points");
+        }
+
+        ShortArray triangles = new EarClippingTriangulator().computeTriangles(outline);
+        int[] indices = new int[triangles.size];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = triangles.get(i);
+        }
+
+        // Each edge is shared by up to two triangles, but needs a single constraint.
+        IntArray constraints = new IntArray();
+        IntSet edges = new IntSet();
+        for (int i = 0; i < indices.length; i += 3) {
+            for (int j = 0; j < 3; j++) {
+                int a = indices[i + j];
+                int b = indices[i + (j + 1) % 3];
+
+                if (edges.add(Math.min(a, b) * count + Math.max(a, b))) {
+                    constraints.add(a);
+                    constraints.add(b);
+                }
+            }
+        }
+
+        float[] springs = new float[constraints.size];
+        for (int i = 0; i < springs.length; i += 2) {
+            springs[i] = SoftBody.FREQUENCY;
+            springs[i + 1] = SoftBody.DAMPING;
+        }
+
+        int[] ring = new int[count];
+        for (int i = 0; i < count; i++) {
+            ring[i] = i;
+        }
+
+        return new SoftBodyTemplate(
+                outline.clone(),
+                constraints.toArray(),
+                springs,
+                new byte[]{AREA},
+                new float[]{0},
+                new int[][]{ring},
+                stretchTextureCoordinates(outline),
+                indices
+        );
+    }
+
+    /**
+     * Create particles and constraints of a body at a given position, replaying the template.
+     *
+     * @return created particle ids, in the order of the body particle array.
+     */
+    public int[] instantiate(Solver solver, float x, float y) {
+        int[] particles = new int[offsets.length / 2];
+
+        for (int i = 0; i < particles.length; i++) {
+            particles[i] = solver.createParticle(x + offsets[i * 2], y + offsets[i * 2 + 1]);
+        }
+
+        for (int i = 0; i < constraints.length; i += 2) {
+            solver.createDistanceConstraint(particles[constraints[i]], particles[constraints[i + 1]], springs[i], springs[i + 1]);
+        }
+
+        for (int i = 0; i < groups.length; i++) {
+            int[] ids = new int[groups[i].length];
+            for (int j = 0; j < ids.length; j++) {
+                ids[j] = particles[groups[i][j]];
+            }
+
+            switch (groupKinds[i]) {
+                case AREA:
+                    solver.createAreaConstraint(ids);
+                    break;
+
+                case PRESSURE:
+                    solver.createPressureConstraint(ids, groupStiffness[i]);
+                    break;
+
+                case SHAPE:
+                    solver.createShapeConstraint(ids, groupStiffness[i]);
+                    break;
+            }
+        }
+        return particles;
+    }
+
+    /**
+     * Move particles created from this template into the rest layout at a given position and
+     * stop them, see {@link SoftBody#reset(Solver, float, float)}.
+     */
+    public void reset(Solver solver, int[] particles, float x, float y) {
+        for (int i = 0; i < particles.length; i++) {
+            solver.setPosition(particles[i], x + offsets[i * 2], y + offsets[i * 2 + 1]);
+            solver.setVelocity(particles[i], 0, 0);
+        }
+    }
+
+    public int getParticleCount() {
+        return offsets.length / 2;
+    }
+
+    /**
+     * @return number of distance and group constraints created per body.
+     */
+    public int getConstraintCount() {
+        return constraints.length / 2 + groups.length;
+    }
+
+    /**
+     * Measure how far particles of a body created from this template are from the rest layout,
+     * moved and rotated to best fit their positions.
+     *
+     * @param particles particle ids, in the order of the body particle array.
+     * @return root mean square distance of particles from the best fitting rest layout, in meters.
+     */
+    public float getDeformation(ParticlePositions positions, int[] particles) {
+        Vector2 position = new Vector2();
+        int count = particles.length;
+
+        float centerX = 0;
+        float centerY = 0;
+        float restX = 0;
+        float restY = 0;
+        for (int i = 0; i < count; i++) {
+            positions.getPosition(particles[i], position);
+            centerX += position.x / count;
+            centerY += position.y / count;
+            restX += offsets[i * 2] / count;
+            restY += offsets[i * 2 + 1] / count;
+        }
+
+        // Same fit as shape matching, see ShapeConstraints.
+        float cos = 0;
+        float sin = 0;
+        for (int i = 0; i < count; i++) {
+            positions.getPosition(particles[i], position);
+            float px = position.x - centerX;
+            float py = position.y - centerY;
+            float qx = offsets[i * 2] - restX;
+            float qy = offsets[i * 2 + 1] - restY;
+
+            cos += px * qx + py * qy;
+            sin += py * qx - px * qy;
+        }
+
+        float len = (float) Math.sqrt(cos * cos + sin * sin);
+        cos = len == 0 ? 1 : cos / len;
+        sin = len == 0 ? 0 : sin / len;
+
+        float sum = 0;
+        for (int i = 0; i < count; i++) {
+            positions.getPosition(particles[i], position);
+            float qx = offsets[i * 2] - restX;
+            float qy = offsets[i * 2 + 1] - restY;
+
+            sum += Vector2.dst2(
+                    position.x, position.y,
+                    centerX + cos * qx - sin * qy,
+                    centerY + sin * qx + cos * qy
+            );
+        }
+        return (float) Math.sqrt(sum / count);
+    }
+
+    /**
+     * @return texture coordinates, shared by all bodies created from this template so they
+     * must not be modified.
+     */
+    public float[] getTextureCoordinates() {
+        return textureCoordinates;
+    }
+
+    /**
+     * @return triangle indices, shared by all bodies created from this template so they must
+     * not be modified.
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return number of bytes needed to store this template.
+     */
+    int getByteCount() {
+        int size = 5 * Integer.BYTES
+                + offsets.length * Float.BYTES
+                + constraints.length / 2 * CONSTRAINT_BYTES
+                + textureCoordinates.length * Float.BYTES
+                + indices.length * Integer.BYTES;
+
+        for (int[] group : groups) {
+            size += GROUP_BYTES + group.length * Integer.BYTES;
+        }
+        return size;
+    }
+
+    /**
+     * Write this template to a little endian buffer.
+     */
+    void write(ByteBuffer buffer) {
+        buffer.putInt(offsets.length / 2);
+        for (float offset : offsets) {
+            buffer.putFloat(offset);
+        }
+
+        buffer.putInt(constraints.length / 2);
+        for (int i = 0; i < constraints.length; i += 2) {
+            buffer.putInt(constraints[i]);
+            buffer.putInt(constraints[i + 1]);
+            buffer.putFloat(springs[i]);
+            buffer.putFloat(springs[i + 1]);
+        }
+
+        buffer.putInt(groups.length);
+        for (int i = 0; i < groups.length; i++) {
+            buffer.put(groupKinds[i]);
+            buffer.putFloat(groupStiffness[i]);
+            buffer.putInt(groups[i].length);
+            for (int particle : groups[i]) {
+                buffer.putInt(particle);
+            }
+        }
+
+        buffer.putInt(textureCoordinates.length / 2);
+        for (float coordinate : textureCoordinates) {
+            buffer.putFloat(coordinate);
+        }
+
+        buffer.putInt(indices.length);
+        for (int index : indices) {
+            buffer.putInt(index);
+        }
+    }
+
+    /**
+     * Read a template written with {@link #write(ByteBuffer)} from a little endian buffer.
+     */
+    static SoftBodyTemplate read(ByteBuffer buffer) {
+        int particleCount = buffer.getInt();
+        float[] offsets = new float[particleCount * 2];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = buffer.getFloat();
+        }
+
+        int constraintCount = buffer.getInt();
+        int[] constraints = new int[constraintCount * 2];
+        float[] springs = new float[constraintCount * 2];
+        for (int i = 0; i < constraints.length; i += 2) {
+            constraints[i] = particle(buffer, particleCount);
+            constraints[i + 1] = particle(buffer, particleCount);
+            springs[i] = buffer.getFloat();
+            springs[i + 1] = buffer.getFloat();
+        }
+
+        int[][] groups = new int[buffer.getInt()][];
+        byte[] groupKinds = new byte[groups.length];
+        float[] groupStiffness = new float[groups.length];
+        for (int i = 0; i < groups.length; i++) {
+            groupKinds[i] = buffer.get();
+            if (groupKinds[i] < AREA || groupKinds[i] > SHAPE) {
+                throw new IllegalArgumentException("Unknown group constraint kind: " + groupKinds[i]);
+            }
+
+            groupStiffness[i] = buffer.getFloat();
+            groups[i] = new int[buffer.getInt()];
+            for (int j = 0; j < groups[i].length; j++) {
+                groups[i][j] = particle(buffer, particleCount);
+            }
+        }
+
+        float[] textureCoordinates = new float[buffer.getInt() * 2];
+        for (int i = 0; i < textureCoordinates.length; i++) {
+            textureCoordinates[i] = buffer.getFloat();
+        }
+
+        int[] indices = new int[buffer.getInt()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = buffer.getInt();
+        }
+        return new SoftBodyTemplate(offsets, constraints, springs, groupKinds, groupStiffness, groups, textureCoordinates, indices);
+    }
+
+    private static int particle(ByteBuffer buffer, int particleCount) {
+        int particle = buffer.getInt();
+        if (particle < 0 || particle >= particleCount) {
+            throw new IllegalArgumentException("Particle index out of range: " + particle);
+        }
+        return particle;
+    }
+
+    /**
+     * @return texture coordinates mapping the bounds of an outline onto the whole texture.
+     */
+    private static float[] stretchTextureCoordinates(float[] outline) {
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < outline.length; i += 2) {
+            minX = Math.min(minX, outline[i]);
+            minY = Math.min(minY, outline[i + 1]);
+            maxX = Math.max(maxX, outline[i]);
+            maxY = Math.max(maxY, outline[i + 1]);
+        }
+
+        float[] textureCoordinates = new float[outline.length];
+        for (int i = 0; i < outline.length; i += 2) {
+            textureCoordinates[i] = (outline[i] - minX) / (maxX - minX);
+
+            // v is facing down hence the -1.
+            textureCoordinates[i + 1] = 1 - (outline[i + 1] - minY) / (maxY - minY);
+        }
+        return textureCoordinates;
+    }
+
+    /**
+     * Sink which only records what is created, used to run body generators once per topology.
+     */
+    private static final class Recorder implements ParticleSink {
+
+        private final FloatArray positions = new FloatArray();
+        private final IntArray constraints = new IntArray();
+        private final FloatArray springs = new FloatArray();
+        private final ByteArray groupKinds = new ByteArray();
+        private final FloatArray groupStiffness = new FloatArray();
+        private final List<int[]> groups = new ArrayList<>();
+
+        @Override
+        public int createParticle(float x, float y) {
+            positions.add(x);
+            positions.add(y);
+            return positions.size / 2 - 1;
+        }
+
+        @Override
+        public void createDistanceConstraint(int a, int b, float frequency, float damping) {
+            constraints.add(a);
+            constraints.add(b);
+            springs.add(frequency);
+            springs.add(damping);
+        }
+
+        @Override
+        public void createAreaConstraint(int[] ring) {
+            addGroup(AREA, 0, ring);
+        }
+
+        @Override
+        public void createPressureConstraint(int[] ring, float stiffness) {
+            addGroup(PRESSURE, stiffness, ring);
+        }
+
+        @Override
+        public void createShapeConstraint(int[] particles, float stiffness) {
+            addGroup(SHAPE, stiffness, particles);
+        }
+
+        /**
+         * @return number of particles recorded.
+         */
+        int getParticleCount() {
+            return positions.size / 2;
+        }
+
+        private void addGroup(byte kind, float stiffness, int[] particles) {
+            groupKinds.add(kind);
+            groupStiffness.add(stiffness);
+            groups.add(particles.clone());
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.edd.softbody;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Soft body templates by topology key, see {@link SoftBody#getTopology()}. Templates of the
+ * circles and rectangles the tests spawn are baked at build time into the {@link #RESOURCE}
+ * resource, which is loaded on first use. Templates missing from it are recorded when first
+ * needed. Stored in a compact binary format, little endian:
+ * <pre>
+ * int   magic, int version, int template count
+ * per template:
+ *   short key length, UTF-8 key bytes
+ *   template, see {@link SoftBodyTemplate}
+ * </pre>
+ * Run as a main class to bake the resource, see {@link #main(String...)}.
+ */
+public final class SoftBodyTemplates {
+
+    public static final int VERSION = 2;
+
+    public static final String RESOURCE = "templates.bin";
+
+    // "SBTP" read as a little endian int.
+    private static final int MAGIC = 0x50544253;
+
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+
+    // Sizes spawned by the tests.
+    private static final int MIN_RADIUS = 2;
+    private static final int MAX_RADIUS = 10;
+    private static final int MIN_SIZE = 2;
+    private static final int MAX_SIZE = 5;
+
+    // Bodies may be created on any thread.
+    private static final Map<String, SoftBodyTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+    static {
+        try (InputStream input = SoftBodyTemplates.class.getClassLoader().getResourceAsStream(RESOURCE)) {
+            if (input != null) {
+                read(ByteBuffer.wrap(readFully(input)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load " + RESOURCE, e);
+        }
+    }
+
+    private SoftBodyTemplates() {
+    }
+
+    /**
+     * Bake templates of circles and rectangles spawned by the tests, at all tiers and bracings,
+     * along with given outlines into a template file.
+     *
+     * @param args output path followed by outlines as {@code name=x,y,x,y,...}, see
+     *             {@link Polygon#register(String, float[])}.
+     */
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: SoftBodyTemplates <output> [name=x,y,x,y,...]...");
+            System.exit(1);
+        }
+
+        for (Bracing bracing : Bracing.values()) {
+            for (int i = MIN_RADIUS; i <= MAX_RADIUS; i++) {
+                float radius = i / 10f;
+                for (int tier = 0; tier < Circle.countTiers(radius); tier++) {
+                    Circle.template(radius, bracing, tier);
+                }
+            }
+
+            for (int width = MIN_SIZE; width <= MAX_SIZE; width++) {
+                for (int height = MIN_SIZE; height <= MAX_SIZE; height++) {
+                    for (int tier = 0; tier < Rectangle.countTiers(width, height); tier++) {
+                        Rectangle.template(width, height, bracing, tier);
+                    }
+                }
+            }
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            String[] outline = args[i].split("=", 2);
+            if (outline.length != 2) {
+                throw new IllegalArgumentException("Outline must be given as name=x,y,x,y,...: " + args[i]);
+            }
+
+            String[] values = outline[1].split(",");
+            float[] points = new float[values.length];
+            for (int j = 0; j < values.length; j++) {
+                points[j] = Float.parseFloat(values[j].trim());
+            }
+            Polygon.register(outline[0], points);
+        }
+
+        Path path = Paths.get(args[0]);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        write(path);
+
+        System.out.println("Baked " + TEMPLATES.size() + " templates into " + path);
+    }
+
+    /**
+     * Load the {@link #RESOURCE} resource if it is not loaded yet, so that it is not loaded on the
+     * thread first creating a body.
+     */
+    public static void load() {
+        // Loaded by the static initializer.
+    }
+
+    /**
+     * @return template of a given topology, null if there is none.
+     */
+    public static SoftBodyTemplate get(String topology) {
+        return TEMPLATES.get(topology);
+    }
+
+    /**
+     * @param generator records the template if there is none yet.
+     * @return template of a given topology.
+     */
+    public static SoftBodyTemplate get(String topology, Supplier<SoftBodyTemplate> generator) {
+        SoftBodyTemplate template = TEMPLATES.get(topology);
+        return template != null ? template : TEMPLATES.computeIfAbsent(topology, key -> generator.get());
+    }
+
+    /**
+     * Add the template of a given topology, unless there is one already. Templates are never
+     * replaced, as bodies share indices and are recycled by topology.
+     *
+     * @return whether the template was added.
+     */
+    public static boolean add(String topology, SoftBodyTemplate template) {
+        return TEMPLATES.putIfAbsent(topology, template) == null;
+    }
+
+    /**
+     * Write all templates to a given file, replacing it.
+     */
+    public static void write(Path path) throws IOException {
+        Map<String, SoftBodyTemplate> templates = new TreeMap<>(TEMPLATES);
+
+        int size = HEADER_BYTES;
+        for (Map.Entry<String, SoftBodyTemplate> entry : templates.entrySet()) {
+            size += Short.BYTES + entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+            size += entry.getValue().getByteCount();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(templates.size());
+
+        for (Map.Entry<String, SoftBodyTemplate> entry : templates.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+
+            buffer.putShort((short) key.length);
+            buffer.put(key);
+            entry.getValue().write(buffer);
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Add all templates stored in a given buffer.
+     */
+    private static void read(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a template file");
+        }
+
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported template version: " + version);
+        }
+
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] key = new byte[buffer.getShort()];
+            buffer.get(key);
+
+            TEMPLATES.put(new String(key, StandardCharsets.UTF_8), SoftBodyTemplate.read(buffer));
+        }
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+
+        int read;
+        while ((read = input.read(chunk)) != -1) {
+            output.write(chunk, 0, read);
+        }
+        return output.toByteArray();
+    }
+}
@@ -9,15 +9,18 @@ import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
 import com.badlogic.gdx.graphics.*;
 import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.math.MathUtils;
-import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.physics.box2d.*;
-import com.badlogic.gdx.physics.box2d.joints.MouseJoint;
-import com.badlogic.gdx.physics.box2d.joints.MouseJointDef;
-import com.badlogic.gdx.utils.Array;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class SoftBodyTests extends Game {
 
@@ -27,49 +30,79 @@ public class SoftBodyTests extends Game {
         SPAWN_CIRCLES
     }
 
-    // Box2d constants.
-    private static final int VELOCITY_ITERATIONS = 6;
-    private static final int POSITION_ITERATIONS = 2;
-
-    private static final float TIME_STEP = 1.0f / 300f;
-    private static final float GRAVITY = 0;
-
     private static final int PPM = 100;
     private static final float MPP = 1f / PPM;
 
-    // General constants.
-    private static final float WALL_HEIGHT = 0.5f;
+    // Time physics may take per frame, in millis, half of a 60 fps frame.
+    private static final float PHYSICS_BUDGET = 8f;
+
+    // Camera zoom limits and change per scroll step.
+    private static final float MIN_ZOOM = 0.5f;
+    private static final float MAX_ZOOM = 8f;
+    private static final float ZOOM_STEP = 1.1f;
+
+    // Steps per frame when replaying recorded input, one 60 fps frame worth of steps.
+    private static final int REPLAY_STEPS = Math.round(1f / 60f / Scene.TIME_STEP);
 
-    // All soft bodies in the scene.
-    private final List<SoftBody> bodies = new ArrayList<>();
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
 
-    private float accumulator = 0f;
+    // Time between published metrics and title updates, in seconds.
+    private static final float METRICS_INTERVAL = 1f;
+
+    // File the scene is saved to and restored from, texture ids are indices into the textures.
+    private static final Path SNAPSHOT = Paths.get("snapshot.bin");
 
     private Box2DDebugRenderer renderer;
     private OrthographicCamera camera;
     private ShaderProgram shaderProgram;
-    private World world;
+    private SoftBodyBatch batch;
 
-    private boolean box2dDebug = true;
+    // Loads assets and builds the scene without blocking the render thread.
+    private Startup startup;
+    private long createTime;
 
-    // Joint definition for mouse and a dragged object.
-    private MouseJointDef jointDef;
+    // Physics world with level bounds and soft bodies, null until loaded.
+    private Scene scene;
 
-    // Mouse position.
-    private Vector3 mousePos = new Vector3();
+    // Particle positions read once after stepping, when not running a physics thread.
+    private final PositionReadback readback = new PositionReadback();
+
+    // Steps the scene when running with a dedicated physics thread, null otherwise.
+    private PhysicsThread physics;
+    private final boolean threaded;
+
+    // Applies input to the scene, recording it if a file to record to is given.
+    private InputLog input;
+    private final Path recording;
+
+    // File to replay input from, null when taking live input.
+    private final Path replay;
 
-    // Target for the mouse joint.
-    private Vector2 target = new Vector2();
+    // Per frame metrics, exposed over JMX and logged to a file if given.
+    private final FrameMetrics metrics = new FrameMetrics(METRICS_INTERVAL);
+    private final Path metricsLog;
+
+    // Picks body tiers from their size on screen.
+    private final LevelOfDetail levelOfDetail = new LevelOfDetail(PPM);
+
+    private boolean box2dDebug = true;
 
-    // Joint connecting the mouse and the body that is being dragged.
-    private MouseJoint joint;
+    // Mouse position.
+    private Vector3 mousePos = new Vector3();
 
     private Texture circleTexture;
     private Texture cubeTexture;
+    private Texture[] textures;
+
+    // Used only by commands, so it is never touched by two threads at once.
+    private final SceneSnapshot snapshot = new SceneSnapshot();
 
     // Current mode.
     private Mode mode = Mode.DRAG_BODIES;
 
+    // Bracing of spawned bodies.
+    private Bracing bracing = Bracing.FULL;
+
     public static void main(String... args) {
         LwjglApplicationConfiguration configuration = new LwjglApplicationConfiguration();
         configuration.foregroundFPS = 60;
@@ -77,123 +110,280 @@ public class SoftBodyTests extends Game {
         configuration.width = 800;
         configuration.height = 600;
 
-        new LwjglApplication(new SoftBodyTests(), configuration);
+        List<String> options = Arrays.asList(args);
+        new LwjglApplication(new SoftBodyTests(
+                options.contains("--threaded"),
+                option(options, "--record"),
+                option(options, "--replay"),
+                option(options, "--metrics")
+        ), configuration);
+    }
+
+    /**
+     * @param threaded   step physics on a dedicated thread instead of the render thread.
+     * @param recording  file to record input to on exit, null to not record.
+     * @param replay     file to replay input from instead of taking live input, null for live
+     *                   input. Replays step a fixed number of times per frame on the render thread.
+     * @param metricsLog file to log metrics to as CSV, null to not log.
+     */
+    public SoftBodyTests(boolean threaded, Path recording, Path replay, Path metricsLog) {
+        this.threaded = threaded && replay == null;
+        this.recording = recording;
+        this.replay = replay;
+        this.metricsLog = metricsLog;
     }
 
     @Override
     public void create() {
+        long start = System.nanoTime();
 
         // Scale viewport to meters.
         camera = new OrthographicCamera();
         camera.setToOrtho(false, meters(Gdx.graphics.getWidth()), meters(Gdx.graphics.getHeight()));
 
+        // Create static world and load assets in the background.
+        startup = new Startup(camera.viewportWidth, camera.viewportHeight, metrics);
+
+        if (metricsLog != null) {
+            try {
+                metrics.startLog(metricsLog);
+            } catch (IOException e) {
+                Gdx.app.error("metrics", "Could not log to " + metricsLog, e);
+            }
+        }
+        createTime = System.nanoTime() - start;
+    }
+
+    /**
+     * Set up everything depending on loaded assets and the scene, once they are loaded.
+     */
+    private void start() {
+        scene = startup.getScene();
+        scene.getController().setBudget(PHYSICS_BUDGET);
+
         // Box2d setup.
         renderer = new Box2DDebugRenderer(true, true, false, true, false, true);
-        world = new World(new Vector2(0f, GRAVITY), true);
 
         // Initialize shader program with some default shaders.
-        shaderProgram = new ShaderProgram(Gdx.files.internal("vertex.glsl"), Gdx.files.internal("fragment.glsl"));
+        shaderProgram = startup.getShaderProgram();
         shaderProgram.setAttributef("a_color", 1f, 1f, 1f, 1f);
 
-        // Load test textures.
-        circleTexture = new Texture(Gdx.files.internal("circle.png"));
-        cubeTexture = new Texture(Gdx.files.internal("cube.png"));
+        // All soft bodies are drawn in one batch, their vertices are generated in parallel.
+        batch = new SoftBodyBatch(shaderProgram, ForkJoinPool.commonPool());
 
-        // Initialize dragging of physics objects.
-        Gdx.input.setInputProcessor(new Inputs());
+        // Test textures.
+        circleTexture = startup.getCircleTexture();
+        cubeTexture = startup.getCubeTexture();
+        textures = new Texture[]{circleTexture, cubeTexture};
+
+        if (replay != null) {
+            try {
+                input = InputLog.read(replay, circleTexture, cubeTexture);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not read " + replay, e);
+            }
+            input.startReplay(scene);
+            return;
+        }
 
-        // Create static world.
-        Body ground = createBounds();
+        input = new InputLog(circleTexture, cubeTexture);
+        if (recording != null) {
+            input.startRecording(scene);
+        }
 
-        // Initialize mouse joint definition.
-        jointDef = new MouseJointDef();
-        jointDef.bodyA = ground;
-        jointDef.collideConnected = true;
-        jointDef.maxForce = 500f;
+        // Initialize dragging of physics objects.
+        Gdx.input.setInputProcessor(new Inputs());
 
         // Add some initial soft bodies.
-        bodies.add(new Circle(circleTexture, world, 1, 3, 3));
-        bodies.add(new Rectangle(cubeTexture, world, 1, 1, 3, 4));
+        input.spawnCircle(scene, 1, 3, 3);
+        input.spawnRectangle(scene, 1, 1, 3, 4);
+
+        if (threaded) {
+            physics = new PhysicsThread(scene, metrics);
+            physics.start();
+        }
     }
 
     @Override
     public void render() {
 
+        // Show an empty screen until everything is loaded.
+        if (scene == null) {
+            if (!startup.update()) {
+                Gdx.gl.glClearColor(0f, 0f, 0f, 1f);
+                Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
+                return;
+            }
+            start();
+        }
+
         // Update camera transforms.
         camera.update();
         camera.unproject(mousePos.set(Gdx.input.getX(), Gdx.input.getY(), 0f));
 
-        Gdx.graphics.setTitle(""
-                + "fps: " + Gdx.graphics.getFramesPerSecond()
-                + " x: " + mousePos.x
-                + " y: " + mousePos.y);
-
-        // Update box2d world, for more info see:
-        // https://github.com/libgdx/libgdx/wiki/Box2d#stepping-the-simulation
-        float frameTime = Math.min(Gdx.graphics.getDeltaTime(), 0.25f);
-        accumulator += frameTime;
-        while (accumulator >= TIME_STEP) {
-            world.step(TIME_STEP, VELOCITY_ITERATIONS, POSITION_ITERATIONS);
-            accumulator -= TIME_STEP;
+        // Pick body tiers for the current view, done before stepping as it recreates bodies.
+        float scale = Gdx.graphics.getWidth() / (camera.viewportWidth * camera.zoom);
+        float halfWidth = camera.viewportWidth * camera.zoom / 2;
+        float halfHeight = camera.viewportHeight * camera.zoom / 2;
+        float x = camera.position.x;
+        float y = camera.position.y;
+
+        // Replays must not depend on the view.
+        if (replay == null) {
+            modify(s -> levelOfDetail.update(s, scale, x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight));
         }
 
+        // Camera is never rotated, so its frustum is the view rectangle.
+        batch.setView(x - halfWidth, y - halfHeight, x + halfWidth, y + halfHeight);
+
         // Cleanup after last rendering.
         Gdx.gl.glClearColor(0f, 0f, 0f, 1f);
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
 
-        // Render soft bodies.
-        shaderProgram.begin();
-        shaderProgram.setUniformMatrix("u_projTrans", camera.combined);
-        shaderProgram.setUniformi("u_texture", 0);
-        bodies.forEach(b -> b.act(shaderProgram));
-        shaderProgram.end();
+        batch.begin(camera.combined);
+        if (physics == null) {
+
+            // Update box2d world, replays take the same steps regardless of frame time.
+            long start = System.nanoTime();
+            int steps;
+
+            if (replay == null) {
+                steps = scene.update(Gdx.graphics.getDeltaTime());
+            } else {
+                for (steps = 0; steps < REPLAY_STEPS; steps++) {
+                    input.replay(scene);
+                    scene.step();
+                }
+            }
+            metrics.recordPhysics(steps, System.nanoTime() - start, scene);
+
+            // Render soft bodies, reading positions of all particles at once.
+            readback.update(scene.getSolver());
 
-        // Render the box2d world.
-        if (box2dDebug) {
-            renderer.render(world, camera.combined);
+            List<SoftBody> bodies = scene.getBodies();
+            for (int i = 0; i < bodies.size(); i++) {
+                SoftBody body = bodies.get(i);
+                body.setPositions(readback);
+                batch.draw(body);
+            }
+        } else {
+            SoftBody[] bodies = physics.acquire();
+            for (SoftBody body : bodies) {
+                batch.draw(body);
+            }
         }
-    }
+        batch.end();
 
-    /**
-     * Create bounding for the level.
-     *
-     * @return ground body.
-     */
-    private Body createBounds() {
+        if (metrics.recordFrame(
+                batch.getUpdateTime(),
+                batch.getUploadedBytes(),
+                batch.getRenderCalls(),
+                batch.getDrawnBodies(),
+                batch.getCulledBodies())) {
 
-        // Left.
-        createWall(-camera.viewportWidth / 2, camera.viewportHeight / 2, true);
+            updateTitle();
+        }
 
-        // Right.
-        createWall(camera.viewportWidth / 2, camera.viewportHeight / 2, true);
+        if (metrics.getTimeToFirstFrame() == 0) {
+            logStartup();
+        }
 
-        // Top.
-        createWall(0, camera.viewportHeight, false);
+        // Render the box2d world, it can not be read while the physics thread is stepping it.
+        if (box2dDebug && physics == null) {
+            renderer.render(scene.getWorld(), camera.combined);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        if (physics != null) {
+            physics.stop();
+        }
+
+        if (recording != null && input != null) {
+            try {
+                input.write(recording);
+            } catch (IOException e) {
+                Gdx.app.error("input", "Could not record " + recording, e);
+            }
+        }
 
-        // Bottom.
-        return createWall(0, 0, false);
+        try {
+            metrics.stopLog();
+        } catch (IOException e) {
+            Gdx.app.error("metrics", "Could not log to " + metricsLog, e);
+        }
+        metrics.unregister();
     }
 
     /**
-     * Create a static wall at a given coordinate.
+     * Record and log how long it took to show the scene, along with how long the render thread
+     * was kept busy meanwhile.
      */
-    private Body createWall(float x, float y, boolean vertical) {
-        float hw = camera.viewportWidth / 2;
-        float hh = WALL_HEIGHT / 2;
+    private void logStartup() {
+        metrics.recordFirstFrame(Startup.uptime());
+
+        Gdx.app.log("startup", String.format(Locale.ROOT,
+                "first frame after %d ms, create took %.1f ms, loading on the render thread %.1f ms",
+                metrics.getTimeToFirstFrame(),
+                createTime / NANOS_PER_MILLI,
+                startup.getLoadingTime() / NANOS_PER_MILLI));
+    }
 
-        BodyDef bodyDef = new BodyDef();
-        bodyDef.position.set(new Vector2(x + hw, y));
-        bodyDef.angle = vertical ? MathUtils.degRad * 90 : 0;
+    /**
+     * Show the latest published metrics in the window title, only done once per metrics interval
+     * as building the title allocates.
+     */
+    private void updateTitle() {
+        StepController controller = scene.getController();
+        Gdx.graphics.setTitle(String.format(Locale.ROOT,
+                "fps: %.0f frame 99%%: %.1f ms physics 99%%: %.1f ms drawn/culled: %.0f/%.0f iterations: %d degraded: %d/%d/%d lod saved: %d/%d",
+                metrics.getFramesPerSecond(),
+                metrics.getFrameTime99(),
+                metrics.getPhysicsTime99(),
+                metrics.getDrawnBodiesPerFrame(),
+                metrics.getCulledBodiesPerFrame(),
+                controller.getIterations(),
+                controller.getReducedIterationFrames(),
+                controller.getLongerStepFrames(),
+                controller.getDroppedFrames(),
+                levelOfDetail.getSavedParticles(),
+                levelOfDetail.getSavedConstraints()));
+    }
 
-        Body body = world.createBody(bodyDef);
+    /**
+     * Apply a change to the scene, on the physics thread if there is one.
+     */
+    private void modify(Consumer<Scene> command) {
+        if (physics == null) {
+            command.accept(scene);
+        } else {
+            physics.execute(command);
+        }
+    }
 
-        PolygonShape box = new PolygonShape();
-        box.setAsBox(hw, hh);
+    /**
+     * @return path following a given option, null if the option is not given.
+     */
+    private static Path option(List<String> options, String name) {
+        int index = options.indexOf(name);
+        return index >= 0 && index + 1 < options.size() ? Paths.get(options.get(index + 1)) : null;
+    }
 
-        body.createFixture(box, 0.0f);
-        box.dispose();
+    private void save(Scene scene) {
+        try {
+            snapshot.write(scene, texture -> Arrays.asList(textures).indexOf(texture), SNAPSHOT);
+        } catch (IOException e) {
+            Gdx.app.error("snapshot", "Could not save " + SNAPSHOT, e);
+        }
+    }
 
-        return body;
+    private void restore(Scene scene) {
+        try {
+            SceneSnapshot.read(SNAPSHOT, scene, id -> textures[id]);
+        } catch (IOException e) {
+            Gdx.app.error("snapshot", "Could not restore " + SNAPSHOT, e);
+        }
     }
 
     /**
@@ -213,73 +403,68 @@ public class SoftBodyTests extends Game {
                 case Input.Keys.NUM_3:
                     return switchMode(Mode.SPAWN_CIRCLES);
 
+                case Input.Keys.B:
+                    return switchBracing();
+
+                case Input.Keys.M:
+                    return switchRefinement();
+
                 case Input.Keys.GRAVE:
                     box2dDebug = !box2dDebug;
                     return true;
 
+                case Input.Keys.F5:
+                    modify(SoftBodyTests.this::save);
+                    return true;
+
+                case Input.Keys.F9:
+                    modify(SoftBodyTests.this::restore);
+                    return true;
+
                 case Input.Keys.R:
-                    bodies.clear();
-
-                    // Cleanup all bodies and joints, exclude static bodies.
-                    Array<Body> bodies = new Array<>();
-                    world.getBodies(bodies);
-                    bodies.forEach(b -> {
-                        if (BodyDef.BodyType.StaticBody != b.getType()) {
-                            world.destroyBody(b);
-                        }
-                    });
-
-                    Array<Joint> joints = new Array<>();
-                    world.getJoints(joints);
-                    joints.forEach(j -> world.destroyJoint(j));
-
-                    // Prevent crash.
-                    joint = null;
+
+                    // Shift drops the whole world instead of recycling the bodies.
+                    if (Gdx.input.isKeyPressed(Input.Keys.SHIFT_LEFT)) {
+                        modify(input::reset);
+                    } else {
+                        modify(input::clear);
+                    }
                     return true;
             }
             return false;
         }
 
+        @Override
+        public boolean scrolled(int amount) {
+            camera.zoom = MathUtils.clamp(camera.zoom * (float) Math.pow(ZOOM_STEP, amount), MIN_ZOOM, MAX_ZOOM);
+            return true;
+        }
+
         @Override
         public boolean touchDown(int screenX, int screenY, int pointer, int button) {
             camera.unproject(mousePos.set(screenX, screenY, 0));
 
+            // Commands may run later on the physics thread, so capture values instead of fields.
+            float x = mousePos.x;
+            float y = mousePos.y;
+            Bracing bracing = SoftBodyTests.this.bracing;
+
             switch (mode) {
                 case SPAWN_RECTANGLES:
-                    bodies.add(new Rectangle(
-                            cubeTexture,
-                            world,
-                            mousePos.x,
-                            mousePos.y,
-                            MathUtils.random(2, 5),
-                            MathUtils.random(2, 5)
-                    ));
+                    int width = MathUtils.random(2, 5);
+                    int height = MathUtils.random(2, 5);
+
+                    modify(s -> input.spawnRectangle(s, x, y, width, height, bracing));
                     break;
 
                 case SPAWN_CIRCLES:
-                    bodies.add(new Circle(
-                            circleTexture,
-                            world,
-                            MathUtils.random(0.2f, 1f),
-                            mousePos.x,
-                            mousePos.y
-                    ));
+                    float radius = MathUtils.random(0.2f, 1f);
+
+                    modify(s -> input.spawnCircle(s, radius, bracing, x, y));
                     break;
 
                 case DRAG_BODIES:
-                    world.QueryAABB(fixture -> {
-
-                        if (BodyDef.BodyType.StaticBody == fixture.getBody().getType()) {
-                            return false;
-                        }
-
-                        jointDef.bodyB = fixture.getBody();
-                        jointDef.target.set(mousePos.x, mousePos.y);
-                        joint = (MouseJoint) world.createJoint(jointDef);
-
-                        return false;
-
-                    }, mousePos.x - 0.2f, mousePos.y - 0.2f, mousePos.x + 0.2f, mousePos.y + 0.2f);
+                    modify(s -> input.grab(s, x, y));
                     break;
             }
             return true;
@@ -287,23 +472,26 @@ public class SoftBodyTests extends Game {
 
         @Override
         public boolean touchDragged(int screenX, int screenY, int pointer) {
-            if (joint == null) {
+            if (mode != Mode.DRAG_BODIES) {
                 return false;
             }
 
             camera.unproject(mousePos.set(screenX, screenY, 0));
-            joint.setTarget(target.set(mousePos.x, mousePos.y));
+
+            float x = mousePos.x;
+            float y = mousePos.y;
+
+            modify(s -> input.drag(s, x, y));
             return true;
         }
 
         @Override
         public boolean touchUp(int screenX, int screenY, int pointer, int button) {
-            if (joint == null || button == 1) {
+            if (mode != Mode.DRAG_BODIES || button == 1) {
                 return false;
             }
 
-            world.destroyJoint(joint);
-            joint = null;
+            modify(input::release);
             return true;
         }
     }
@@ -318,6 +506,28 @@ public class SoftBodyTests extends Game {
         return true;
     }
 
+    /**
+     * Switch bracing of spawned bodies to the next one.
+     */
+    private boolean switchBracing() {
+        bracing = Bracing.values()[(bracing.ordinal() + 1) % Bracing.values().length];
+
+        System.out.println("Bracing: " + bracing);
+        return true;
+    }
+
+    /**
+     * Double the mesh refinement bodies are drawn with, starting over once it is past the most
+     * bodies can be refined to.
+     */
+    private boolean switchRefinement() {
+        int refinement = batch.getRefinement() * 2;
+        batch.setRefinement(refinement <= Spline.MAX_REFINEMENT ? refinement : 1);
+
+        System.out.println("Refinement: " + batch.getRefinement());
+        return true;
+    }
+
     /**
      * @return number converted to meters.
      */
@@ -0,0 +1,100 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.Vector2;
+
+/**
+ * Backend which simulates soft body particles and constraints between them. Particles are
+ * referred to by ids returned when creating them.
+ */
+public interface Solver extends ParticlePositions, ParticleSink {
+
+    /**
+     * Remove particles along with all constraints connected to them. Ids of removed particles
+     * are reused by particles created later, their positions are undefined until then.
+     */
+    void destroyParticles(int[] particles);
+
+    /**
+     * Enable or disable particles along with constraints between them. Inactive particles are
+     * not simulated and do not collide, but keep their constraints so they can be reused.
+     */
+    void setActive(int[] particles, boolean active);
+
+    /**
+     * Move a particle without changing its velocity, particle must not be frozen.
+     */
+    void setPosition(int particle, float x, float y);
+
+    /**
+     * Read current particle velocity.
+     *
+     * @param out vector to write the velocity to.
+     * @return the given vector.
+     */
+    Vector2 getVelocity(int particle, Vector2 out);
+
+    /**
+     * Change particle velocity, particle must not be frozen.
+     */
+    void setVelocity(int particle, float x, float y);
+
+    /**
+     * Copy positions of all particles in one pass, as x, y pairs indexed by particle id, so that
+     * they can be read without touching the solver, such as from other threads. Costs about as
+     * much as reading each particle once, box2d solvers still cross JNI once per particle.
+     * Positions of removed particles are undefined.
+     *
+     * @param out array of at least {@link #getParticleCount()} * 2 floats.
+     */
+    void readPositions(float[] out);
+
+    /**
+     * Replace particles and constraints between them with a single rigid body keeping their
+     * current layout. Particles must not be connected to any particles outside of the given ones.
+     *
+     * @return whether particles were frozen, solvers without rigid bodies never freeze.
+     */
+    boolean freeze(int[] particles);
+
+    /**
+     * Restore frozen particles within a given area, along with constraints between them.
+     */
+    void thaw(float minX, float minY, float maxX, float maxY);
+
+    /**
+     * @return whether a particle is frozen. Frozen particles are thawed by the solver once hit.
+     */
+    boolean isFrozen(int particle);
+
+    /**
+     * @return highest speed among given particles, in m/s.
+     */
+    float getMaxSpeed(int[] particles);
+
+    /**
+     * Advance the simulation by a single time step.
+     *
+     * @param iterations constraint solver iterations, fewer is faster but softer.
+     */
+    void step(float timeStep, int iterations);
+
+    /**
+     * @return solver iterations giving full quality.
+     */
+    int getIterations();
+
+    /**
+     * Remove all particles and constraints.
+     */
+    void clear();
+
+    /**
+     * @return one past the highest particle id handed out, including removed particles whose ids
+     * were not reused yet.
+     */
+    int getParticleCount();
+
+    int getConstraintCount();
+
+    void dispose();
+}
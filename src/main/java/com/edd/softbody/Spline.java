@@ -0,0 +1,132 @@
+package com.edd.softbody;
+
+/**
+ * Catmull-Rom splines through particle positions, used to draw smooth meshes over bodies
+ * simulated with few particles. Splines pass through every given point, points in between are
+ * weighted sums of the four points around them, see:
+ * https://en.wikipedia.org/wiki/Cubic_Hermite_spline#Catmull%E2%80%93Rom_spline
+ */
+final class Spline {
+
+    /**
+     * Most points a spline is refined to between each two given points.
+     */
+    static final int MAX_REFINEMENT = 8;
+
+    // Weights of the four points around each refinement step, by refinement.
+    private static final float[][] WEIGHTS = new float[MAX_REFINEMENT + 1][];
+
+    static {
+        for (int refinement = 1; refinement <= MAX_REFINEMENT; refinement++) {
+            float[] weights = new float[refinement * 4];
+
+            for (int step = 0; step < refinement; step++) {
+                float t = (float) step / refinement;
+                float t2 = t * t;
+                float t3 = t2 * t;
+
+                weights[step * 4] = 0.5f * (-t3 + 2 * t2 - t);
+                weights[step * 4 + 1] = 0.5f * (3 * t3 - 5 * t2 + 2);
+                weights[step * 4 + 2] = 0.5f * (-3 * t3 + 4 * t2 + t);
+                weights[step * 4 + 3] = 0.5f * (t3 - t2);
+            }
+            WEIGHTS[refinement] = weights;
+        }
+    }
+
+    private Spline() {
+    }
+
+    /**
+     * @param count number of points the spline goes through.
+     * @return number of points a spline is refined to.
+     */
+    static int count(int count, boolean closed, int refinement) {
+        return closed ? count * refinement : Math.max(0, count - 1) * refinement + 1;
+    }
+
+    /**
+     * Refine a spline through given points, writing refinement points from each given point
+     * to the next one, the first of which is the given point itself.
+     *
+     * @param in        x, y pairs of points the spline goes through.
+     * @param inOffset  index of the first point's x.
+     * @param count     number of points the spline goes through.
+     * @param closed    whether the spline continues from the last point to the first one. Open
+     *                  splines are extended past their ends in straight lines.
+     * @param out       array refined x, y pairs are written to, see {@link #count(int, boolean, int)}.
+     * @param outOffset index the first refined point's x is written to.
+     * @param outStride floats from one refined point to the next.
+     */
+    static void refine(float[] in,
+                       int inOffset,
+                       int count,
+                       boolean closed,
+                       int refinement,
+                       float[] out,
+                       int outOffset,
+                       int outStride) {
+
+        float[] weights = WEIGHTS[refinement];
+        int segments = closed ? count : count - 1;
+
+        int idx = outOffset;
+        for (int i = 0; i < segments; i++) {
+            int p1 = inOffset + i * 2;
+            int p2 = inOffset + (i + 1) % count * 2;
+
+            float x1 = in[p1];
+            float y1 = in[p1 + 1];
+            float x2 = in[p2];
+            float y2 = in[p2 + 1];
+
+            out[idx] = x1;
+            out[idx + 1] = y1;
+            idx += outStride;
+
+            if (refinement == 1) {
+                continue;
+            }
+
+            // Points past the ends of open splines continue the end segments.
+            float x0;
+            float y0;
+            if (i > 0 || closed) {
+                int p0 = inOffset + (i + count - 1) % count * 2;
+                x0 = in[p0];
+                y0 = in[p0 + 1];
+            } else {
+                x0 = 2 * x1 - x2;
+                y0 = 2 * y1 - y2;
+            }
+
+            float x3;
+            float y3;
+            if (i + 2 < count || closed) {
+                int p3 = inOffset + (i + 2) % count * 2;
+                x3 = in[p3];
+                y3 = in[p3 + 1];
+            } else {
+                x3 = 2 * x2 - x1;
+                y3 = 2 * y2 - y1;
+            }
+
+            for (int step = 1; step < refinement; step++) {
+                float w0 = weights[step * 4];
+                float w1 = weights[step * 4 + 1];
+                float w2 = weights[step * 4 + 2];
+                float w3 = weights[step * 4 + 3];
+
+                out[idx] = w0 * x0 + w1 * x1 + w2 * x2 + w3 * x3;
+                out[idx + 1] = w0 * y0 + w1 * y1 + w2 * y2 + w3 * y3;
+                idx += outStride;
+            }
+        }
+
+        if (!closed && count > 0) {
+            int last = inOffset + (count - 1) * 2;
+            out[idx] = in[last];
+            out[idx + 1] = in[last + 1];
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.glutils.PixmapTextureData;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Loads what the app needs before showing the scene without blocking the render thread, so that
+ * the window shows up and keeps responding while loading. Box2d natives and body templates are
+ * loaded, the scene is built, textures are decoded and shader sources are read on a loading
+ * thread. Only texture uploads and shader compilation are left to the render thread, as they need
+ * the GL context. Metrics are registered over JMX on the loading thread as well, once the rest is
+ * loaded, as starting the platform MBean server takes as long as everything else.
+ * <p>
+ * Runs itself rather than a lambda, bootstrapping the first lambda of the JVM takes tens of
+ * millis, which are better spent on the loading thread.
+ */
+final class Startup implements Runnable {
+
+    private static final String CIRCLE_TEXTURE = "circle.png";
+    private static final String CUBE_TEXTURE = "cube.png";
+    private static final String VERTEX_SHADER = "vertex.glsl";
+    private static final String FRAGMENT_SHADER = "fragment.glsl";
+
+    private final float width;
+    private final float height;
+    private final FrameMetrics metrics;
+
+    // Written by the loading thread before it sets loaded.
+    private Scene scene;
+    private Pixmap circlePixmap;
+    private Pixmap cubePixmap;
+    private String vertexShader;
+    private String fragmentShader;
+    private RuntimeException failure;
+    private volatile boolean loaded;
+
+    // Render thread state, set once loaded.
+    private Texture circleTexture;
+    private Texture cubeTexture;
+    private ShaderProgram shaderProgram;
+    private long loadingTime;
+
+    /**
+     * Start loading, must be called on the render thread.
+     *
+     * @param width  scene width, see {@link Scene#Scene(float, float)}.
+     * @param height scene height.
+     * @param metrics registered once loaded.
+     */
+    Startup(float width, float height, FrameMetrics metrics) {
+        this.width = width;
+        this.height = height;
+        this.metrics = metrics;
+
+        Thread thread = new Thread(this, "startup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Loads everything which does not need the GL context, on the loading thread.
+     */
+    @Override
+    public void run() {
+        try {
+
+            // Bootstraps lambdas, so that the render thread does not on its first frame.
+            Runnable lambda = () -> {
+            };
+            lambda.run();
+
+            SoftBodyTemplates.load();
+            scene = new Scene(width, height);
+
+            circlePixmap = new Pixmap(Gdx.files.internal(CIRCLE_TEXTURE));
+            cubePixmap = new Pixmap(Gdx.files.internal(CUBE_TEXTURE));
+            vertexShader = Gdx.files.internal(VERTEX_SHADER).readString();
+            fragmentShader = Gdx.files.internal(FRAGMENT_SHADER).readString();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        loaded = true;
+
+        // Nothing shown waits for metrics.
+        if (failure == null) {
+            metrics.register();
+        }
+    }
+
+    /**
+     * Finish loading if the loading thread is done, must be called on the render thread.
+     *
+     * @return whether everything is loaded.
+     */
+    boolean update() {
+        if (!loaded) {
+            return false;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (shaderProgram != null) {
+            return true;
+        }
+
+        long start = System.nanoTime();
+
+        // Pixmaps are disposed once uploaded.
+        circleTexture = new Texture(new PixmapTextureData(circlePixmap, null, false, true));
+        cubeTexture = new Texture(new PixmapTextureData(cubePixmap, null, false, true));
+        circlePixmap = null;
+        cubePixmap = null;
+
+        shaderProgram = new ShaderProgram(vertexShader, fragmentShader);
+        if (!shaderProgram.isCompiled()) {
+            Gdx.app.error("startup", "Could not compile shaders: " + shaderProgram.getLog());
+        }
+
+        loadingTime = System.nanoTime() - start;
+        return true;
+    }
+
+    /**
+     * @return time the render thread spent loading, in nanos.
+     */
+    long getLoadingTime() {
+        return loadingTime;
+    }
+
+    /**
+     * @return built scene, only once loaded.
+     */
+    Scene getScene() {
+        return scene;
+    }
+
+    Texture getCircleTexture() {
+        return circleTexture;
+    }
+
+    Texture getCubeTexture() {
+        return cubeTexture;
+    }
+
+    ShaderProgram getShaderProgram() {
+        return shaderProgram;
+    }
+
+    /**
+     * @return millis since the JVM started.
+     */
+    static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
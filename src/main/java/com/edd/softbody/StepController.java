@@ -0,0 +1,251 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.MathUtils;
+
+/**
+ * Fixed time step accumulator which keeps physics within a per frame time budget. Measures how
+ * long solver iterations take and when a frame would not fit the budget lowers quality, within
+ * the stability bounds of the bodies in the scene, in this order:
+ * <ol>
+ * <li>fewer solver iterations per step</li>
+ * <li>fewer, longer steps</li>
+ * <li>dropping simulated time, physics then runs slower than real time</li>
+ * </ol>
+ * Full quality is restored as soon as the frame fits the budget again.
+ */
+public final class StepController {
+
+    // Weight of the newest measurement in the average step cost.
+    private static final float SMOOTHING = 0.1f;
+
+    // Rate at which costs of unused iterations approach the measured cost, so that a single
+    // expensive measurement does not keep quality low forever.
+    private static final float DECAY = 0.01f;
+
+    private final Solver solver;
+
+    // Frame budget in nanos, unlimited by default.
+    private float budget = Float.POSITIVE_INFINITY;
+
+    // Stability bounds of the bodies in the scene.
+    private int minIterations = 1;
+    private float maxTimeStep = Float.POSITIVE_INFINITY;
+
+    // Average cost of a single step in nanos, indexed by iterations, zero until measured. Collision
+    // detection does not depend on iterations, so the cost is not proportional to them.
+    private final float[] stepCosts;
+
+    private float accumulator = 0;
+
+    // Settings of the last frame.
+    private int iterations;
+    private float timeStep = Scene.TIME_STEP;
+
+    // Degradation counters.
+    private int frames;
+    private int reducedIterationFrames;
+    private int longerStepFrames;
+    private int droppedFrames;
+    private float droppedTime;
+
+    public StepController(Solver solver) {
+        this.solver = solver;
+        this.iterations = solver.getIterations();
+        this.stepCosts = new float[iterations + 1];
+    }
+
+    /**
+     * Advance the simulation by a given frame time, for more info on fixed steps see:
+     * https://github.com/libgdx/libgdx/wiki/Box2d#stepping-the-simulation
+     *
+     * @param delta frame time in seconds.
+     * @return number of steps taken.
+     */
+    public int update(float delta) {
+        accumulator += Math.min(delta, Scene.MAX_FRAME_TIME);
+        frames++;
+
+        int maxSteps = plan();
+
+        int steps = 0;
+        while (accumulator >= timeStep && steps < maxSteps) {
+            long start = System.nanoTime();
+            solver.step(timeStep, iterations);
+            measure(System.nanoTime() - start);
+
+            accumulator -= timeStep;
+            steps++;
+        }
+
+        // Out of budget, skip the rest instead of catching up in later frames.
+        if (accumulator >= timeStep) {
+            float remainder = accumulator % timeStep;
+
+            droppedTime += accumulator - remainder;
+            droppedFrames++;
+            accumulator = remainder;
+        }
+        return steps;
+    }
+
+    /**
+     * Pick iterations and time step for the current frame.
+     *
+     * @return max number of steps fitting the budget.
+     */
+    private int plan() {
+        int fullIterations = stepCosts.length - 1;
+
+        iterations = fullIterations;
+        timeStep = Scene.TIME_STEP;
+
+        float steps = accumulator / Scene.TIME_STEP;
+        if (steps < 1 || steps * estimate(fullIterations) <= budget) {
+            return Integer.MAX_VALUE;
+        }
+
+        int lowest = MathUtils.clamp(minIterations, 1, fullIterations);
+
+        // Fewer iterations only make bodies softer, so they are tried first.
+        reducedIterationFrames++;
+        while (iterations > lowest) {
+            iterations--;
+
+            if (steps * estimate(iterations) <= budget) {
+                return Integer.MAX_VALUE;
+            }
+        }
+
+        // Longer steps can make bodies unstable, so they are bounded by the bodies in the scene.
+        int affordableSteps = Math.max(1, (int) (budget / estimate(iterations)));
+        timeStep = MathUtils.clamp(accumulator / affordableSteps, Scene.TIME_STEP, Math.max(Scene.TIME_STEP, maxTimeStep));
+        longerStepFrames++;
+
+        return affordableSteps;
+    }
+
+    /**
+     * @return average step cost at given iterations in nanos, taken from the closest measured
+     * iterations if not measured yet, preferring more iterations as those cost more.
+     */
+    private float estimate(int iterations) {
+        for (int i = iterations; i < stepCosts.length; i++) {
+            if (stepCosts[i] > 0) {
+                return stepCosts[i];
+            }
+        }
+        for (int i = iterations - 1; i > 0; i--) {
+            if (stepCosts[i] > 0) {
+                return stepCosts[i];
+            }
+        }
+        return 0;
+    }
+
+    private void measure(long nanos) {
+        float cost = stepCosts[iterations];
+
+        cost = cost == 0 ? nanos : cost + (nanos - cost) * SMOOTHING;
+        stepCosts[iterations] = cost;
+
+        for (int i = 1; i < stepCosts.length; i++) {
+            if (i != iterations && stepCosts[i] > 0) {
+                stepCosts[i] += (cost - stepCosts[i]) * DECAY;
+            }
+        }
+    }
+
+    /**
+     * Narrow stability bounds to fit a given body.
+     */
+    public void addBounds(SoftBody body) {
+        minIterations = Math.max(minIterations, body.getMinIterations());
+        maxTimeStep = Math.min(maxTimeStep, body.getMaxTimeStep());
+    }
+
+    /**
+     * Reset stability bounds, called once all bodies are removed.
+     */
+    public void clearBounds() {
+        minIterations = 1;
+        maxTimeStep = Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @param millis time physics may take per frame, {@link Float#POSITIVE_INFINITY} for no limit.
+     */
+    public void setBudget(float millis) {
+        this.budget = millis * 1_000_000f;
+    }
+
+    /**
+     * @return time physics may take per frame, in millis.
+     */
+    public float getBudget() {
+        return budget / 1_000_000f;
+    }
+
+    /**
+     * @return solver iterations used in the last frame.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * @return time step used in the last frame, in seconds.
+     */
+    public float getTimeStep() {
+        return timeStep;
+    }
+
+    /**
+     * @return average cost of a single step at full quality, in millis.
+     */
+    public float getStepCost() {
+        return stepCosts[stepCosts.length - 1] / 1_000_000f;
+    }
+
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return number of frames which used fewer solver iterations.
+     */
+    public int getReducedIterationFrames() {
+        return reducedIterationFrames;
+    }
+
+    /**
+     * @return number of frames which used longer time steps.
+     */
+    public int getLongerStepFrames() {
+        return longerStepFrames;
+    }
+
+    /**
+     * @return number of frames which dropped simulated time.
+     */
+    public int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return total simulated time dropped, in seconds.
+     */
+    public float getDroppedTime() {
+        return droppedTime;
+    }
+
+    /**
+     * Reset degradation counters, bounds and measurements are kept.
+     */
+    public void resetCounters() {
+        frames = 0;
+        reducedIterationFrames = 0;
+        longerStepFrames = 0;
+        droppedFrames = 0;
+        droppedTime = 0;
+    }
+}
@@ -0,0 +1,528 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * Pure java position based solver (XPBD). All state is kept in flat primitive arrays,
+ * one array per component, indexed by particle or constraint id. Particles collide only
+ * with the level bounds, not with each other. For more info see:
+ * http://mmacklin.com/xpbd.pdf
+ */
+public final class XpbdSolver implements Solver {
+
+    // Constraint projection passes per step.
+    private static final int ITERATIONS = 4;
+
+    // Initial capacity of particle and constraint arrays.
+    private static final int CAPACITY = 256;
+
+    // Mass of a particle with the same density and radius as box2d bodies.
+    private static final float MASS = SoftBody.DENSITY * MathUtils.PI * SoftBody.RADIUS * SoftBody.RADIUS;
+
+    // Level bounds, already shrunk by particle radius.
+    private final float minX;
+    private final float minY;
+    private final float maxX;
+    private final float maxY;
+
+    private final float gravity;
+
+    // Particles.
+    private int particleCount;
+    private float[] x = new float[CAPACITY];
+    private float[] y = new float[CAPACITY];
+    private float[] prevX = new float[CAPACITY];
+    private float[] prevY = new float[CAPACITY];
+    private float[] velX = new float[CAPACITY];
+    private float[] velY = new float[CAPACITY];
+    private float[] inverseMass = new float[CAPACITY];
+    private boolean[] removed = new boolean[CAPACITY];
+
+    // Ids of removed particles, reused before new ones are handed out.
+    private final IntArray freeParticles = new IntArray();
+
+    // Distance constraints.
+    private int distanceCount;
+    private int[] distanceA = new int[CAPACITY];
+    private int[] distanceB = new int[CAPACITY];
+    private float[] distanceRest = new float[CAPACITY];
+    private float[] distanceCompliance = new float[CAPACITY];
+    private float[] distanceDamping = new float[CAPACITY];
+    private float[] distanceLambda = new float[CAPACITY];
+
+    // Area constraints, these are hard constraints with zero compliance.
+    // Particles of each ring are stored in a shared array.
+    private int areaCount;
+    private int[] areaStart = new int[CAPACITY];
+    private int[] areaLength = new int[CAPACITY];
+    private float[] areaRest = new float[CAPACITY];
+
+    private int ringLength;
+    private int[] rings = new int[CAPACITY];
+
+    // Pressure and shape matching constraints.
+    private final ShapeConstraints shapes = new ShapeConstraints();
+    private final ShapeConstraints.Particles predicted = new Predicted();
+
+    /**
+     * @param minX    left bound of the level.
+     * @param minY    bottom bound of the level.
+     * @param maxX    right bound of the level.
+     * @param maxY    top bound of the level.
+     * @param gravity gravity along y axis.
+     */
+    public XpbdSolver(float minX, float minY, float maxX, float maxY, float gravity) {
+        this.minX = minX + SoftBody.RADIUS;
+        this.minY = minY + SoftBody.RADIUS;
+        this.maxX = maxX - SoftBody.RADIUS;
+        this.maxY = maxY - SoftBody.RADIUS;
+        this.gravity = gravity;
+    }
+
+    @Override
+    public int createParticle(float x, float y) {
+        if (freeParticles.size > 0) {
+            return initParticle(freeParticles.pop(), x, y);
+        }
+
+        if (particleCount == this.x.length) {
+            int capacity = particleCount * 2;
+
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            prevX = Arrays.copyOf(prevX, capacity);
+            prevY = Arrays.copyOf(prevY, capacity);
+            velX = Arrays.copyOf(velX, capacity);
+            velY = Arrays.copyOf(velY, capacity);
+            inverseMass = Arrays.copyOf(inverseMass, capacity);
+            removed = Arrays.copyOf(removed, capacity);
+        }
+
+        return initParticle(particleCount++, x, y);
+    }
+
+    @Override
+    public void createDistanceConstraint(int a, int b, float frequency, float damping) {
+        if (distanceCount == distanceA.length) {
+            int capacity = distanceCount * 2;
+
+            distanceA = Arrays.copyOf(distanceA, capacity);
+            distanceB = Arrays.copyOf(distanceB, capacity);
+            distanceRest = Arrays.copyOf(distanceRest, capacity);
+            distanceCompliance = Arrays.copyOf(distanceCompliance, capacity);
+            distanceDamping = Arrays.copyOf(distanceDamping, capacity);
+            distanceLambda = Arrays.copyOf(distanceLambda, capacity);
+        }
+
+        // Same spring as a box2d distance joint, stiffness and damping
+        // derived from frequency and damping ratio of the spring.
+        float mass = 1 / (inverseMass[a] + inverseMass[b]);
+        float omega = MathUtils.PI2 * frequency;
+        float stiffness = mass * omega * omega;
+
+        int id = distanceCount++;
+        distanceA[id] = a;
+        distanceB[id] = b;
+        distanceRest[id] = Vector2.dst(x[a], y[a], x[b], y[b]);
+        distanceCompliance[id] = 1 / stiffness;
+        distanceDamping[id] = 2 * mass * damping * omega;
+    }
+
+    @Override
+    public void createAreaConstraint(int[] ring) {
+        if (areaCount == areaStart.length) {
+            int capacity = areaCount * 2;
+
+            areaStart = Arrays.copyOf(areaStart, capacity);
+            areaLength = Arrays.copyOf(areaLength, capacity);
+            areaRest = Arrays.copyOf(areaRest, capacity);
+        }
+
+        if (ringLength + ring.length > rings.length) {
+            rings = Arrays.copyOf(rings, Math.max(rings.length * 2, ringLength + ring.length));
+        }
+
+        int id = areaCount++;
+        areaStart[id] = ringLength;
+        areaLength[id] = ring.length;
+
+        System.arraycopy(ring, 0, rings, ringLength, ring.length);
+        ringLength += ring.length;
+
+        areaRest[id] = area(id);
+    }
+
+    @Override
+    public void createPressureConstraint(int[] ring, float stiffness) {
+        shapes.addPressure(ring, stiffness, this);
+    }
+
+    @Override
+    public void createShapeConstraint(int[] particles, float stiffness) {
+        shapes.addShape(particles, stiffness, this);
+    }
+
+    @Override
+    public void destroyParticles(int[] particles) {
+
+        // Removed particles have no mass, so nothing can move them.
+        for (int particle : particles) {
+            inverseMass[particle] = 0;
+            velX[particle] = 0;
+            velY[particle] = 0;
+            removed[particle] = true;
+        }
+
+        // Compact constraints, keeping the order of the remaining ones.
+        int distances = 0;
+        for (int c = 0; c < distanceCount; c++) {
+            if (removed[distanceA[c]] || removed[distanceB[c]]) {
+                continue;
+            }
+
+            distanceA[distances] = distanceA[c];
+            distanceB[distances] = distanceB[c];
+            distanceRest[distances] = distanceRest[c];
+            distanceCompliance[distances] = distanceCompliance[c];
+            distanceDamping[distances] = distanceDamping[c];
+            distances++;
+        }
+        distanceCount = distances;
+
+        int areas = 0;
+        int length = 0;
+        for (int c = 0; c < areaCount; c++) {
+            if (isRemoved(c)) {
+                continue;
+            }
+
+            System.arraycopy(rings, areaStart[c], rings, length, areaLength[c]);
+
+            areaStart[areas] = length;
+            areaLength[areas] = areaLength[c];
+            areaRest[areas] = areaRest[c];
+
+            length += areaLength[c];
+            areas++;
+        }
+        areaCount = areas;
+        ringLength = length;
+
+        shapes.remove(particles);
+
+        // Constraints no longer refer to removed particles, so their ids can be handed out again.
+        freeParticles.addAll(particles);
+    }
+
+    @Override
+    public void setActive(int[] particles, boolean active) {
+
+        // Same as removed particles, but constraints are kept around.
+        for (int particle : particles) {
+            inverseMass[particle] = active ? 1 / MASS : 0;
+            velX[particle] = 0;
+            velY[particle] = 0;
+        }
+        shapes.setActive(particles, active);
+    }
+
+    @Override
+    public void setPosition(int particle, float x, float y) {
+        this.x[particle] = x;
+        this.y[particle] = y;
+    }
+
+    @Override
+    public Vector2 getVelocity(int particle, Vector2 out) {
+        return out.set(velX[particle], velY[particle]);
+    }
+
+    @Override
+    public void setVelocity(int particle, float x, float y) {
+        velX[particle] = x;
+        velY[particle] = y;
+    }
+
+    @Override
+    public Vector2 getPosition(int particle, Vector2 out) {
+        return out.set(x[particle], y[particle]);
+    }
+
+    @Override
+    public void readPositions(float[] out) {
+        for (int i = 0; i < particleCount; i++) {
+            out[i * 2] = x[i];
+            out[i * 2 + 1] = y[i];
+        }
+    }
+
+    @Override
+    public boolean freeze(int[] particles) {
+
+        // Particles are cheap enough on their own, there are no rigid bodies to freeze into.
+        return false;
+    }
+
+    @Override
+    public void thaw(float minX, float minY, float maxX, float maxY) {
+    }
+
+    @Override
+    public boolean isFrozen(int particle) {
+        return false;
+    }
+
+    @Override
+    public float getMaxSpeed(int[] particles) {
+        float max = 0;
+        for (int particle : particles) {
+            max = Math.max(max, velX[particle] * velX[particle] + velY[particle] * velY[particle]);
+        }
+        return (float) Math.sqrt(max);
+    }
+
+    @Override
+    public void step(float timeStep, int iterations) {
+
+        // Predict positions.
+        for (int i = 0; i < particleCount; i++) {
+            if (inverseMass[i] != 0) {
+                velY[i] += gravity * timeStep;
+            }
+
+            prevX[i] = x[i];
+            prevY[i] = y[i];
+
+            x[i] += velX[i] * timeStep;
+            y[i] += velY[i] * timeStep;
+        }
+
+        // Group constraints are solved once, links then settle particles around their corrections.
+        shapes.solve(predicted);
+
+        Arrays.fill(distanceLambda, 0, distanceCount, 0);
+
+        for (int i = 0; i < iterations; i++) {
+            solveDistances(timeStep);
+            solveAreas();
+        }
+        collide();
+
+        // Derive velocities from position change.
+        for (int i = 0; i < particleCount; i++) {
+            velX[i] = (x[i] - prevX[i]) / timeStep;
+            velY[i] = (y[i] - prevY[i]) / timeStep;
+        }
+    }
+
+    @Override
+    public int getIterations() {
+        return ITERATIONS;
+    }
+
+    @Override
+    public void clear() {
+        particleCount = 0;
+        freeParticles.clear();
+        distanceCount = 0;
+        areaCount = 0;
+        ringLength = 0;
+        shapes.clear();
+    }
+
+    @Override
+    public int getParticleCount() {
+        return particleCount;
+    }
+
+    @Override
+    public int getConstraintCount() {
+        return distanceCount + areaCount + shapes.size();
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    /**
+     * Place a particle at a given position, at rest.
+     *
+     * @return given particle id.
+     */
+    private int initParticle(int id, float x, float y) {
+        this.x[id] = x;
+        this.y[id] = y;
+        velX[id] = 0;
+        velY[id] = 0;
+        inverseMass[id] = 1 / MASS;
+        removed[id] = false;
+        return id;
+    }
+
+    private void solveDistances(float timeStep) {
+        for (int c = 0; c < distanceCount; c++) {
+            int a = distanceA[c];
+            int b = distanceB[c];
+
+            float dx = x[a] - x[b];
+            float dy = y[a] - y[b];
+
+            float len = (float) Math.sqrt(dx * dx + dy * dy);
+            if (len == 0) {
+                continue;
+            }
+
+            float nx = dx / len;
+            float ny = dy / len;
+
+            float alpha = distanceCompliance[c] / (timeStep * timeStep);
+            float gamma = distanceCompliance[c] * distanceDamping[c] / timeStep;
+
+            // Relative velocity along the constraint, used for damping.
+            float relative = nx * (x[a] - prevX[a] - x[b] + prevX[b])
+                    + ny * (y[a] - prevY[a] - y[b] + prevY[b]);
+
+            float weight = inverseMass[a] + inverseMass[b];
+            float error = len - distanceRest[c];
+
+            float delta = (-error - alpha * distanceLambda[c] - gamma * relative)
+                    / ((1 + gamma) * weight + alpha);
+
+            distanceLambda[c] += delta;
+
+            x[a] += inverseMass[a] * delta * nx;
+            y[a] += inverseMass[a] * delta * ny;
+            x[b] -= inverseMass[b] * delta * nx;
+            y[b] -= inverseMass[b] * delta * ny;
+        }
+    }
+
+    private void solveAreas() {
+        for (int c = 0; c < areaCount; c++) {
+            int start = areaStart[c];
+            int length = areaLength[c];
+
+            // Gradient of the area for each particle is half of the
+            // perpendicular vector between its neighbors.
+            float weight = 0;
+            for (int i = 0; i < length; i++) {
+                int prev = rings[start + (i + length - 1) % length];
+                int next = rings[start + (i + 1) % length];
+
+                float gx = 0.5f * (y[next] - y[prev]);
+                float gy = 0.5f * (x[prev] - x[next]);
+
+                weight += inverseMass[rings[start + i]] * (gx * gx + gy * gy);
+            }
+
+            if (weight == 0) {
+                continue;
+            }
+
+            float error = area(c) - areaRest[c];
+            float delta = -error / weight;
+
+            // Gradients must be computed from positions before the correction.
+            float firstX = x[rings[start]];
+            float firstY = y[rings[start]];
+            float lastX = x[rings[start + length - 1]];
+            float lastY = y[rings[start + length - 1]];
+
+            for (int i = 0; i < length; i++) {
+                int curr = rings[start + i];
+                int next = rings[start + (i + 1) % length];
+
+                float nextX = i + 1 < length ? x[next] : firstX;
+                float nextY = i + 1 < length ? y[next] : firstY;
+
+                float gx = 0.5f * (nextY - lastY);
+                float gy = 0.5f * (lastX - nextX);
+
+                lastX = x[curr];
+                lastY = y[curr];
+
+                x[curr] += inverseMass[curr] * delta * gx;
+                y[curr] += inverseMass[curr] * delta * gy;
+            }
+        }
+    }
+
+    /**
+     * Push particles back inside level bounds.
+     */
+    private void collide() {
+        for (int i = 0; i < particleCount; i++) {
+            float depthX = Math.max(minX - x[i], 0) - Math.max(x[i] - maxX, 0);
+            float depthY = Math.max(minY - y[i], 0) - Math.max(y[i] - maxY, 0);
+
+            x[i] += depthX;
+            y[i] += depthY;
+
+            // Limit sliding along the bounds by penetration depth.
+            if (depthY != 0) {
+                float limit = SoftBody.FRICTION * Math.abs(depthY);
+                x[i] -= MathUtils.clamp(x[i] - prevX[i], -limit, limit);
+            }
+            if (depthX != 0) {
+                float limit = SoftBody.FRICTION * Math.abs(depthX);
+                y[i] -= MathUtils.clamp(y[i] - prevY[i], -limit, limit);
+            }
+        }
+    }
+
+    /**
+     * @return whether a given ring contains removed particles.
+     */
+    private boolean isRemoved(int c) {
+        for (int i = areaStart[c]; i < areaStart[c] + areaLength[c]; i++) {
+            if (removed[rings[i]]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return signed area of a given ring.
+     */
+    private float area(int c) {
+        int start = areaStart[c];
+        int length = areaLength[c];
+
+        float area = 0;
+        for (int i = 0; i < length; i++) {
+            int curr = rings[start + i];
+            int next = rings[start + (i + 1) % length];
+
+            area += x[curr] * y[next] - x[next] * y[curr];
+        }
+        return area / 2;
+    }
+
+    /**
+     * Particles at their predicted positions, corrections move them so they carry over to
+     * derived velocities.
+     */
+    private final class Predicted implements ShapeConstraints.Particles {
+
+        @Override
+        public Vector2 getPosition(int particle, Vector2 out) {
+            return out.set(x[particle], y[particle]);
+        }
+
+        @Override
+        public boolean isSimulated(int particle) {
+            return inverseMass[particle] != 0;
+        }
+
+        @Override
+        public void correct(int particle, float dx, float dy) {
+            x[particle] += dx;
+            y[particle] += dy;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.edd.softbody;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that work done every frame does not allocate once warmed up.
+ */
+public class FrameAllocationTest {
+
+    private static final int BODIES = 50;
+
+    // Frames used to warm up and to measure allocations.
+    private static final int WARMUP_FRAMES = 10000;
+    private static final int ALLOCATION_FRAMES = 1000;
+    private static final int WARMUP_RUN = 10;
+
+    private Scene scene;
+    private FrameMetrics metrics;
+
+    @Before
+    public void setUp() {
+        MockGl.install();
+
+        // Bodies are never drawn, so they need no textures.
+        scene = new Scene(8, 6);
+        for (int i = 0; i < BODIES; i++) {
+            float x = 1 + (i % 10) * 0.6f;
+            float y = 1 + (i / 10) * 0.9f;
+
+            scene.add(i % 2 == 0
+                    ? new Circle(null, scene.getSolver(), 0.3f, x, y)
+                    : new Rectangle(null, scene.getSolver(), x, y, 2, 3));
+        }
+        for (int i = 0; i < 10; i++) {
+            scene.step();
+        }
+
+        metrics = new FrameMetrics(0);
+    }
+
+    @After
+    public void tearDown() {
+        scene.dispose();
+    }
+
+    @Test
+    public void updatesVerticesWithoutAllocating() {
+        assertEquals(0, allocated(this::updateVertices));
+    }
+
+    @Test
+    public void recordsMetricsWithoutAllocating() {
+        assertEquals(0, allocated(this::recordMetrics));
+    }
+
+    private void updateVertices(int frames) {
+        List<SoftBody> bodies = scene.getBodies();
+        for (int i = 0; i < frames; i++) {
+            for (int j = 0; j < bodies.size(); j++) {
+                bodies.get(j).update();
+            }
+        }
+    }
+
+    private void recordMetrics(int frames) {
+        for (int i = 0; i < frames; i++) {
+            long start = System.nanoTime();
+            metrics.recordPhysics(0, 0, scene);
+            metrics.recordFrame(System.nanoTime() - start, 0, 0, BODIES, 0);
+        }
+    }
+
+    /**
+     * @return number of bytes allocated by frames once warmed up.
+     */
+    private static long allocated(Frames frames) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        // Warmed up in short runs, so that the frame loop is compiled as a whole method
+        // instead of being replaced on stack while allocations are measured.
+        for (int i = 0; i < WARMUP_FRAMES; i += WARMUP_RUN) {
+            frames.run(WARMUP_RUN);
+        }
+
+        // Reading allocated bytes allocates by itself, so measuring twice as many frames
+        // and taking the difference leaves only allocations made by the frames.
+        long start = threads.getThreadAllocatedBytes(thread);
+        frames.run(ALLOCATION_FRAMES);
+        long single = threads.getThreadAllocatedBytes(thread) - start;
+
+        start = threads.getThreadAllocatedBytes(thread);
+        frames.run(ALLOCATION_FRAMES * 2);
+        return Math.max(0, threads.getThreadAllocatedBytes(thread) - start - single);
+    }
+
+    private interface Frames {
+
+        void run(int frames);
+    }
+}
@@ -0,0 +1,118 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.graphics.GL20;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link GL20} which counts calls by method name and bytes uploaded to buffers. Calls are forwarded to a delegate, or if there
+ * is none, dropped while returning default values, which makes it usable as a mock without a
+ * GL context. Uses reflection, so only meant for tests.
+ */
+final class GlCallCounter implements InvocationHandler {
+
+    private final Map<String, Integer> counts = new HashMap<>();
+    private final GL20 delegate;
+    private final GL20 gl;
+
+    private int total;
+    private long uploadedBytes;
+
+    // Last object handle returned by the mock.
+    private int handle;
+
+    /**
+     * @param delegate GL to forward calls to, can be null.
+     */
+    GlCallCounter(GL20 delegate) {
+        this.delegate = delegate;
+        this.gl = (GL20) Proxy.newProxyInstance(
+                GL20.class.getClassLoader(),
+                new Class<?>[]{GL20.class},
+                this
+        );
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        counts.merge(method.getName(), 1, Integer::sum);
+        total++;
+
+        // Size is the second argument of glBufferData and the third one of glBufferSubData.
+        if ("glBufferData".equals(method.getName())) {
+            uploadedBytes += (Integer) args[1];
+        } else if ("glBufferSubData".equals(method.getName())) {
+            uploadedBytes += (Integer) args[2];
+        }
+
+        if (delegate != null) {
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        // Objects must have non zero handles, or else they are treated as not allocated.
+        String name = method.getName();
+        if (method.getReturnType() == int.class && (name.startsWith("glGen") || name.startsWith("glCreate"))) {
+            return ++handle;
+        }
+        return defaultValue(method.getReturnType());
+    }
+
+    /**
+     * @return counting GL, should be set to {@code Gdx.gl} and {@code Gdx.gl20}.
+     */
+    GL20 getGl() {
+        return gl;
+    }
+
+    /**
+     * @return number of calls to a given method since the last reset.
+     */
+    int getCount(String method) {
+        return counts.getOrDefault(method, 0);
+    }
+
+    /**
+     * @return number of calls to all methods since the last reset.
+     */
+    int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return number of bytes uploaded to buffers since the last reset.
+     */
+    long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    void reset() {
+        counts.clear();
+        total = 0;
+        uploadedBytes = 0;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == float.class) {
+            return 0f;
+        }
+        if (type == String.class) {
+            return "";
+        }
+        return null;
+    }
+}
@@ -0,0 +1,110 @@
+package com.edd.softbody;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Switches bodies between tiers back and forth and verifies that solver state does not grow.
+ */
+public class LevelOfDetailTest {
+
+    private static final float FULL_SCALE = 100;
+    private static final int BODIES = 8;
+    private static final int ROUNDS = 20;
+
+    private Scene scene;
+    private LevelOfDetail levelOfDetail;
+
+    @Before
+    public void setUp() {
+        MockGl.install();
+
+        scene = new Scene(40, 30, Scene.Backend.XPBD);
+        for (int i = 0; i < BODIES; i++) {
+            scene.add(i % 2 == 0
+                    ? new Circle(null, scene.getSolver(), 1, 3 + i * 4, 5)
+                    : new Rectangle(null, scene.getSolver(), 2 + i * 4, 15, 20, 8));
+        }
+        levelOfDetail = new LevelOfDetail(FULL_SCALE);
+    }
+
+    @After
+    public void tearDown() {
+        scene.dispose();
+    }
+
+    @Test
+    public void reusesParticlesWhenSwitchingBack() {
+        zoom(FULL_SCALE / 8);
+        zoom(FULL_SCALE);
+        for (SoftBody body : scene.getBodies()) {
+            assertEquals(0, body.getTier());
+        }
+
+        int particles = scene.getSolver().getParticleCount();
+        int constraints = scene.getSolver().getConstraintCount();
+
+        for (int i = 0; i < ROUNDS; i++) {
+            zoom(FULL_SCALE / 8);
+            zoom(FULL_SCALE);
+        }
+
+        assertEquals(particles, scene.getSolver().getParticleCount());
+        assertEquals(constraints, scene.getSolver().getConstraintCount());
+        assertTrue(scene.getPool().getHits() > 0);
+    }
+
+    @Test
+    public void keepsDraggedBodyAtItsTier() {
+        scene = replaceScene(Scene.Backend.BOX2D);
+
+        SoftBody dragged = scene.getBodies().get(0);
+        float[] position = new float[scene.getSolver().getParticleCount() * 2];
+        scene.getSolver().readPositions(position);
+
+        int particle = dragged.getParticles()[0];
+        scene.grab(position[particle * 2], position[particle * 2 + 1]);
+        assertTrue(scene.isDragging(dragged));
+
+        zoom(FULL_SCALE / 8);
+
+        assertSame(dragged, scene.getBodies().get(0));
+        for (int i = 1; i < BODIES; i++) {
+            assertTrue(scene.getBodies().get(i).getTier() > 0);
+        }
+    }
+
+    @Test
+    public void judgesVisibilityByBounds() {
+        SoftBody body = scene.getBodies().get(1);
+        body.updateBounds();
+
+        // View overlapping only the right edge of the body, farther than the view margin from its first particle.
+        float minX = body.getMaxX() - 0.1f;
+        levelOfDetail.update(scene, FULL_SCALE, minX, body.getMinY(), minX + 10, body.getMaxY());
+
+        assertEquals(0, scene.getBodies().get(1).getTier());
+    }
+
+    /**
+     * Update tiers for the whole level at a given scale until no more bodies change.
+     */
+    private void zoom(float scale) {
+        do {
+            levelOfDetail.update(scene, scale, 0, 0, scene.getWidth(), scene.getHeight());
+        } while (levelOfDetail.getChanges() > 0);
+    }
+
+    private Scene replaceScene(Scene.Backend backend) {
+        scene.dispose();
+
+        Scene scene = new Scene(40, 30, backend);
+        for (int i = 0; i < BODIES; i++) {
+            scene.add(new Circle(null, scene.getSolver(), 1, 3 + i * 4, 5));
+        }
+        return scene;
+    }
+}
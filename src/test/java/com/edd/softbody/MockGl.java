@@ -0,0 +1,57 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.physics.box2d.Box2D;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Replaces GL with a {@link GlCallCounter} for tests drawing without a display. A headless
+ * application is started once to load natives and set up files, it is never rendered, so tests
+ * issue GL calls on their own thread.
+ */
+final class MockGl {
+
+    private static GlCallCounter counter;
+
+    private MockGl() {
+    }
+
+    /**
+     * @return counter set as GL, with counts reset.
+     */
+    static synchronized GlCallCounter install() {
+        if (counter == null) {
+            HeadlessApplicationConfiguration configuration = new HeadlessApplicationConfiguration();
+            configuration.renderInterval = -1;
+
+            CountDownLatch created = new CountDownLatch(1);
+            new HeadlessApplication(new ApplicationAdapter() {
+
+                @Override
+                public void create() {
+                    created.countDown();
+                }
+            }, configuration);
+
+            try {
+                created.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while starting the application", e);
+            }
+
+            Box2D.init();
+            counter = new GlCallCounter(null);
+        }
+
+        Gdx.gl = counter.getGl();
+        Gdx.gl20 = counter.getGl();
+
+        counter.reset();
+        return counter;
+    }
+}
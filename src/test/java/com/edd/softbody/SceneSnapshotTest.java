@@ -0,0 +1,80 @@
+package com.edd.softbody;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Writes scenes into a {@link SceneSnapshot} and reads them back.
+ */
+public class SceneSnapshotTest {
+
+    private static final int BODIES = 10;
+
+    private Scene scene;
+    private SceneSnapshot snapshot;
+
+    @Before
+    public void setUp() {
+        MockGl.install();
+
+        scene = new Scene(8, 6);
+        for (int i = 0; i < BODIES; i++) {
+            scene.add(i % 2 == 0
+                    ? new Circle(null, scene.getSolver(), 0.3f, 1 + i * 0.6f, 1)
+                    : new Rectangle(null, scene.getSolver(), 1 + i * 0.6f, 3, 2, 3));
+        }
+        snapshot = new SceneSnapshot();
+    }
+
+    @After
+    public void tearDown() {
+        scene.dispose();
+    }
+
+    @Test
+    public void restoresFrozenBodies() {
+        SoftBody frozen = scene.getBodies().get(1);
+        assertTrue(scene.getSolver().freeze(frozen.getParticles()));
+        frozen.setFrozen(true);
+
+        ByteBuffer buffer = copy(snapshot.write(scene, texture -> 0));
+        SceneSnapshot.read(buffer, scene, id -> null);
+
+        List<SoftBody> bodies = scene.getBodies();
+        assertEquals(BODIES, bodies.size());
+        for (int i = 0; i < bodies.size(); i++) {
+            assertEquals("body " + i, i == 1, bodies.get(i).isFrozen());
+        }
+    }
+
+    @Test
+    public void keepsSceneWhenSnapshotIsTruncated() {
+        ByteBuffer buffer = copy(snapshot.write(scene, texture -> 0));
+        buffer.limit(buffer.limit() - 1);
+
+        Solver solver = scene.getSolver();
+        List<SoftBody> bodies = scene.getBodies();
+        try {
+            SceneSnapshot.read(buffer, scene, id -> null);
+            fail("Truncated snapshot was read");
+        } catch (IllegalArgumentException e) {
+            assertSame(solver, scene.getSolver());
+            assertEquals(BODIES, bodies.size());
+        }
+    }
+
+    /**
+     * @return copy of a buffer, since written buffers are only valid until the next write.
+     */
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer).flip();
+        return copy;
+    }
+}
@@ -0,0 +1,78 @@
+package com.edd.softbody;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs scenes on a {@link SimulationHost} and verifies how owed ticks are worked off.
+ */
+public class SimulationHostTest {
+
+    // Two ticks per frame, so that ticks beyond a frame are easy to count.
+    private static final float TICK_TIME = Scene.MAX_FRAME_TIME / 2;
+    private static final int TICKS = 10;
+
+    private SimulationHost host;
+
+    @Before
+    public void setUp() {
+        MockGl.install();
+        host = new SimulationHost(1, TICK_TIME, TICKS * 2);
+    }
+
+    @After
+    public void tearDown() {
+        host.dispose();
+    }
+
+    @Test
+    public void dropsTicksBeyondFrame() throws InterruptedException {
+        SimulationHost.HostedScene hosted = host.add(new Scene(8, 6));
+
+        // Blocks the first update, which works off one tick, until the rest are owed.
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch owed = new CountDownLatch(1);
+        hosted.execute(scene -> {
+            started.countDown();
+            await(owed);
+        });
+
+        host.advance();
+        started.await();
+        for (int i = 1; i < TICKS; i++) {
+            host.advance();
+        }
+        owed.countDown();
+        host.awaitIdle();
+
+        assertEquals(TICKS, hosted.getTicks());
+        assertEquals(TICKS - 3, hosted.getDroppedTicks());
+        assertEquals(TICKS - 3, host.getDroppedTicks());
+    }
+
+    @Test(timeout = 10000)
+    public void releasesBacklogWhenUpdateThrowsError() throws InterruptedException {
+        SimulationHost.HostedScene hosted = host.add(new Scene(8, 6));
+        hosted.execute(scene -> {
+            throw new AssertionError("Expected by test");
+        });
+
+        host.advance();
+        host.awaitIdle();
+
+        assertEquals(0, host.getBacklog());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
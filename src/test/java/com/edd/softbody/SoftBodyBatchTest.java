@@ -0,0 +1,345 @@
+package com.edd.softbody;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector2;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Draws a scene through {@link SoftBodyBatch} on a mock GL and verifies the GL calls it issues
+ * and the bytes it uploads.
+ */
+public class SoftBodyBatchTest {
+
+    private static final int FRAMES = 10;
+    private static final int BODIES = 50;
+
+    // Enough bodies to be prepared in parallel.
+    private static final int PARALLEL_BODIES = 500;
+
+    // Mesh segments per particle spacing refined bodies are drawn with.
+    private static final int REFINEMENT = 4;
+
+    // Distance bodies are moved by while out of view, in meters.
+    private static final float MOVE_DISTANCE = 3;
+
+    // Grid with more vertices than short indices can address.
+    private static final int LARGE_WIDTH = 200;
+    private static final int LARGE_HEIGHT = 170;
+
+    private GlCallCounter counter;
+    private ShaderProgram program;
+    private Texture circleTexture;
+    private Texture cubeTexture;
+    private Scene scene;
+    private SoftBodyBatch batch;
+    private Matrix4 projection;
+
+    @Before
+    public void setUp() {
+        counter = MockGl.install();
+
+        program = new ShaderProgram(
+                Gdx.files.classpath("vertex.glsl"),
+                Gdx.files.classpath("fragment.glsl")
+        );
+
+        circleTexture = new Texture(new Pixmap(1, 1, Pixmap.Format.RGBA8888));
+        cubeTexture = new Texture(new Pixmap(1, 1, Pixmap.Format.RGBA8888));
+
+        // Interleave textures, so that grouping is exercised.
+        scene = new Scene(8, 6);
+        for (int i = 0; i < BODIES; i++) {
+            float x = 1 + (i % 10) * 0.6f;
+            float y = 1 + (i / 10) * 0.9f;
+
+            scene.add(i % 2 == 0
+                    ? new Circle(circleTexture, scene.getSolver(), 0.3f, x, y)
+                    : new Rectangle(cubeTexture, scene.getSolver(), x, y, 2, 3));
+        }
+
+        batch = new SoftBodyBatch(program);
+        projection = new Matrix4();
+    }
+
+    @After
+    public void tearDown() {
+        batch.dispose();
+        scene.dispose();
+        circleTexture.dispose();
+        cubeTexture.dispose();
+        program.dispose();
+    }
+
+    @Test
+    public void setsStateOnceAndDrawsOncePerTexture() {
+        for (int i = 0; i < FRAMES; i++) {
+            scene.step();
+            drawAll(batch, scene);
+
+            assertCalls("glDrawElements", 2);
+            assertCalls("glBindTexture", 2);
+            assertCalls("glEnable", 1);
+            assertCalls("glBlendFunc", 1);
+            assertCalls("glUseProgram", 2);
+            assertEquals(2, batch.getRenderCalls());
+        }
+    }
+
+    @Test
+    public void uploadsOnlyPositionsOnceUploaded() {
+        drawAll(batch, scene);
+        assertTrue(counter.getUploadedBytes() > positionBytes(scene.getBodies()));
+
+        // Texture coordinates and indices are uploaded once, positions every frame.
+        for (int i = 0; i < FRAMES; i++) {
+            scene.step();
+            drawAll(batch, scene);
+            assertUploaded(scene.getBodies());
+        }
+    }
+
+    @Test
+    public void sharesIndicesOfSameShapes() {
+        List<SoftBody> bodies = scene.getBodies();
+        assertSame(bodies.get(1).getIndices(), bodies.get(3).getIndices());
+    }
+
+    @Test
+    public void cullsBodiesOutOfView() {
+        drawView(batch, scene, 0, 0, scene.getWidth(), scene.getHeight());
+        assertCulled(BODIES, 0);
+
+        drawView(batch, scene, 100, 100, 101, 101);
+        assertCulled(0, BODIES);
+        assertCalls("glDrawElements", 0);
+
+        // Left edge of the level only holds the first column of bodies.
+        drawView(batch, scene, 0, 0, 1.2f, scene.getHeight());
+        assertTrue(batch.getDrawnBodies() > 0);
+        assertTrue(batch.getCulledBodies() > 0);
+        assertEquals(BODIES, batch.getDrawnBodies() + batch.getCulledBodies());
+    }
+
+    @Test
+    public void preparesBodiesInParallelAsSerially() {
+        Scene scene = new Scene(40, 30, Scene.Backend.XPBD);
+        for (int i = 0; i < PARALLEL_BODIES; i++) {
+            scene.add(new Circle(circleTexture, scene.getSolver(), 0.3f, 1 + (i % 25) * 1.5f, 1 + (i / 25) * 1.4f));
+        }
+        for (int i = 0; i < FRAMES; i++) {
+            scene.step();
+        }
+
+        // Workers must not read the solver.
+        PositionReadback readback = new PositionReadback();
+        readback.update(scene.getSolver());
+
+        List<SoftBody> bodies = scene.getBodies();
+        for (SoftBody body : bodies) {
+            body.setPositions(readback);
+        }
+
+        SoftBodyBatch serial = new SoftBodyBatch(program);
+        drawAll(serial, scene);
+
+        float[][] expected = new float[bodies.size()][];
+        for (int i = 0; i < bodies.size(); i++) {
+            expected[i] = bodies.get(i).getVertices().clone();
+            Arrays.fill(bodies.get(i).getVertices(), 0);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        SoftBodyBatch parallel = new SoftBodyBatch(program, pool);
+        try {
+            drawAll(parallel, scene);
+
+            assertEquals(bodies.size(), parallel.getDrawnBodies());
+            assertCalls("glDrawElements", 1);
+            for (int i = 0; i < bodies.size(); i++) {
+                assertArrayEquals("body " + i, expected[i], bodies.get(i).getVertices(), 0);
+            }
+        } finally {
+            pool.shutdown();
+            serial.dispose();
+            parallel.dispose();
+            scene.dispose();
+        }
+    }
+
+    @Test
+    public void drawsRefinedBodiesInSameDrawCalls() {
+        List<SoftBody> bodies = scene.getBodies();
+
+        // Same bodies as uploaded, so that only the refinement changes.
+        drawAll(batch, scene);
+
+        int[] vertexCounts = new int[bodies.size()];
+        for (int i = 0; i < bodies.size(); i++) {
+            vertexCounts[i] = bodies.get(i).getVertexCount();
+        }
+
+        // Texture coordinates and indices are uploaded in the frame the refinement changed only.
+        batch.setRefinement(REFINEMENT);
+        drawAll(batch, scene);
+        assertCalls("glDrawElements", 2);
+        assertTrue(counter.getUploadedBytes() > positionBytes(bodies));
+
+        drawAll(batch, scene);
+        assertCalls("glDrawElements", 2);
+        assertUploaded(bodies);
+
+        for (int i = 0; i < bodies.size(); i++) {
+            assertTrue("body " + i, bodies.get(i).getVertexCount() > vertexCounts[i]);
+        }
+    }
+
+    @Test
+    public void skipsPositionsOfUnchangedBodies() {
+        List<SoftBody> bodies = scene.getBodies();
+        drawAll(batch, scene);
+
+        for (int i = 1; i < bodies.size(); i++) {
+            bodies.get(i).setFrozen(true);
+        }
+
+        // Vertices of frozen bodies are updated once after freezing.
+        for (int i = 0; i < 2; i++) {
+            drawAll(batch, scene);
+            assertCalls("glDrawElements", 2);
+        }
+        assertUploaded(bodies.subList(0, 1));
+    }
+
+    @Test
+    public void skipsPositionsOfUnchangedBodiesWhileCulling() {
+        List<SoftBody> bodies = scene.getBodies();
+
+        // Left edge of the level only holds the first column of bodies, first body included.
+        drawView(batch, scene, 0, 0, 1.2f, scene.getHeight());
+        int drawn = batch.getDrawnBodies();
+        assertTrue(drawn < BODIES);
+
+        for (int i = 1; i < bodies.size(); i++) {
+            bodies.get(i).setFrozen(true);
+        }
+
+        // Bodies entering the view and leaving it again are copied once, after which the
+        // same bodies are culled each frame and only the moving one is uploaded.
+        drawAll(batch, scene);
+        for (int i = 0; i < 2; i++) {
+            drawView(batch, scene, 0, 0, 1.2f, scene.getHeight());
+            assertCulled(drawn, BODIES - drawn);
+        }
+        assertUploaded(bodies.subList(0, 1));
+    }
+
+    @Test
+    public void updatesBodiesRefrozenOutOfView() {
+        SoftBody body = scene.getBodies().get(0);
+        body.setFrozen(true);
+        drawAll(batch, scene);
+
+        float[] frozen = body.getVertices().clone();
+        int version = body.getVersion();
+
+        // Thaw, move and freeze again while culled, so that vertices are not updated meanwhile.
+        body.setFrozen(false);
+        Vector2 position = new Vector2();
+        for (int particle : body.getParticles()) {
+            scene.getSolver().getPosition(particle, position);
+            scene.getSolver().setPosition(particle, position.x + MOVE_DISTANCE, position.y);
+        }
+        drawView(batch, scene, 100, 100, 101, 101);
+
+        body.setFrozen(true);
+        drawView(batch, scene, 100, 100, 101, 101);
+
+        drawAll(batch, scene);
+        assertNotEquals(version, body.getVersion());
+
+        float[] vertices = body.getVertices();
+        for (int i = 0; i < body.getVertexCount(); i++) {
+            assertEquals("x of vertex " + i, frozen[i * 2] + MOVE_DISTANCE, vertices[i * 2], 1e-4f);
+            assertEquals("y of vertex " + i, frozen[i * 2 + 1], vertices[i * 2 + 1], 1e-4f);
+        }
+    }
+
+    @Test
+    public void drawsBodiesTooLargeForShortIndicesUnindexed() {
+        XpbdSolver solver = new XpbdSolver(0, 0, LARGE_WIDTH, LARGE_HEIGHT, 0);
+        try {
+            Rectangle rectangle = new Rectangle(cubeTexture, solver, 0, 0, LARGE_WIDTH, LARGE_HEIGHT);
+
+            int indices = rectangle.getIndices().length;
+            int chunk = Short.MAX_VALUE - Short.MAX_VALUE % 3;
+
+            counter.reset();
+            batch.begin(projection);
+            batch.draw(rectangle);
+            batch.end();
+
+            assertCalls("glDrawElements", 0);
+            assertCalls("glDrawArrays", (indices + chunk - 1) / chunk);
+        } finally {
+            solver.dispose();
+        }
+    }
+
+    private void drawAll(SoftBodyBatch batch, Scene scene) {
+        drawView(batch, scene,
+                Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+                Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+    }
+
+    private void drawView(SoftBodyBatch batch, Scene scene, float minX, float minY, float maxX, float maxY) {
+        counter.reset();
+        batch.setView(minX, minY, maxX, maxY);
+        batch.begin(projection);
+        for (int i = 0; i < scene.getBodies().size(); i++) {
+            batch.draw(scene.getBodies().get(i));
+        }
+        batch.end();
+    }
+
+    /**
+     * Verify number of calls to a given GL method during the last frame.
+     */
+    private void assertCalls(String method, int expected) {
+        assertEquals(method, expected, counter.getCount(method));
+    }
+
+    private void assertCulled(int drawn, int culled) {
+        assertEquals("drawn", drawn, batch.getDrawnBodies());
+        assertEquals("culled", culled, batch.getCulledBodies());
+    }
+
+    /**
+     * Verify that only positions of given bodies were uploaded during the last frame.
+     */
+    private void assertUploaded(List<SoftBody> bodies) {
+        assertEquals("uploaded bytes", positionBytes(bodies), counter.getUploadedBytes());
+    }
+
+    /**
+     * @return bytes of positions of given bodies.
+     */
+    private static long positionBytes(List<SoftBody> bodies) {
+        long bytes = 0;
+        for (int i = 0; i < bodies.size(); i++) {
+            bytes += bodies.get(i).getVertexCount() * SoftBody.COMPONENT_COUNT * Float.BYTES;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,60 @@
+package com.edd.softbody;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Frees bodies into a {@link SoftBodyPool} and verifies which of them are recycled.
+ */
+public class SoftBodyPoolTest {
+
+    private XpbdSolver solver;
+    private SoftBodyPool pool;
+
+    @Before
+    public void setUp() {
+        solver = new XpbdSolver(0, 0, 40, 30, 0);
+        pool = new SoftBodyPool(solver);
+    }
+
+    @After
+    public void tearDown() {
+        solver.dispose();
+    }
+
+    @Test
+    public void recyclesCirclesOfAboutTheSameRadius() {
+        Circle circle = pool.obtainCircle(null, 0.52f, 5, 5);
+        pool.free(circle);
+
+        assertSame(circle, pool.obtainCircle(null, 0.48f, 10, 10));
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void removesBodiesFreedAtAnotherTier() {
+        Circle circle = pool.obtainCircle(null, 1, 5, 5);
+        SoftBody coarse = circle.createTier(solver, circle.getTierCount() - 1);
+        solver.destroyParticles(circle.getParticles());
+
+        pool.free(coarse);
+
+        assertEquals(0, pool.getFreeCount());
+        assertNotSame(coarse, pool.obtainCircle(null, 1, 5, 5));
+    }
+
+    @Test
+    public void keepsBodiesReplacedByAnotherTier() {
+        Circle circle = pool.obtainCircle(null, 1, 5, 5);
+        SoftBody coarse = pool.obtainTier(circle, circle.getTierCount() - 1);
+        pool.freeTier(circle);
+
+        pool.freeTier(coarse);
+        assertSame(coarse, pool.obtainTier(circle, coarse.getTier()));
+        assertEquals(1, pool.getFreeCount());
+    }
+}